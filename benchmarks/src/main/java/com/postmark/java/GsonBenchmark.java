@@ -0,0 +1,94 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares building a Gson instance for every send, as the client used to,
+ * with the shared instance from {@link PostmarkGson}.
+ * <p/>
+ * Run with {@code -prof gc} to see the allocation per message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GsonBenchmark {
+
+    private static final String RESPONSE = "{\"To\":\"user@email.com\",\"SubmittedAt\":\"2014-02-17T07:25:01.4178645-05:00\","
+            + "\"MessageID\":\"0a129aee-e1cd-480d-b08d-4f48548ff48d\",\"ErrorCode\":0,\"Message\":\"OK\"}";
+
+    private PostmarkMessage message;
+
+    @Setup
+    public void setUp() {
+        List<NameValuePair> headers = new ArrayList<NameValuePair>();
+        headers.add(new NameValuePair("X-Campaign", "digest"));
+
+        message = new PostmarkMessage("team@company.com", "user@email.com", "support@company.com", null,
+                "Your daily digest", "<h1>Digest</h1><p>Everything that happened today.</p>", true, "digest", headers);
+    }
+
+    @Benchmark
+    public PostmarkResponse perCallGson() {
+        // The serialize/parse round trip of a send before the Gson instance was shared
+        String json = newGson().toJson(message);
+        PostmarkResponse response = newGson().fromJson(RESPONSE, PostmarkResponse.class);
+        return json.length() > 0 ? response : null;
+    }
+
+    @Benchmark
+    public PostmarkResponse sharedGson() {
+        String json = PostmarkGson.INSTANCE.toJson(message);
+        PostmarkResponse response = PostmarkGson.INSTANCE.fromJson(RESPONSE, PostmarkResponse.class);
+        return json.length() > 0 ? response : null;
+    }
+
+    private static Gson newGson() {
+        return new GsonBuilder()
+                .registerTypeAdapter(DateTime.class, new DateTimeTypeAdapter())
+                .setPrettyPrinting()
+                .setExclusionStrategies(new SkipMeExclusionStrategy(Boolean.class))
+                .disableHtmlEscaping()
+                .create();
+    }
+}
@@ -0,0 +1,126 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures writing the request body of a message and of a template message,
+ * as the client does while the request is sent, with an attachment of
+ * {@code attachmentBytes} raw bytes (0 for none).
+ * <p/>
+ * The body goes to a stream that discards it, so the figures are the cost
+ * of serialization and base64 encoding alone. Run with {@code -prof gc} to
+ * see the allocation per message, which should not grow with the attachment.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadBenchmark {
+
+    @Param({"0", "10240", "1048576"})
+    public int attachmentBytes;
+
+    private final OutputStream discard = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private JsonEntity message;
+    private JsonEntity template;
+
+    @Setup
+    public void setUp() {
+        List<NameValuePair> headers = new ArrayList<NameValuePair>();
+        headers.add(new NameValuePair("X-Campaign", "digest"));
+
+        PostmarkMessage postmarkMessage = new PostmarkMessage("team@company.com", "user@email.com", "support@company.com", null,
+                "Your daily digest", "<h1>Digest</h1><p>Everything that happened today.</p>", true, "digest", headers);
+
+        Map<String, Object> model = new HashMap<String, Object>();
+        model.put("name", "Jane");
+        model.put("items", 3);
+        PostmarkTemplate postmarkTemplate = new PostmarkTemplate("team@company.com", "user@email.com", "support@company.com",
+                null, "digest", headers, 1234, new DigestModel(model), true);
+
+        if (attachmentBytes > 0) {
+            byte[] content = new byte[attachmentBytes];
+            new Random(42).nextBytes(content);
+            postmarkMessage.setAttachments(Collections.singletonList(
+                    Attachment.fromByteBuffer(ByteBuffer.wrap(content), "report.pdf", "application/pdf")));
+            postmarkTemplate.setAttachments(Collections.singletonList(
+                    Attachment.fromByteBuffer(ByteBuffer.wrap(content), "report.pdf", "application/pdf")));
+        }
+
+        message = new JsonEntity(PostmarkGson.INSTANCE, postmarkMessage);
+        template = new JsonEntity(PostmarkGson.INSTANCE, postmarkTemplate);
+    }
+
+    @Benchmark
+    public void message() throws IOException {
+        message.writeTo(discard);
+    }
+
+    @Benchmark
+    public void template() throws IOException {
+        template.writeTo(discard);
+    }
+
+    public static class DigestModel implements TemplateModel {
+
+        private final Map<String, Object> digest;
+
+        DigestModel(Map<String, Object> digest) {
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.google.gson.stream.JsonReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing the response to a single send and to a full batch of
+ * {@link PostmarkClient#MAX_BATCH_SIZE} messages into {@link PostmarkResponse}s,
+ * from a {@code String} and, as the client does, streamed from the raw bytes
+ * through a {@link ResponseReader}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ResponseParsingBenchmark {
+
+    private static final String RESPONSE = "{\"To\":\"user@email.com\",\"SubmittedAt\":\"2014-02-17T07:25:01.4178645-05:00\","
+            + "\"MessageID\":\"0a129aee-e1cd-480d-b08d-4f48548ff48d\",\"ErrorCode\":0,\"Message\":\"OK\"}";
+
+    private String batchResponse;
+    private byte[] batchBytes;
+
+    @Setup
+    public void setUp() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < PostmarkClient.MAX_BATCH_SIZE; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(RESPONSE);
+        }
+        batchResponse = sb.append(']').toString();
+        batchBytes = batchResponse.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public PostmarkResponse single() {
+        return PostmarkGson.INSTANCE.fromJson(RESPONSE, PostmarkResponse.class);
+    }
+
+    @Benchmark
+    public PostmarkResponse[] batch() {
+        return PostmarkGson.INSTANCE.fromJson(batchResponse, PostmarkResponse[].class);
+    }
+
+    @Benchmark
+    public PostmarkResponse[] batchStreamed() {
+        ResponseReader reader = ResponseReader.open(new ByteArrayInputStream(batchBytes));
+        try {
+            return PostmarkGson.INSTANCE.fromJson(new JsonReader(reader), PostmarkResponse[].class);
+        } finally {
+            reader.close();
+        }
+    }
+}
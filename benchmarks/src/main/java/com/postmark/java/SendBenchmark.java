@@ -0,0 +1,135 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@code sendMessage} end to end against an HTTP stub on the
+ * loopback interface that answers every request at once, from one thread
+ * and from eight.
+ * <p/>
+ * The stub takes no time of its own, so the figures show what the client
+ * adds to a send. Run with {@code -prof gc} to see the allocation per send.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SendBenchmark {
+
+    private static final byte[] RESPONSE = ("{\"To\":\"user@email.com\",\"SubmittedAt\":\"2014-02-17T07:25:01.4178645-05:00\","
+            + "\"MessageID\":\"0a129aee-e1cd-480d-b08d-4f48548ff48d\",\"ErrorCode\":0,\"Message\":\"OK\"}").getBytes();
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private PostmarkClient client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // Without this the stub's responses wait on delayed ACKs
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        serverThreads = Executors.newFixedThreadPool(16);
+        server.setExecutor(serverThreads);
+        server.createContext("/email", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream body = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                while (body.read(buffer) != -1) {
+                    // Read the whole request so the connection can be reused
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, RESPONSE.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(RESPONSE);
+                out.close();
+            }
+        });
+        server.start();
+
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setMaxConnectionsPerRoute(16);
+        client = new PostmarkClient("POSTMARK_API_TEST",
+                "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort(), config);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        client.close();
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @State(Scope.Thread)
+    public static class Message {
+
+        PostmarkMessage message;
+
+        @Setup
+        public void setUp() {
+            message = new PostmarkMessage("team@company.com", "user@email.com", "support@company.com", null,
+                    "Your daily digest", "<h1>Digest</h1><p>Everything that happened today.</p>", true, "digest");
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public PostmarkResponse singleThreaded(Message message) throws PostmarkException {
+        return client.sendMessage(message.message);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public PostmarkResponse multiThreaded(Message message) throws PostmarkException {
+        return client.sendMessage(message.message);
+    }
+}
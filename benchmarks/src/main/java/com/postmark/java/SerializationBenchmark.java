@@ -0,0 +1,82 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the hand-written message writers of {@link PostmarkTypeAdapterFactory}
+ * with Gson's reflective serialization of the same message.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    private final Gson reflective = new GsonBuilder()
+            .registerTypeAdapter(DateTime.class, new DateTimeTypeAdapter())
+            .setExclusionStrategies(new SkipMeExclusionStrategy())
+            .disableHtmlEscaping()
+            .create();
+
+    private PostmarkMessage message;
+
+    @Setup
+    public void setUp() {
+        List<NameValuePair> headers = new ArrayList<NameValuePair>();
+        headers.add(new NameValuePair("X-Campaign", "digest"));
+        headers.add(new NameValuePair("X-Priority", "3"));
+
+        message = new PostmarkMessage("team@company.com", "user@email.com", "support@company.com", null,
+                "Your daily digest", "<h1>Digest</h1><p>Everything that happened today.</p>", true, "digest", headers);
+    }
+
+    @Benchmark
+    public String reflectiveWriter() {
+        return reflective.toJson(message);
+    }
+
+    @Benchmark
+    public String handWrittenWriter() {
+        return PostmarkGson.INSTANCE.toJson(message);
+    }
+}
@@ -0,0 +1,90 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java.micrometer;
+
+import com.postmark.java.PostmarkMetrics;
+import com.postmark.java.PostmarkStatus;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the metrics of a {@link com.postmark.java.PostmarkClient} to a
+ * Micrometer {@link MeterRegistry}.
+ * <p/>
+ * Phases are recorded by the timer {@code postmark.phase}, tagged with
+ * {@code phase} and {@code endpoint}; messages by the timer
+ * {@code postmark.send}, tagged with {@code endpoint}, {@code status} and
+ * {@code errorCode}. Timers are looked up once and then cached, so recording
+ * does not go through the registry.
+ */
+public class MicrometerPostmarkMetrics implements PostmarkMetrics {
+
+    private final MeterRegistry registry;
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+
+    /**
+     * @param registry where the timers are registered
+     */
+    public MicrometerPostmarkMetrics(MeterRegistry registry) {
+        if (registry == null) {
+            throw new IllegalArgumentException("registry must not be null");
+        }
+        this.registry = registry;
+    }
+
+    @Override
+    public void recordPhase(Phase phase, String endpoint, long durationNanos) {
+        String key = phase.name() + ' ' + endpoint;
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timer = Timer.builder("postmark.phase")
+                    .description("Time spent in one stage of sending to Postmark")
+                    .tag("phase", phase.name())
+                    .tag("endpoint", String.valueOf(endpoint))
+                    .register(registry);
+            timers.putIfAbsent(key, timer);
+        }
+        timer.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordSend(String endpoint, PostmarkStatus status, int errorCode, long durationNanos) {
+        String key = endpoint + ' ' + status + ' ' + errorCode;
+        Timer timer = timers.get(key);
+        if (timer == null) {
+            timer = Timer.builder("postmark.send")
+                    .description("Time taken to send a message to Postmark, by outcome")
+                    .tag("endpoint", String.valueOf(endpoint))
+                    .tag("status", String.valueOf(status))
+                    .tag("errorCode", Integer.toString(errorCode))
+                    .register(registry);
+            timers.putIfAbsent(key, timer);
+        }
+        timer.record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+}
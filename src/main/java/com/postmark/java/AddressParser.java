@@ -0,0 +1,301 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Parses RFC 5322 address lists, such as
+ * {@code "Doe, Jane" <jane@example.com>, john@example.com}, to check them
+ * and count the mailboxes before a message is sent.
+ * <p/>
+ * Each mailbox is either a bare address or a display name followed by an
+ * address in angle brackets. Quoted strings, comments and quoted local parts
+ * are understood, as are UTF-8 characters in names, local parts and domains.
+ * Groups and the obsolete forms of RFC 5322 are not accepted, and domains
+ * must be host names with at least one dot, or address literals.
+ * <p/>
+ * The parser walks the string with character tables built once, so checking
+ * an address allocates nothing.
+ */
+final class AddressParser {
+
+    private static final int MAX_LOCAL_PART_LENGTH = 64;
+    private static final int MAX_DOMAIN_LENGTH = 255;
+    private static final int MAX_LABEL_LENGTH = 63;
+
+    // Characters of an atom, RFC 5322 section 3.2.3
+    private static final boolean[] ATEXT = new boolean[128];
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            ATEXT[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            ATEXT[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            ATEXT[c] = true;
+        }
+        for (char c : "!#$%&'*+-/=?^_`{|}~".toCharArray()) {
+            ATEXT[c] = true;
+        }
+    }
+
+    private AddressParser() {
+    }
+
+    /**
+     * @param list comma-separated mailboxes
+     * @return the number of mailboxes in the list, 0 if it is blank, or -1
+     * if it is not a valid address list
+     */
+    static int countMailboxes(String list) {
+        int length = list.length();
+        int pos = skipCfws(list, 0);
+        if (pos == length) {
+            return 0;
+        }
+
+        int count = 0;
+        while (true) {
+            pos = mailbox(list, pos);
+            if (pos < 0) {
+                return -1;
+            }
+            count++;
+
+            pos = skipCfws(list, pos);
+            if (pos == length) {
+                return count;
+            }
+            if (pos < 0 || list.charAt(pos) != ',') {
+                return -1;
+            }
+            pos = skipCfws(list, pos + 1);
+            if (pos < 0 || pos == length) {
+                return -1;
+            }
+        }
+    }
+
+    // mailbox = name-addr / addr-spec; returns the position after it, or -1
+    private static int mailbox(String s, int pos) {
+        int end = addrSpec(s, pos);
+        if (end >= 0) {
+            int next = skipCfws(s, end);
+            if (next == s.length() || (next >= 0 && s.charAt(next) == ',')) {
+                return end;
+            }
+        }
+
+        // name-addr = [display-name] "<" addr-spec ">"
+        pos = phrase(s, pos);
+        if (pos < 0 || pos == s.length() || s.charAt(pos) != '<') {
+            return -1;
+        }
+        pos = skipCfws(s, pos + 1);
+        if (pos < 0) {
+            return -1;
+        }
+        pos = addrSpec(s, pos);
+        if (pos < 0) {
+            return -1;
+        }
+        pos = skipCfws(s, pos);
+        if (pos < 0 || pos == s.length() || s.charAt(pos) != '>') {
+            return -1;
+        }
+        return pos + 1;
+    }
+
+    // Zero or more words of a display name, each an atom or a quoted string,
+    // with the periods that are common in names; returns the position of
+    // the first character after it that is not space or a comment
+    private static int phrase(String s, int pos) {
+        int length = s.length();
+        pos = skipCfws(s, pos);
+        while (pos >= 0 && pos < length) {
+            char c = s.charAt(pos);
+            int end;
+            if (c == '"') {
+                end = quotedString(s, pos);
+            } else if (isAtext(c) || c == '.') {
+                end = pos + 1;
+                while (end < length && (isAtext(s.charAt(end)) || s.charAt(end) == '.')) {
+                    end++;
+                }
+            } else {
+                return pos;
+            }
+            if (end < 0) {
+                return -1;
+            }
+            pos = skipCfws(s, end);
+        }
+        return pos;
+    }
+
+    // addr-spec = local-part "@" domain; returns the position after it, or -1
+    private static int addrSpec(String s, int pos) {
+        int length = s.length();
+        if (pos >= length) {
+            return -1;
+        }
+
+        int start = pos;
+        pos = (s.charAt(pos) == '"') ? quotedString(s, pos) : dotAtom(s, pos);
+        if (pos < 0 || pos - start > MAX_LOCAL_PART_LENGTH || pos == length || s.charAt(pos) != '@') {
+            return -1;
+        }
+        pos++;
+        if (pos == length) {
+            return -1;
+        }
+        return (s.charAt(pos) == '[') ? domainLiteral(s, pos) : hostName(s, pos);
+    }
+
+    // dot-atom-text = 1*atext *("." 1*atext)
+    private static int dotAtom(String s, int pos) {
+        int length = s.length();
+        while (true) {
+            int start = pos;
+            while (pos < length && isAtext(s.charAt(pos))) {
+                pos++;
+            }
+            if (pos == start) {
+                return -1;
+            }
+            if (pos == length || s.charAt(pos) != '.') {
+                return pos;
+            }
+            pos++;
+        }
+    }
+
+    // Labels of letters, digits and inner hyphens, separated by single dots
+    private static int hostName(String s, int pos) {
+        int length = s.length();
+        int start = pos;
+        int labels = 0;
+        while (true) {
+            int labelStart = pos;
+            while (pos < length && isLabelChar(s.charAt(pos))) {
+                pos++;
+            }
+            int labelLength = pos - labelStart;
+            if (labelLength == 0 || labelLength > MAX_LABEL_LENGTH
+                    || s.charAt(labelStart) == '-' || s.charAt(pos - 1) == '-') {
+                return -1;
+            }
+            labels++;
+            if (pos < length && s.charAt(pos) == '.' && pos + 1 < length && isLabelChar(s.charAt(pos + 1))) {
+                pos++;
+                continue;
+            }
+            break;
+        }
+        return (labels >= 2 && pos - start <= MAX_DOMAIN_LENGTH) ? pos : -1;
+    }
+
+    // domain-literal = "[" *dtext "]", such as [192.0.2.1]
+    private static int domainLiteral(String s, int pos) {
+        int length = s.length();
+        for (pos++; pos < length; pos++) {
+            char c = s.charAt(pos);
+            if (c == ']') {
+                return pos + 1;
+            }
+            if (c == '[' || c == '\\' || c <= ' ' || c == 127) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    // quoted-string = DQUOTE *(qtext / quoted-pair) DQUOTE
+    private static int quotedString(String s, int pos) {
+        int length = s.length();
+        for (pos++; pos < length; pos++) {
+            char c = s.charAt(pos);
+            if (c == '"') {
+                return pos + 1;
+            }
+            if (c == '\\') {
+                // A quoted-pair needs a character after the backslash
+                if (pos + 1 == length || isLineBreak(s.charAt(pos + 1))) {
+                    return -1;
+                }
+                pos++;
+            } else if (isLineBreak(c)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    // Skips white space and comments; returns -1 for an unclosed comment
+    private static int skipCfws(String s, int pos) {
+        int length = s.length();
+        while (pos < length) {
+            char c = s.charAt(pos);
+            if (c == ' ' || c == '\t') {
+                pos++;
+            } else if (c == '(') {
+                int depth = 1;
+                for (pos++; depth > 0; pos++) {
+                    if (pos == length) {
+                        return -1;
+                    }
+                    char d = s.charAt(pos);
+                    if (d == '\\') {
+                        if (pos + 1 == length) {
+                            return -1;
+                        }
+                        pos++;
+                    } else if (d == '(') {
+                        depth++;
+                    } else if (d == ')') {
+                        depth--;
+                    }
+                }
+            } else {
+                break;
+            }
+        }
+        return pos;
+    }
+
+    private static boolean isAtext(char c) {
+        return (c < 128) ? ATEXT[c] : !Character.isWhitespace(c) && !Character.isISOControl(c);
+    }
+
+    private static boolean isLabelChar(char c) {
+        if (c < 128) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-';
+        }
+        return Character.isLetterOrDigit(c) || Character.getType(c) == Character.NON_SPACING_MARK;
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\r' || c == '\n';
+    }
+}
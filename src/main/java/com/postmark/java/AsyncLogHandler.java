@@ -0,0 +1,176 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+
+/**
+ * A {@link Handler} that hands records to another handler on a background
+ * thread, so that threads sending mail never wait for console or file I/O.
+ * <p/>
+ * Records are queued in a bounded buffer. When the buffer is full, new
+ * records are dropped rather than blocking the caller; {@link #getDroppedCount()}
+ * tells how many. {@link #flush()} and {@link #close()} wait for the queued
+ * records to be published. Sample code:
+ * <pre>
+ * {@code
+ * Logger logger = Logger.getLogger("com.postmark.java");
+ * logger.addHandler(new AsyncLogHandler(new ConsoleHandler(), 1024));
+ * }
+ * </pre>
+ */
+public class AsyncLogHandler extends Handler {
+
+    // How long flush and close wait for the queued records to be published
+    private static final long DRAIN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final Handler target;
+    private final BlockingQueue<LogRecord> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean closed;
+
+    // Records queued or being published, guarded by itself
+    private final Object idle = new Object();
+    private int pending;
+
+    /**
+     * @param target   the handler that publishes the records
+     * @param capacity the number of records that can wait to be published
+     */
+    public AsyncLogHandler(Handler target, int capacity) {
+        this.target = target;
+        this.queue = new ArrayBlockingQueue<LogRecord>(capacity);
+
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "postmark-async-log");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+
+        // The caller is inferred from the stack of the logging thread, so it
+        // must be resolved before the record changes threads
+        record.getSourceClassName();
+
+        synchronized (idle) {
+            if (queue.offer(record)) {
+                pending++;
+            } else {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Waits up to 5 seconds for the queued records to be published, then
+     * flushes the target handler.
+     */
+    @Override
+    public void flush() {
+        // A target that logs from the worker thread must not wait for itself
+        if (Thread.currentThread() != worker) {
+            long deadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MILLIS;
+            synchronized (idle) {
+                long remaining = DRAIN_TIMEOUT_MILLIS;
+                while (pending > 0 && !closed && remaining > 0) {
+                    try {
+                        idle.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            }
+        }
+        target.flush();
+    }
+
+    /**
+     * Publishes the records still queued and closes the target handler.
+     */
+    @Override
+    public void close() throws SecurityException {
+        closed = true;
+        worker.interrupt();
+        try {
+            worker.join(DRAIN_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        List<LogRecord> remaining = new ArrayList<LogRecord>();
+        queue.drainTo(remaining);
+        for (LogRecord record : remaining) {
+            target.publish(record);
+        }
+        target.close();
+    }
+
+    /**
+     * @return the number of records dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void drain() {
+        while (!closed) {
+            LogRecord record;
+            try {
+                record = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                target.publish(record);
+            } catch (RuntimeException e) {
+                reportError(null, e, ErrorManager.WRITE_FAILURE);
+            } finally {
+                synchronized (idle) {
+                    if (--pending == 0) {
+                        idle.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+}
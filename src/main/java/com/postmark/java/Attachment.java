@@ -22,6 +22,14 @@
 
 package com.postmark.java;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+
 /**
  * Attachment for a message.<p/>
  * Sample code:
@@ -45,12 +53,117 @@ package com.postmark.java;
  * message.setAttachments(v);
  * }
  * </pre>
+ * Large attachments do not need to be read and encoded up front. Use one of
+ * the factory methods instead, and the content is base64-encoded chunk by
+ * chunk while the message is sent:
+ * <pre>
+ * {@code
+ * Attachment attachment = Attachment.fromPath(Paths.get("SomethingAwesome.pdf"), "application/pdf");
+ * }
+ * </pre>
  */
 public class Attachment {
 	private String name;
 	private String contentType;
 	private String content;
 
+	// Raw bytes that are encoded lazily instead of the content string
+	private transient AttachmentSource source;
+
+	// SHA-256 digest of the content string, computed on first comparison
+	private transient byte[] contentDigest;
+
+	/**
+	 * Creates an attachment whose content is read from a file when the message
+	 * is sent. The file is memory-mapped and encoded in chunks, so it is never
+	 * held on the heap as a whole. The attachment is named after the file.
+	 *
+	 * @param path        the file to attach
+	 * @param contentType the MIME type of the file
+	 * @return the attachment
+	 */
+	public static Attachment fromPath(Path path, String contentType) {
+		return fromPath(path, path.getFileName().toString(), contentType);
+	}
+
+	/**
+	 * Creates an attachment whose content is read from a file when the message
+	 * is sent. See {@link #fromPath(Path, String)}.
+	 *
+	 * @param path        the file to attach
+	 * @param name        the file name shown to the recipient
+	 * @param contentType the MIME type of the file
+	 * @return the attachment
+	 */
+	public static Attachment fromPath(Path path, String name, String contentType) {
+		return create(AttachmentSource.of(path), name, contentType);
+	}
+
+	/**
+	 * Creates an attachment whose content is read from a file when the message
+	 * is sent. See {@link #fromPath(Path, String)}.
+	 *
+	 * @param file        the file to attach
+	 * @param contentType the MIME type of the file
+	 * @return the attachment
+	 */
+	public static Attachment fromFile(File file, String contentType) {
+		return fromPath(file.toPath(), contentType);
+	}
+
+	/**
+	 * Creates an attachment whose content is encoded from the remaining bytes
+	 * of a buffer when the message is sent. The buffer's position is not
+	 * changed, and it must not be modified until the message has been sent.
+	 *
+	 * @param bytes       the raw attachment content
+	 * @param name        the file name shown to the recipient
+	 * @param contentType the MIME type of the content
+	 * @return the attachment
+	 */
+	public static Attachment fromByteBuffer(ByteBuffer bytes, String name, String contentType) {
+		return create(AttachmentSource.of(bytes), name, contentType);
+	}
+
+	/**
+	 * Creates an attachment whose content is read from a stream when the
+	 * message is sent. The stream is closed once it has been read.
+	 * <p/>
+	 * A stream can only be read once, so a message with such an attachment
+	 * can only be sent once, and a failed request cannot be repeated. Prefer
+	 * {@link #fromPath(Path, String)} or {@link #fromByteBuffer(ByteBuffer, String, String)}
+	 * where possible.
+	 *
+	 * @param stream      the raw attachment content
+	 * @param name        the file name shown to the recipient
+	 * @param contentType the MIME type of the content
+	 * @return the attachment
+	 */
+	public static Attachment fromInputStream(InputStream stream, String name, String contentType) {
+		return create(AttachmentSource.of(stream), name, contentType);
+	}
+
+	/**
+	 * Creates an attachment from content registered with an {@link AttachmentCache}.
+	 * The cached encoding is written as is, without encoding the content again.
+	 *
+	 * @param handle      the cached content
+	 * @param name        the file name shown to the recipient
+	 * @param contentType the MIME type of the content
+	 * @return the attachment
+	 */
+	public static Attachment fromHandle(AttachmentHandle handle, String name, String contentType) {
+		return create(AttachmentSource.of(handle), name, contentType);
+	}
+
+	private static Attachment create(AttachmentSource source, String name, String contentType) {
+		Attachment attachment = new Attachment();
+		attachment.setName(name);
+		attachment.setContentType(contentType);
+		attachment.source = source;
+		return attachment;
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -67,24 +180,73 @@ public class Attachment {
 		this.contentType = contentType;
 	}
 
+	/**
+	 * @return the base64 encoded content. For attachments created by one of
+	 * the factory methods this reads and encodes the whole content.
+	 */
 	public String getContent() {
+		if (source != null) {
+			try {
+				return source.toBase64();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
 		return content;
 	}
 
+	/**
+	 * @param content The base64 encoded content, replacing any lazily read content
+	 */
 	public void setContent(String content) {
 		this.content = content;
+		this.source = null;
+		this.contentDigest = null;
+	}
+
+	// The length of the base64 content, or -1 if it cannot be known without
+	// reading a stream
+	long getEncodedLength() {
+		if (source != null) {
+			return source.encodedLength();
+		}
+		return (content != null) ? content.length() : 0;
+	}
+
+	// The digest of the encoded content if it can be had without reading a
+	// file or stream; content strings are digested once and remembered
+	private byte[] digest() {
+		if (source != null) {
+			return source.digest();
+		}
+		if (content == null) {
+			return null;
+		}
+		byte[] digest = contentDigest;
+		if (digest == null) {
+			digest = AttachmentCache.sha256(content);
+			contentDigest = digest;
+		}
+		return digest;
+	}
+
+	AttachmentSource getSource() {
+		return source;
 	}
 
 	@Override
 	public String toString() {
-		return "Attachment [name=" + name + ", contentType=" + contentType + ", content=" + content + "]";
+		// Never dump the content itself, it may be megabytes of base64
+		Object description = (source != null) ? source : (content != null) ? content.length() + " characters" : null;
+		return "Attachment [name=" + name + ", contentType=" + contentType + ", content=" + description + "]";
 	}
 
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((content == null) ? 0 : content.hashCode());
+		byte[] digest = digest();
+		result = prime * result + ((digest != null) ? Arrays.hashCode(digest) : (source != null) ? source.hashCode() : 0);
 		result = prime * result + ((contentType == null) ? 0 : contentType.hashCode());
 		result = prime * result + ((name == null) ? 0 : name.hashCode());
 		return result;
@@ -99,11 +261,6 @@ public class Attachment {
 		if (getClass() != obj.getClass())
 			return false;
 		Attachment other = (Attachment) obj;
-		if (content == null) {
-			if (other.content != null)
-				return false;
-		} else if (!content.equals(other.content))
-			return false;
 		if (contentType == null) {
 			if (other.contentType != null)
 				return false;
@@ -114,6 +271,15 @@ public class Attachment {
 				return false;
 		} else if (!name.equals(other.name))
 			return false;
-		return true;
+
+		// Content strings and cached content compare by digest; files,
+		// buffers and streams by what they read from
+		byte[] digest = digest();
+		byte[] otherDigest = other.digest();
+		if (digest != null || otherDigest != null)
+			return Arrays.equals(digest, otherDigest);
+		if (source == null)
+			return other.source == null;
+		return source.equals(other.source);
 	}
 }
\ No newline at end of file
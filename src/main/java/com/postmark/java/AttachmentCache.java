@@ -0,0 +1,246 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed store of base64-encoded attachment content.
+ * <p/>
+ * Attachments that go out with many messages, such as terms and conditions
+ * or logos, only need to be encoded once: register the raw content, keep the
+ * returned {@link AttachmentHandle}, and create attachments from it with
+ * {@link Attachment#fromHandle(AttachmentHandle, String, String)}. Content is
+ * keyed by its SHA-256 digest, so registering the same bytes again returns
+ * the cached handle without encoding them again.
+ * <p/>
+ * The cache holds at most {@code maxBytes} of encoded content and evicts the
+ * least recently used content first. Content can be kept in direct
+ * buffers outside of the Java heap. The cache is thread-safe.
+ */
+public class AttachmentCache {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long maxBytes;
+    private final boolean offHeap;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, AttachmentHandle> entries = new LinkedHashMap<String, AttachmentHandle>(16, 0.75f, true);
+    private long size;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxBytes the maximum total size of the cached encoded content
+     * @param offHeap  whether to store encoded content in direct buffers, outside of the Java heap
+     */
+    public AttachmentCache(long maxBytes, boolean offHeap) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be at least 1");
+        }
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @param content the raw attachment content
+     * @return the handle of the content
+     */
+    public AttachmentHandle register(byte[] content) {
+        return register(ByteBuffer.wrap(content));
+    }
+
+    /**
+     * @param content the raw attachment content; its remaining bytes are
+     *                registered and its position is left unchanged
+     * @return the handle of the content
+     */
+    public AttachmentHandle register(ByteBuffer content) {
+        ByteBuffer raw = content.duplicate();
+        String key = toHex(sha256(raw.duplicate()));
+
+        synchronized (this) {
+            AttachmentHandle handle = entries.get(key);
+            if (handle != null) {
+                hits.incrementAndGet();
+                return handle;
+            }
+        }
+
+        // Encode outside of the lock; concurrent misses for the same content
+        // both encode it, and the first one to finish is kept
+        misses.incrementAndGet();
+        ByteBuffer encoded = encode(raw);
+        AttachmentHandle handle = new AttachmentHandle(key, sha256(encoded.duplicate()), encoded);
+
+        synchronized (this) {
+            AttachmentHandle existing = entries.get(key);
+            if (existing != null) {
+                return existing;
+            }
+            if (handle.getEncodedLength() <= maxBytes) {
+                entries.put(key, handle);
+                size += handle.getEncodedLength();
+                evict();
+            }
+        }
+        return handle;
+    }
+
+    /**
+     * @param path a file with the raw attachment content
+     * @return the handle of the content
+     * @throws IOException if the file cannot be read
+     */
+    public AttachmentHandle register(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return register(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @param key the hex SHA-256 digest of the raw content
+     * @return the cached handle, or null if the content is not cached
+     */
+    public synchronized AttachmentHandle get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * @return the total size of the cached encoded content in bytes
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of registrations answered from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of registrations that had to encode their content
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Removes all content from the cache. Existing handles stay valid.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, AttachmentHandle>> eldest = entries.entrySet().iterator();
+        while (size > maxBytes && eldest.hasNext()) {
+            size -= eldest.next().getValue().getEncodedLength();
+            eldest.remove();
+        }
+    }
+
+    // Encodes in chunks straight into the storage buffer
+    private ByteBuffer encode(ByteBuffer raw) {
+        int encodedLength = (raw.remaining() + 2) / 3 * 4;
+        ByteBuffer encoded = offHeap ? ByteBuffer.allocateDirect(encodedLength) : ByteBuffer.allocate(encodedLength);
+
+        byte[] chunk = new byte[AttachmentSource.CHUNK_SIZE];
+        byte[] encodedChunk = new byte[AttachmentSource.CHUNK_SIZE / 3 * 4];
+        while (raw.hasRemaining()) {
+            int length = Math.min(chunk.length, raw.remaining());
+            raw.get(chunk, 0, length);
+            byte[] source = (length == chunk.length) ? chunk : Arrays.copyOf(chunk, length);
+            int written = Base64.getEncoder().encode(source, encodedChunk);
+            encoded.put(encodedChunk, 0, written);
+        }
+
+        encoded.flip();
+        return encoded;
+    }
+
+    static byte[] sha256(ByteBuffer bytes) {
+        MessageDigest digest = newSha256();
+        digest.update(bytes);
+        return digest.digest();
+    }
+
+    // Digests base64 text as ASCII bytes, a chunk at a time
+    static byte[] sha256(String base64) {
+        MessageDigest digest = newSha256();
+        byte[] chunk = new byte[8192];
+        for (int start = 0; start < base64.length(); start += chunk.length) {
+            int end = Math.min(start + chunk.length, base64.length());
+            for (int i = start; i < end; i++) {
+                char c = base64.charAt(i);
+                if (c > 0x7f) {
+                    // Not base64 after all; digest the text as UTF-8 instead
+                    return sha256(UTF_8.encode(base64));
+                }
+                chunk[i - start] = (byte) c;
+            }
+            digest.update(chunk, 0, end - start);
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,96 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reference to attachment content that was registered with an
+ * {@link AttachmentCache} and is stored there already base64-encoded.
+ * <p/>
+ * A handle keeps its encoded content reachable even after the cache has
+ * evicted it, so attachments created from it stay valid. Handles are
+ * immutable and can be shared between threads and messages.
+ */
+public final class AttachmentHandle {
+
+    private final String key;
+    private final byte[] digest;
+    private final ByteBuffer encoded;
+
+    AttachmentHandle(String key, byte[] digest, ByteBuffer encoded) {
+        this.key = key;
+        this.digest = digest;
+        this.encoded = encoded.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the hex SHA-256 digest of the raw content, which identifies it in the cache
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return the length of the base64 encoded content in bytes
+     */
+    public int getEncodedLength() {
+        return encoded.capacity();
+    }
+
+    /**
+     * @return whether the encoded content is stored outside of the Java heap
+     */
+    public boolean isDirect() {
+        return encoded.isDirect();
+    }
+
+    // SHA-256 digest of the base64 encoding, comparable with Attachment content
+    byte[] getDigest() {
+        return digest;
+    }
+
+    // The base64 encoded content, as ASCII bytes; callers get their own position
+    ByteBuffer getEncoded() {
+        return encoded.duplicate();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        return Arrays.equals(digest, ((AttachmentHandle) o).digest);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(digest);
+    }
+
+    @Override
+    public String toString() {
+        return "AttachmentHandle [key=" + key + ", encodedLength=" + getEncodedLength() + "]";
+    }
+}
@@ -0,0 +1,333 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Raw attachment bytes that are base64-encoded lazily, chunk by chunk, while
+ * a request is written.
+ * <p/>
+ * Chunks are a multiple of three bytes long, so only the last one can carry
+ * base64 padding and the encoded chunks can simply be concatenated.
+ */
+abstract class AttachmentSource {
+
+    // 48 KiB of raw bytes, encoded into 64 KiB of base64
+    static final int CHUNK_SIZE = 3 * 16 * 1024;
+
+    // Memory-mapped windows of a file, also a multiple of three bytes
+    static final int MAP_WINDOW_SIZE = 3 * 1024 * 1024 * 16;
+
+    /**
+     * Writes the base64 encoding of the source to {@code out}.
+     */
+    abstract void writeBase64(Writer out) throws IOException;
+
+    /**
+     * @return the whole base64 encoding of the source
+     */
+    String toBase64() throws IOException {
+        StringWriter out = new StringWriter();
+        writeBase64(out);
+        return out.toString();
+    }
+
+    /**
+     * Encodes the remaining bytes of {@code bytes} to {@code out}.
+     */
+    static void encode(ByteBuffer bytes, Writer out) throws IOException {
+        Encoder encoder = new Encoder(out);
+        while (bytes.hasRemaining()) {
+            int length = Math.min(CHUNK_SIZE, bytes.remaining());
+            bytes.get(encoder.chunk, 0, length);
+            encoder.write(length);
+        }
+    }
+
+    static AttachmentSource of(Path path) {
+        return new PathSource(path);
+    }
+
+    static AttachmentSource of(ByteBuffer bytes) {
+        return new ByteBufferSource(bytes);
+    }
+
+    static AttachmentSource of(InputStream stream) {
+        return new StreamSource(stream);
+    }
+
+    static AttachmentSource of(AttachmentHandle handle) {
+        return new HandleSource(handle);
+    }
+
+    /**
+     * @return the SHA-256 digest of the base64 encoding if it is known
+     * without reading the source, otherwise null
+     */
+    byte[] digest() {
+        return null;
+    }
+
+    /**
+     * @return the length of the base64 encoding if it is known without
+     * reading the source, otherwise -1
+     */
+    long encodedLength() {
+        return -1;
+    }
+
+    // Base64 turns every three bytes, or part thereof, into four characters
+    static long encodedLength(long rawLength) {
+        return (rawLength + 2) / 3 * 4;
+    }
+
+    // Encodes one chunk at a time with reused buffers
+    private static final class Encoder {
+
+        private final Writer out;
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private final byte[] encoded = new byte[CHUNK_SIZE / 3 * 4];
+        private final char[] chars = new char[CHUNK_SIZE / 3 * 4];
+
+        Encoder(Writer out) {
+            this.out = out;
+        }
+
+        void write(int length) throws IOException {
+            byte[] source = (length == CHUNK_SIZE) ? chunk : Arrays.copyOf(chunk, length);
+            int encodedLength = Base64.getEncoder().encode(source, encoded);
+
+            // Base64 output is ASCII, so bytes map straight onto chars
+            for (int i = 0; i < encodedLength; i++) {
+                chars[i] = (char) encoded[i];
+            }
+            out.write(chars, 0, encodedLength);
+        }
+    }
+
+    private static final class PathSource extends AttachmentSource {
+
+        private final Path path;
+
+        PathSource(Path path) {
+            this.path = path;
+        }
+
+        @Override
+        void writeBase64(Writer out) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                for (long position = 0; position < size; position += MAP_WINDOW_SIZE) {
+                    MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                            Math.min(MAP_WINDOW_SIZE, size - position));
+                    encode(window, out);
+                }
+            } finally {
+                channel.close();
+            }
+        }
+
+        @Override
+        long encodedLength() {
+            try {
+                return encodedLength(Files.size(path));
+            } catch (IOException e) {
+                // Reported when the request is written
+                return -1;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof PathSource) && path.equals(((PathSource) o).path);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "file " + path;
+        }
+    }
+
+    private static final class ByteBufferSource extends AttachmentSource {
+
+        private final ByteBuffer bytes;
+
+        ByteBufferSource(ByteBuffer bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        void writeBase64(Writer out) throws IOException {
+            // Leave the caller's position untouched, so the buffer can be sent again
+            encode(bytes.duplicate(), out);
+        }
+
+        @Override
+        long encodedLength() {
+            return encodedLength(bytes.remaining());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof ByteBufferSource) && bytes.equals(((ByteBufferSource) o).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return bytes.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return bytes.remaining() + " bytes";
+        }
+    }
+
+    // Content that is already encoded in an AttachmentCache
+    private static final class HandleSource extends AttachmentSource {
+
+        private final AttachmentHandle handle;
+
+        HandleSource(AttachmentHandle handle) {
+            this.handle = handle;
+        }
+
+        @Override
+        void writeBase64(Writer out) throws IOException {
+            ByteBuffer encoded = handle.getEncoded();
+            char[] chars = new char[Math.min(CHUNK_SIZE, encoded.remaining())];
+            while (encoded.hasRemaining()) {
+                int length = Math.min(chars.length, encoded.remaining());
+                for (int i = 0; i < length; i++) {
+                    chars[i] = (char) encoded.get();
+                }
+                out.write(chars, 0, length);
+            }
+        }
+
+        @Override
+        byte[] digest() {
+            return handle.getDigest();
+        }
+
+        @Override
+        long encodedLength() {
+            return handle.getEncodedLength();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return (o instanceof HandleSource) && handle.equals(((HandleSource) o).handle);
+        }
+
+        @Override
+        public int hashCode() {
+            return handle.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "cached " + handle.getKey();
+        }
+    }
+
+    // A stream can only be read once. If the content is needed as a String,
+    // for instance for logging, the encoding is kept so it can be sent later.
+    private static final class StreamSource extends AttachmentSource {
+
+        private final InputStream stream;
+        private boolean consumed;
+        private String encoded;
+
+        StreamSource(InputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        synchronized void writeBase64(Writer out) throws IOException {
+            if (encoded != null) {
+                out.write(encoded);
+                return;
+            }
+            if (consumed) {
+                throw new IOException("The attachment stream has already been read.");
+            }
+            consumed = true;
+
+            try {
+                Encoder encoder = new Encoder(out);
+                int length;
+                while ((length = readChunk(encoder.chunk)) > 0) {
+                    encoder.write(length);
+                }
+            } finally {
+                stream.close();
+            }
+        }
+
+        @Override
+        synchronized String toBase64() throws IOException {
+            if (encoded == null) {
+                encoded = super.toBase64();
+            }
+            return encoded;
+        }
+
+        // Fills the whole chunk unless the stream ends, so that only the last
+        // chunk can be shorter than a multiple of three bytes
+        private int readChunk(byte[] chunk) throws IOException {
+            int length = 0;
+            while (length < chunk.length) {
+                int read = stream.read(chunk, length, chunk.length - length);
+                if (read < 0) {
+                    break;
+                }
+                length += read;
+            }
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return "stream";
+        }
+    }
+}
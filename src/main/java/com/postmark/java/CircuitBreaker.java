@@ -0,0 +1,276 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stops a {@link PostmarkClient} from sending requests while the Postmark API
+ * is failing or slow, so that callers fail in microseconds instead of waiting
+ * for timeouts. See {@link CircuitBreakerPolicy} for when it opens and closes.
+ * <p/>
+ * Requests check the state with a single volatile read while the breaker is
+ * closed; outcomes are recorded in a fixed-size ring under a short lock.
+ */
+public final class CircuitBreaker {
+
+    private static Logger logger = Logger.getLogger("com.postmark.java");
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final CircuitBreakerPolicy policy;
+    private final long slowCallNanos;
+    private final long openNanos;
+    private final int minimumCalls;
+
+    private final CopyOnWriteArrayList<CircuitBreakerListener> listeners = new CopyOnWriteArrayList<CircuitBreakerListener>();
+
+    private volatile State state = State.CLOSED;
+
+    // The outcomes of the most recent requests while closed, guarded by this
+    private final boolean[] failed;
+    private final boolean[] slow;
+    private int next;
+    private int size;
+    private int failures;
+    private int slowCalls;
+
+    // When the breaker last opened
+    private long openedAt;
+
+    // Trial requests while half-open
+    private int halfOpenPermits;
+    private int halfOpenResults;
+    private int halfOpenFailures;
+    private int halfOpenSlowCalls;
+
+    CircuitBreaker(CircuitBreakerPolicy policy) {
+        this.policy = new CircuitBreakerPolicy(policy);
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(policy.getSlowCallDurationMillis());
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(policy.getOpenDurationMillis());
+        this.minimumCalls = Math.min(policy.getMinimumCalls(), policy.getWindowSize());
+        this.failed = new boolean[policy.getWindowSize()];
+        this.slow = new boolean[policy.getWindowSize()];
+    }
+
+    /**
+     * Asks to send a request. While half-open only a limited number of
+     * requests are let through; every permitted request must be followed by
+     * {@link #onResult} or {@link #release}.
+     *
+     * @return whether the request may be sent
+     */
+    boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+
+        State from;
+        boolean permitted;
+        synchronized (this) {
+            from = state;
+            if (state == State.OPEN) {
+                if (System.nanoTime() - openedAt < openNanos) {
+                    return false;
+                }
+                halfOpen();
+            }
+            if (state == State.CLOSED) {
+                return true;
+            }
+            permitted = halfOpenPermits > 0;
+            if (permitted) {
+                halfOpenPermits--;
+            }
+        }
+        notifyListeners(from, State.HALF_OPEN);
+        return permitted;
+    }
+
+    /**
+     * Gives back a permission for a request that was never sent.
+     */
+    void release() {
+        if (state == State.HALF_OPEN) {
+            synchronized (this) {
+                if (state == State.HALF_OPEN) {
+                    halfOpenPermits++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the outcome of a request.
+     *
+     * @param durationNanos how long the request took
+     * @param failure       whether it failed
+     */
+    void onResult(long durationNanos, boolean failure) {
+        boolean isSlow = durationNanos >= slowCallNanos;
+
+        State from;
+        State to;
+        synchronized (this) {
+            from = state;
+            if (state == State.CLOSED) {
+                if (size == failed.length) {
+                    failures -= failed[next] ? 1 : 0;
+                    slowCalls -= slow[next] ? 1 : 0;
+                } else {
+                    size++;
+                }
+                failed[next] = failure;
+                slow[next] = isSlow;
+                failures += failure ? 1 : 0;
+                slowCalls += isSlow ? 1 : 0;
+                next = (next + 1) % failed.length;
+
+                if (size >= minimumCalls && exceedsThresholds(size, failures, slowCalls)) {
+                    open();
+                }
+            } else if (state == State.HALF_OPEN) {
+                halfOpenResults++;
+                halfOpenFailures += failure ? 1 : 0;
+                halfOpenSlowCalls += isSlow ? 1 : 0;
+
+                if (exceedsThresholds(policy.getHalfOpenCalls(), halfOpenFailures, halfOpenSlowCalls)) {
+                    open();
+                } else if (halfOpenResults >= policy.getHalfOpenCalls()) {
+                    close();
+                }
+            }
+            to = state;
+        }
+        notifyListeners(from, to);
+    }
+
+    /**
+     * Records the outcome of a request that got a response.
+     *
+     * @param durationNanos how long the request took
+     * @param statusCode    the HTTP status of the response
+     */
+    void onResponse(long durationNanos, int statusCode) {
+        onResult(durationNanos, policy.isFailure(statusCode));
+    }
+
+    private boolean exceedsThresholds(int calls, int failures, int slowCalls) {
+        return failures * 100f >= policy.getFailureRateThreshold() * calls
+                || slowCalls * 100f >= policy.getSlowCallRateThreshold() * calls;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+    }
+
+    private void halfOpen() {
+        state = State.HALF_OPEN;
+        halfOpenPermits = policy.getHalfOpenCalls();
+        halfOpenResults = 0;
+        halfOpenFailures = 0;
+        halfOpenSlowCalls = 0;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        next = 0;
+        size = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    private void notifyListeners(State from, State to) {
+        if (from == to) {
+            return;
+        }
+        logger.warning("Circuit breaker changed from " + from + " to " + to);
+        for (CircuitBreakerListener listener : listeners) {
+            try {
+                listener.onStateChange(this, from, to);
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Circuit breaker listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * @param listener Called whenever the breaker changes state
+     */
+    public void addListener(CircuitBreakerListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener A listener added before
+     */
+    public void removeListener(CircuitBreakerListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return the current state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the percentage of failed requests in the window, or -1 if too
+     * few requests have been recorded since the breaker last closed
+     */
+    public synchronized float getFailureRate() {
+        return size >= minimumCalls ? failures * 100f / size : -1f;
+    }
+
+    /**
+     * @return the percentage of slow requests in the window, or -1 if too
+     * few requests have been recorded since the breaker last closed
+     */
+    public synchronized float getSlowCallRate() {
+        return size >= minimumCalls ? slowCalls * 100f / size : -1f;
+    }
+
+    /**
+     * @return the settings of this breaker
+     */
+    public CircuitBreakerPolicy getPolicy() {
+        return new CircuitBreakerPolicy(policy);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("CircuitBreaker");
+        sb.append("{ state=").append(state);
+        sb.append(", policy=").append(policy);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,228 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Decides when the circuit breaker of a {@link PostmarkClient} stops
+ * sending requests to Postmark.
+ * <p/>
+ * The breaker keeps the outcome of the last {@code windowSize} requests. Once
+ * at least {@code minimumCalls} are recorded, it opens when the share of
+ * failed requests reaches {@code failureRateThreshold} percent, or the share
+ * of requests slower than {@code slowCallDurationMillis} reaches
+ * {@code slowCallRateThreshold} percent. A request fails when it gets a 5xx
+ * response or an I/O error; rejections such as 401 and 422 say nothing about
+ * the health of the API and count as successes.
+ * <p/>
+ * While open, sends fail straight away with {@link PostmarkStatus#CIRCUITOPEN}.
+ * After {@code openDurationMillis} the breaker is half-open and lets
+ * {@code halfOpenCalls} requests through; it closes again if they stay below
+ * the thresholds and opens again otherwise.
+ */
+public class CircuitBreakerPolicy {
+
+    public static final int DEFAULT_WINDOW_SIZE = 100;
+    public static final int DEFAULT_MINIMUM_CALLS = 20;
+    public static final float DEFAULT_FAILURE_RATE_THRESHOLD = 50f;
+    public static final long DEFAULT_SLOW_CALL_DURATION_MILLIS = 10000L;
+    public static final float DEFAULT_SLOW_CALL_RATE_THRESHOLD = 100f;
+    public static final long DEFAULT_OPEN_DURATION_MILLIS = 30000L;
+    public static final int DEFAULT_HALF_OPEN_CALLS = 5;
+
+    // The number of most recent requests the rates are taken over.
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+
+    // The number of requests needed before the breaker may open.
+    private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+
+    // The percentage of failed requests that opens the breaker.
+    private float failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+
+    // How long a request may take before it counts as slow.
+    private long slowCallDurationMillis = DEFAULT_SLOW_CALL_DURATION_MILLIS;
+
+    // The percentage of slow requests that opens the breaker.
+    private float slowCallRateThreshold = DEFAULT_SLOW_CALL_RATE_THRESHOLD;
+
+    // How long the breaker stays open before letting trial requests through.
+    private long openDurationMillis = DEFAULT_OPEN_DURATION_MILLIS;
+
+    // The number of trial requests let through while half-open.
+    private int halfOpenCalls = DEFAULT_HALF_OPEN_CALLS;
+
+    public CircuitBreakerPolicy() {
+    }
+
+    // Copy Constructor
+    public CircuitBreakerPolicy(CircuitBreakerPolicy policy) {
+        this.windowSize = policy.windowSize;
+        this.minimumCalls = policy.minimumCalls;
+        this.failureRateThreshold = policy.failureRateThreshold;
+        this.slowCallDurationMillis = policy.slowCallDurationMillis;
+        this.slowCallRateThreshold = policy.slowCallRateThreshold;
+        this.openDurationMillis = policy.openDurationMillis;
+        this.halfOpenCalls = policy.halfOpenCalls;
+    }
+
+    /**
+     * @param statusCode the HTTP status of a response
+     * @return whether the response counts as a failure of the API
+     */
+    public boolean isFailure(int statusCode) {
+        return statusCode >= 500;
+    }
+
+    /**
+     * @return the number of most recent requests the rates are taken over
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * @param windowSize The number of most recent requests the rates are taken over
+     */
+    public void setWindowSize(int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("windowSize must be at least 1");
+        }
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return the number of requests needed before the breaker may open
+     */
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    /**
+     * @param minimumCalls The number of requests needed before the breaker may open, at most {@code windowSize}
+     */
+    public void setMinimumCalls(int minimumCalls) {
+        if (minimumCalls < 1) {
+            throw new IllegalArgumentException("minimumCalls must be at least 1");
+        }
+        this.minimumCalls = minimumCalls;
+    }
+
+    /**
+     * @return the percentage of failed requests that opens the breaker
+     */
+    public float getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * @param failureRateThreshold The percentage of failed requests that opens the breaker
+     */
+    public void setFailureRateThreshold(float failureRateThreshold) {
+        if (!(failureRateThreshold > 0 && failureRateThreshold <= 100)) {
+            throw new IllegalArgumentException("failureRateThreshold must be above 0 and at most 100");
+        }
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    /**
+     * @return how long a request may take before it counts as slow
+     */
+    public long getSlowCallDurationMillis() {
+        return slowCallDurationMillis;
+    }
+
+    /**
+     * @param slowCallDurationMillis How long a request may take before it counts as slow
+     */
+    public void setSlowCallDurationMillis(long slowCallDurationMillis) {
+        if (slowCallDurationMillis < 1) {
+            throw new IllegalArgumentException("slowCallDurationMillis must be at least 1");
+        }
+        this.slowCallDurationMillis = slowCallDurationMillis;
+    }
+
+    /**
+     * @return the percentage of slow requests that opens the breaker
+     */
+    public float getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * @param slowCallRateThreshold The percentage of slow requests that opens the breaker
+     */
+    public void setSlowCallRateThreshold(float slowCallRateThreshold) {
+        if (!(slowCallRateThreshold > 0 && slowCallRateThreshold <= 100)) {
+            throw new IllegalArgumentException("slowCallRateThreshold must be above 0 and at most 100");
+        }
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    /**
+     * @return how long the breaker stays open before letting trial requests through
+     */
+    public long getOpenDurationMillis() {
+        return openDurationMillis;
+    }
+
+    /**
+     * @param openDurationMillis How long the breaker stays open before letting trial requests through
+     */
+    public void setOpenDurationMillis(long openDurationMillis) {
+        if (openDurationMillis < 0) {
+            throw new IllegalArgumentException("openDurationMillis must not be negative");
+        }
+        this.openDurationMillis = openDurationMillis;
+    }
+
+    /**
+     * @return the number of trial requests let through while half-open
+     */
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    /**
+     * @param halfOpenCalls The number of trial requests let through while half-open
+     */
+    public void setHalfOpenCalls(int halfOpenCalls) {
+        if (halfOpenCalls < 1) {
+            throw new IllegalArgumentException("halfOpenCalls must be at least 1");
+        }
+        this.halfOpenCalls = halfOpenCalls;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("CircuitBreakerPolicy");
+        sb.append("{ windowSize=").append(windowSize);
+        sb.append(", minimumCalls=").append(minimumCalls);
+        sb.append(", failureRateThreshold=").append(failureRateThreshold);
+        sb.append(", slowCallDurationMillis=").append(slowCallDurationMillis);
+        sb.append(", slowCallRateThreshold=").append(slowCallRateThreshold);
+        sb.append(", openDurationMillis=").append(openDurationMillis);
+        sb.append(", halfOpenCalls=").append(halfOpenCalls);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -38,6 +38,12 @@ public class DateTimeTypeAdapter implements JsonSerializer<DateTime>, JsonDeseri
 
     public DateTime deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
             throws JsonParseException {
-        return new DateTime(json.getAsJsonPrimitive().getAsString());
+        String text = json.getAsJsonPrimitive().getAsString();
+        try {
+            return new DateTime(IsoDateParser.parseEpochMillis(text));
+        } catch (IllegalArgumentException e) {
+            // Forms the fast parser does not handle, such as a missing offset
+            return new DateTime(text);
+        }
     }
 }
@@ -0,0 +1,258 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps send metrics in memory: a {@link LatencyHistogram} per phase and
+ * endpoint, a histogram of whole sends per endpoint, and a count of messages
+ * per endpoint, {@link PostmarkStatus} and Postmark error code.
+ * <p/>
+ * Recording takes a few map lookups and atomic increments and never locks,
+ * so one instance can be shared by every client in an application. The
+ * figures can be read through the getters or, once {@link #registerMBean(String)}
+ * has been called, over JMX.
+ */
+public class DefaultPostmarkMetrics implements PostmarkMetrics, PostmarkMetricsMXBean {
+
+    private static final double NANOS_PER_MILLI = 1000000.0;
+
+    private final Map<Phase, ConcurrentMap<String, LatencyHistogram>> phases =
+            new EnumMap<Phase, ConcurrentMap<String, LatencyHistogram>>(Phase.class);
+    private final ConcurrentMap<String, LatencyHistogram> sends = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final LatencyHistogram allSends = new LatencyHistogram();
+
+    // Counts per endpoint, keyed by status ordinal and error code packed into a long
+    private final ConcurrentMap<String, ConcurrentMap<Long, LongAdder>> outcomes =
+            new ConcurrentHashMap<String, ConcurrentMap<Long, LongAdder>>();
+    private final LongAdder failed = new LongAdder();
+
+    public DefaultPostmarkMetrics() {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new ConcurrentHashMap<String, LatencyHistogram>());
+        }
+    }
+
+    @Override
+    public void recordPhase(Phase phase, String endpoint, long durationNanos) {
+        histogram(phases.get(phase), endpoint).record(durationNanos);
+    }
+
+    @Override
+    public void recordSend(String endpoint, PostmarkStatus status, int errorCode, long durationNanos) {
+        histogram(sends, endpoint).record(durationNanos);
+        allSends.record(durationNanos);
+        counter(endpoint, status, errorCode).increment();
+        if (status != PostmarkStatus.SUCCESS) {
+            failed.increment();
+        }
+    }
+
+    private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> histograms, String endpoint) {
+        String key = (endpoint != null) ? endpoint : "";
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    // Reads never add entries, so polling for series that were never
+    // recorded cannot grow the maps
+    private static LatencyHistogram existingHistogram(ConcurrentMap<String, LatencyHistogram> histograms, String endpoint) {
+        LatencyHistogram histogram = histograms.get((endpoint != null) ? endpoint : "");
+        return (histogram != null) ? histogram : new LatencyHistogram();
+    }
+
+    private static Long outcomeKey(PostmarkStatus status, int errorCode) {
+        return ((long) status.ordinal() << 32) | (errorCode & 0xFFFFFFFFL);
+    }
+
+    private LongAdder counter(String endpoint, PostmarkStatus status, int errorCode) {
+        String key = (endpoint != null) ? endpoint : "";
+        ConcurrentMap<Long, LongAdder> counters = outcomes.get(key);
+        if (counters == null) {
+            ConcurrentMap<Long, LongAdder> created = new ConcurrentHashMap<Long, LongAdder>();
+            counters = outcomes.putIfAbsent(key, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+
+        Long outcome = outcomeKey(status, errorCode);
+        LongAdder counter = counters.get(outcome);
+        if (counter == null) {
+            LongAdder created = new LongAdder();
+            counter = counters.putIfAbsent(outcome, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * @param phase    the stage of sending
+     * @param endpoint the API endpoint, such as {@code /email}
+     * @return the latencies of the phase at the endpoint, empty if none were recorded
+     */
+    public LatencyHistogram getPhaseHistogram(Phase phase, String endpoint) {
+        return existingHistogram(phases.get(phase), endpoint);
+    }
+
+    /**
+     * @param endpoint the API endpoint, such as {@code /email}
+     * @return the latencies of whole sends to the endpoint, including retries,
+     * empty if none were recorded
+     */
+    public LatencyHistogram getSendHistogram(String endpoint) {
+        return existingHistogram(sends, endpoint);
+    }
+
+    /**
+     * @return the latencies of whole sends to every endpoint
+     */
+    public LatencyHistogram getSendHistogram() {
+        return allSends;
+    }
+
+    /**
+     * @return how many messages sent to {@code endpoint} ended with the
+     * given status and Postmark error code
+     */
+    public long getOutcomeCount(String endpoint, PostmarkStatus status, int errorCode) {
+        ConcurrentMap<Long, LongAdder> counters = outcomes.get((endpoint != null) ? endpoint : "");
+        LongAdder counter = (counters != null) ? counters.get(outcomeKey(status, errorCode)) : null;
+        return (counter != null) ? counter.sum() : 0;
+    }
+
+    @Override
+    public long getSendCount() {
+        return allSends.getCount();
+    }
+
+    @Override
+    public long getFailedSendCount() {
+        return failed.sum();
+    }
+
+    @Override
+    public double getSendLatencyP50Millis() {
+        return allSends.getValueAtPercentile(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getSendLatencyP99Millis() {
+        return allSends.getValueAtPercentile(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getSendLatencyMaxMillis() {
+        return allSends.getMax() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public Map<String, Long> getOutcomeCounts() {
+        PostmarkStatus[] statuses = PostmarkStatus.values();
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, ConcurrentMap<Long, LongAdder>> endpoint : outcomes.entrySet()) {
+            for (Map.Entry<Long, LongAdder> outcome : endpoint.getValue().entrySet()) {
+                long key = outcome.getKey();
+                String name = endpoint.getKey() + " " + statuses[(int) (key >>> 32)] + " " + (int) key;
+                counts.put(name, outcome.getValue().sum());
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Double> getPhaseLatencyP99Millis() {
+        Map<String, Double> latencies = new TreeMap<String, Double>();
+        for (Map.Entry<Phase, ConcurrentMap<String, LatencyHistogram>> phase : phases.entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> endpoint : phase.getValue().entrySet()) {
+                if (endpoint.getValue().getCount() > 0) {
+                    latencies.put(phase.getKey() + " " + endpoint.getKey(),
+                            endpoint.getValue().getValueAtPercentile(99) / NANOS_PER_MILLI);
+                }
+            }
+        }
+        return latencies;
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server as
+     * {@code com.postmark.java:type=PostmarkMetrics,name=<name>}.
+     *
+     * @param name distinguishes these metrics from those of other clients
+     * @return the name the MBean was registered under
+     * @throws IllegalStateException if the MBean cannot be registered, for
+     * example because the name is taken
+     */
+    public ObjectName registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName("com.postmark.java:type=PostmarkMetrics,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the Postmark metrics MBean", e);
+        }
+    }
+
+    /**
+     * Removes an MBean registered with {@link #registerMBean(String)}.
+     *
+     * @param objectName the name returned by {@link #registerMBean(String)}
+     */
+    public void unregisterMBean(ObjectName objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not unregister the Postmark metrics MBean", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("DefaultPostmarkMetrics");
+        sb.append("{ sends=").append(allSends);
+        sb.append(", failed=").append(failed.sum());
+        sb.append('}');
+        return sb.toString();
+    }
+}
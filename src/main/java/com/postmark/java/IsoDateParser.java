@@ -0,0 +1,165 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Parses the ISO-8601 timestamps Postmark returns, such as
+ * {@code 2014-02-17T07:25:01.4178645-05:00}, straight into epoch milliseconds.
+ * <p/>
+ * Only complete date-times with a {@code Z} or numeric offset are accepted;
+ * the parser reads the characters in place and allocates nothing. Anything
+ * else is rejected so that callers can fall back to Joda-Time's full parser.
+ */
+final class IsoDateParser {
+
+    private static final long SECONDS_PER_DAY = 86400L;
+
+    private IsoDateParser() {
+    }
+
+    /**
+     * @param text an ISO-8601 date-time with an offset; fractions of a second
+     *             beyond milliseconds are truncated
+     * @return the instant in milliseconds since 1970-01-01T00:00:00Z
+     * @throws IllegalArgumentException if the text is not such a date-time
+     */
+    static long parseEpochMillis(String text) {
+        int length = text.length();
+        if (length < 20
+                || text.charAt(4) != '-' || text.charAt(7) != '-'
+                || (text.charAt(10) != 'T' && text.charAt(10) != 't')
+                || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            throw invalid(text);
+        }
+
+        int year = digits(text, 0, 4);
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        int hour = digits(text, 11, 2);
+        int minute = digits(text, 14, 2);
+        int second = digits(text, 17, 2);
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            throw invalid(text);
+        }
+
+        int pos = 19;
+        int millis = 0;
+        if (text.charAt(pos) == '.' || text.charAt(pos) == ',') {
+            int start = ++pos;
+            int scale = 100;
+            while (pos < length && isDigit(text.charAt(pos))) {
+                millis += (text.charAt(pos) - '0') * scale;
+                scale /= 10;
+                pos++;
+            }
+            if (pos == start) {
+                throw invalid(text);
+            }
+        }
+
+        int offsetSeconds;
+        if (pos == length) {
+            // No offset: the zone is up to the caller
+            throw invalid(text);
+        }
+        char sign = text.charAt(pos);
+        if (sign == 'Z' || sign == 'z') {
+            offsetSeconds = 0;
+            pos++;
+        } else if (sign == '+' || sign == '-') {
+            if (pos + 3 > length) {
+                throw invalid(text);
+            }
+            int offsetHours = digits(text, pos + 1, 2);
+            pos += 3;
+            int offsetMinutes = 0;
+            if (pos < length) {
+                if (text.charAt(pos) == ':') {
+                    pos++;
+                }
+                if (pos + 2 > length) {
+                    throw invalid(text);
+                }
+                offsetMinutes = digits(text, pos, 2);
+                pos += 2;
+            }
+            if (offsetHours > 18 || offsetMinutes > 59) {
+                throw invalid(text);
+            }
+            offsetSeconds = (offsetHours * 3600 + offsetMinutes * 60) * (sign == '-' ? -1 : 1);
+        } else {
+            throw invalid(text);
+        }
+        if (pos != length) {
+            throw invalid(text);
+        }
+
+        long seconds = epochDay(year, month, day) * SECONDS_PER_DAY + hour * 3600 + minute * 60 + second - offsetSeconds;
+        return seconds * 1000 + millis;
+    }
+
+    // Days from 1970-01-01 to a date of the proleptic Gregorian calendar
+    private static long epochDay(int year, int month, int day) {
+        long y = (month <= 2) ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return ((year % 4 == 0 && year % 100 != 0) || year % 400 == 0) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                throw invalid(text);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static IllegalArgumentException invalid(String text) {
+        return new IllegalArgumentException("Not an ISO-8601 date-time with an offset: " + text);
+    }
+}
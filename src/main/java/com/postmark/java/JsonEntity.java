@@ -0,0 +1,215 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Request entity that serializes its payload as UTF-8 JSON straight to the
+ * connection while the request is written.
+ * <p/>
+ * The JSON is never held as a {@code String} or byte array, so sending a
+ * message with large attachments needs little more heap than the message
+ * itself. The length is not known up front, so the body is sent with chunked
+ * transfer encoding. The entity is repeatable: every write serializes the
+ * payload again.
+ */
+class JsonEntity extends AbstractHttpEntity {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Gson gson;
+    private final Object payload;
+    private final PostmarkMetrics metrics;
+    private final String endpoint;
+
+    JsonEntity(Gson gson, Object payload) {
+        this(gson, payload, PostmarkMetrics.NOOP, null);
+    }
+
+    /**
+     * Creates an entity that records the time spent writing the body as the
+     * {@link PostmarkMetrics.Phase#SERIALIZATION} phase of {@code endpoint}.
+     */
+    JsonEntity(Gson gson, Object payload, PostmarkMetrics metrics, String endpoint) {
+        this.gson = gson;
+        this.payload = payload;
+        this.metrics = metrics;
+        this.endpoint = endpoint;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+        setChunked(true);
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Only used by transports that pull the body instead of letting the
+     * entity write it; these get a buffered copy of the JSON.
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        writeTo(buffer);
+        return new ByteArrayInputStream(buffer.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        long start = System.nanoTime();
+        OutputStreamWriter writer = new OutputStreamWriter(outStream, UTF_8);
+        JsonWriter jsonWriter = new StreamingJsonWriter(writer);
+        gson.toJson(payload, payload.getClass(), jsonWriter);
+
+        // Flush, but do not close: the connection owns the stream
+        jsonWriter.flush();
+        metrics.recordPhase(PostmarkMetrics.Phase.SERIALIZATION, endpoint, System.nanoTime() - start);
+    }
+
+    /**
+     * @return the number of bytes {@code value} takes as a JSON string in
+     * UTF-8, quotes and escapes included, or 4 for {@code null}
+     */
+    static long jsonLength(String value) {
+        if (value == null) {
+            return 4;
+        }
+        long length = 2;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c == '\t' || c == '\b' || c == '\n' || c == '\r' || c == '\f') {
+                length += 2;
+            } else if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                length += 6;
+            } else {
+                length += utf8Length(c);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return the number of bytes {@code value} takes as UTF-8 JSON written
+     * by {@code gson}; the JSON is counted as it is written, never held
+     */
+    static long jsonLength(Gson gson, Object value) {
+        CountingWriter counter = new CountingWriter();
+        gson.toJson(value, counter);
+        return counter.length;
+    }
+
+    static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        }
+        // A surrogate pair takes four bytes, two for each half
+        return (c < 0x800 || Character.isSurrogate(c)) ? 2 : 3;
+    }
+
+    // Counts the UTF-8 bytes of what is written to it
+    private static final class CountingWriter extends Writer {
+
+        long length;
+
+        @Override
+        public void write(int c) {
+            length += utf8Length((char) c);
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int count) {
+            for (int i = offset; i < offset + count; i++) {
+                length += utf8Length(buffer[i]);
+            }
+        }
+
+        @Override
+        public void write(String text, int offset, int count) {
+            for (int i = offset; i < offset + count; i++) {
+                length += utf8Length(text.charAt(i));
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * A {@link JsonWriter} that lets adapters append long string values, such
+     * as attachment content, to the underlying writer piece by piece.
+     */
+    static final class StreamingJsonWriter extends JsonWriter {
+
+        private final Writer sink;
+
+        StreamingJsonWriter(Writer sink) {
+            super(sink);
+            this.sink = sink;
+        }
+
+        /**
+         * Opens a string value and returns the writer its content goes to.
+         * The content must not need JSON escaping, and the caller closes the
+         * value with {@link #endStringValue()}.
+         */
+        Writer beginStringValue() throws IOException {
+            // jsonValue writes the separators and moves past the value, so the
+            // raw content written to the sink ends up inside the quotes
+            jsonValue("\"");
+            return sink;
+        }
+
+        void endStringValue() throws IOException {
+            sink.write('"');
+        }
+    }
+}
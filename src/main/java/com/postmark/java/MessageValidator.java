@@ -0,0 +1,190 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Checks a message against the limits of the Postmark API before it is sent,
+ * so that a message Postmark would reject with a 422 fails without a round
+ * trip.
+ * <p/>
+ * Addresses are parsed with {@link AddressParser}. Headers, attachments and
+ * the size of the message are checked against the limits Postmark documents:
+ * at most 50 recipients across To, Cc and Bcc, a total message size of 10 MB
+ * including the encoded attachments, and no attachments of executable types.
+ */
+final class MessageValidator {
+
+    // Maximum number of recipients across To, Cc and Bcc
+    static final int MAX_RECIPIENTS = 50;
+
+    // Maximum size of a message, including the base64-encoded attachments
+    static final long MAX_MESSAGE_SIZE = 10L * 1024 * 1024;
+
+    // Attachment types that Postmark refuses to send
+    private static final Set<String> FORBIDDEN_EXTENSIONS = new HashSet<String>(Arrays.asList(
+            "vbs", "exe", "bin", "bat", "chm", "com", "cpl", "crt", "hlp", "hta", "inf", "ins", "isp",
+            "jse", "lnk", "mdb", "pcd", "pif", "reg", "scr", "sct", "shs", "vbe", "vba", "wsf", "wsh",
+            "wsl", "msc", "msi", "msp", "mst"));
+
+    // Characters of a MIME token, RFC 2045 section 5.1
+    private static final boolean[] TOKEN = new boolean[128];
+
+    static {
+        for (char c = 33; c < 127; c++) {
+            TOKEN[c] = "()<>@,;:\\\"/[]?=".indexOf(c) < 0;
+        }
+    }
+
+    private MessageValidator() {
+    }
+
+    static void validate(PostmarkMessageBase message, long contentLength) throws PostmarkException {
+
+        if (isBlank(message.fromAddress) || AddressParser.countMailboxes(message.fromAddress) != 1) {
+            throw invalid("You must specify a valid 'From' email address.");
+        }
+
+        int recipients = isBlank(message.toAddress) ? -1 : AddressParser.countMailboxes(message.toAddress);
+        if (recipients <= 0) {
+            throw invalid("You must specify a valid 'To' email address.");
+        }
+        recipients += countOptional(message.ccAddress, "Cc");
+        recipients += countOptional(message.bccAddress, "Bcc");
+        if (recipients > MAX_RECIPIENTS) {
+            throw invalid("A message can have at most " + MAX_RECIPIENTS + " recipients in 'To', 'Cc' and 'Bcc', not " + recipients + ".");
+        }
+        countOptional(message.replyToAddress, "ReplyTo");
+
+        validateHeaders(message.headers);
+
+        long size = contentLength + validateAttachments(message.attachments);
+        if (size > MAX_MESSAGE_SIZE) {
+            throw invalid("The message is " + size + " bytes, more than the limit of " + MAX_MESSAGE_SIZE + " bytes.");
+        }
+    }
+
+    private static int countOptional(String addresses, String field) throws PostmarkException {
+        if (addresses == null) {
+            return 0;
+        }
+        int count = AddressParser.countMailboxes(addresses);
+        if (count < 0) {
+            throw invalid("The '" + field + "' email address is not valid.");
+        }
+        return count;
+    }
+
+    private static void validateHeaders(List<NameValuePair> headers) throws PostmarkException {
+        if (headers == null) {
+            return;
+        }
+        for (NameValuePair header : headers) {
+            String name = header.getName();
+            if (name == null || name.isEmpty()) {
+                throw invalid("A header must have a name.");
+            }
+            // Field names are printable ASCII other than the colon, RFC 5322 section 2.2
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (c <= ' ' || c >= 127 || c == ':') {
+                    throw invalid("The header name '" + name + "' is not valid.");
+                }
+            }
+            String value = header.getValue();
+            if (value != null && (value.indexOf('\r') >= 0 || value.indexOf('\n') >= 0)) {
+                throw invalid("The value of the header '" + name + "' must not contain line breaks.");
+            }
+        }
+    }
+
+    // Returns the total encoded size of the attachments
+    private static long validateAttachments(List<Attachment> attachments) throws PostmarkException {
+        if (attachments == null) {
+            return 0;
+        }
+        long size = 0;
+        for (Attachment attachment : attachments) {
+            String name = attachment.getName();
+            if (isBlank(name)) {
+                throw invalid("An attachment must have a name.");
+            }
+            int dot = name.lastIndexOf('.');
+            if (dot >= 0 && FORBIDDEN_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT))) {
+                throw invalid("Attachments of the type of '" + name + "' are not allowed.");
+            }
+            if (!isContentType(attachment.getContentType())) {
+                throw invalid("The content type of the attachment '" + name + "' is not valid.");
+            }
+            long length = attachment.getEncodedLength();
+            if (length > MAX_MESSAGE_SIZE) {
+                throw invalid("The attachment '" + name + "' is larger than the limit of " + MAX_MESSAGE_SIZE + " bytes.");
+            }
+            size += Math.max(length, 0);
+        }
+        return size;
+    }
+
+    // type "/" subtype, optionally followed by parameters, RFC 2045 section 5.1
+    private static boolean isContentType(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int length = contentType.length();
+        int pos = token(contentType, 0);
+        if (pos == 0 || pos == length || contentType.charAt(pos) != '/') {
+            return false;
+        }
+        int end = token(contentType, pos + 1);
+        if (end == pos + 1) {
+            return false;
+        }
+        while (end < length && contentType.charAt(end) == ' ') {
+            end++;
+        }
+        return end == length || contentType.charAt(end) == ';';
+    }
+
+    private static int token(String s, int pos) {
+        while (pos < s.length() && s.charAt(pos) < 128 && TOKEN[s.charAt(pos)]) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.trim().isEmpty();
+    }
+
+    private static PostmarkException invalid(String message) {
+        PostmarkResponse response = new PostmarkResponse();
+        response.setStatus(PostmarkStatus.USERERROR);
+        response.setMessage(message);
+        return new PostmarkException(message, response, false);
+    }
+}
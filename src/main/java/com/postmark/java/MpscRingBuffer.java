@@ -0,0 +1,103 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue for many producers and a single consumer.
+ * <p/>
+ * Producers claim a slot by moving the tail with a compare-and-set and then
+ * publish the element into it; the consumer treats an unpublished slot as
+ * empty and frees slots with ordered writes only.
+ */
+final class MpscRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> buffer;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+
+    MpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.buffer = new AtomicReferenceArray<E>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @return whether the element was added, false if the buffer is full
+     */
+    boolean offer(E element) {
+        long capacity = mask + 1;
+        while (true) {
+            long current = tail.get();
+            if (current - head.get() >= capacity) {
+                return false;
+            }
+            if (tail.compareAndSet(current, current + 1)) {
+                buffer.lazySet((int) current & mask, element);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves up to {@code max} elements into {@code sink}. Only the consumer
+     * thread may call this.
+     *
+     * @return the number of elements moved
+     */
+    int drain(List<? super E> sink, int max) {
+        long current = head.get();
+        int count = 0;
+        while (count < max) {
+            int index = (int) current & mask;
+            E element = buffer.get(index);
+            if (element == null) {
+                break;
+            }
+            buffer.lazySet(index, null);
+            sink.add(element);
+            current++;
+            count++;
+        }
+        if (count > 0) {
+            head.lazySet(current);
+        }
+        return count;
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+}
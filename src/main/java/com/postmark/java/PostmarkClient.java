@@ -23,52 +23,120 @@
 package com.postmark.java;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import com.google.gson.stream.JsonReader;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.BasicResponseHandler;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
-import org.joda.time.DateTime;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
-import java.util.Scanner;
-import java.util.logging.ConsoleHandler;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 /**
  * Class that does the heavy lifting
+ * <p/>
+ * A client keeps a pool of keep-alive connections to the Postmark API for its
+ * whole lifetime and is safe to share between threads. Create one instance,
+ * reuse it for every send, and {@link #close()} it when the application shuts
+ * down.
  */
-public class PostmarkClient {
+public class PostmarkClient implements Closeable {
 
     public static final String API_ENDPOINT = "https://api.postmarkapp.com";
 
+    /**
+     * The maximum number of messages Postmark accepts in one batch request.
+     */
+    public static final int MAX_BATCH_SIZE = 500;
+
+    /**
+     * The largest request body, in bytes, Postmark accepts for a batch request.
+     */
+    public static final long MAX_BATCH_BYTES = 50L * 1024 * 1024;
+
+    // Bytes of the brackets and wrapper object around the messages of a batch
+    private static final int BATCH_OVERHEAD = 16;
+
+    // Error bodies are short JSON; anything longer is cut off
+    private static final int MAX_ERROR_BODY_LENGTH = 65536;
+
     private static Logger logger = Logger.getLogger("com.postmark.java");
-    private String serverToken;
-    private String serverPath;
+    private final String serverToken;
+    private final String serverPath;
 
-    private static GsonBuilder gsonBuilder = new GsonBuilder();
+    private final TimedConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
 
-    static {
-        gsonBuilder.registerTypeAdapter(DateTime.class, new DateTimeTypeAdapter());
-        gsonBuilder.setPrettyPrinting();
-        gsonBuilder.setExclusionStrategies(new SkipMeExclusionStrategy(Boolean.class));
-        gsonBuilder.disableHtmlEscaping();
+    private final int maxTotalConnections;
+    private final int maxConnectionsPerRoute;
+    private final long idleConnectionTimeoutMillis;
+    private volatile CloseableHttpAsyncClient asyncClient;
+    private volatile ScheduledExecutorService scheduler;
 
-        logger.addHandler(new ConsoleHandler());
-        logger.setLevel(Level.ALL);
-    }
+    // Asynchronous sends waiting on the timer for the rate limiter or a retry
+    private final Set<AsyncSend> waitingSends = Collections.newSetFromMap(new ConcurrentHashMap<AsyncSend, Boolean>());
+
+    // Set once close() has run, and once the coalesced messages are sent
+    // and the pools are being shut down; guarded by this
+    private boolean closed;
+    private boolean shutDown;
+
+    private final RetryPolicy retryPolicy;
+    private final RetryBudget retryBudget;
+
+    private final RateLimiter rateLimiter;
+    private final CircuitBreaker circuitBreaker;
+
+    private final SendCoalescer coalescer;
+
+    private final RequestConfig requestConfig;
+    private final long sendTimeoutNanos;
+    private final long rateLimitMaxWaitNanos;
+
+    private final PostmarkMetrics metrics;
+
+    private final boolean logPayloads;
+    private final int maxLoggedPayloadLength;
+
+    private static final Gson gson = PostmarkGson.INSTANCE;
 
 
     /**
@@ -93,8 +161,120 @@ public class PostmarkClient {
      * @param serverPath an alternative server path e.g https://api.postmarkapp.com
      */
     public PostmarkClient(String serverToken, String serverPath) {
+        this(serverToken, serverPath, new PostmarkClientConfig());
+    }
+
+    /**
+     * Initializes a new instance of the PostmarkClient class.
+     * <p/>
+     * If you do not have a server token you can request one by signing up to
+     * use Postmark: http://postmarkapp.com.
+     *
+     * @param serverToken the postmark server token
+     * @param serverPath an alternative server path e.g https://api.postmarkapp.com
+     * @param config connection pool and transport settings, read once at construction
+     */
+    public PostmarkClient(String serverToken, String serverPath, PostmarkClientConfig config) {
         this.serverToken = serverToken;
         this.serverPath = serverPath;
+
+        maxTotalConnections = config.getMaxTotalConnections();
+        maxConnectionsPerRoute = config.getMaxConnectionsPerRoute();
+        idleConnectionTimeoutMillis = config.getIdleConnectionTimeoutMillis();
+        logPayloads = config.isLogPayloads();
+        maxLoggedPayloadLength = config.getMaxLoggedPayloadLength();
+        metrics = config.getMetrics();
+
+        retryPolicy = (config.getRetryPolicy() != null) ? new RetryPolicy(config.getRetryPolicy()) : RetryPolicy.none();
+        retryBudget = new RetryBudget(retryPolicy.getRetryBudgetRatio(), retryPolicy.getRetryBudgetCapacity());
+
+        if (config.getRateLimitPerSecond() > 0) {
+            int burst = config.getRateLimitBurst() > 0 ? config.getRateLimitBurst() : (int) Math.ceil(config.getRateLimitPerSecond());
+            rateLimiter = RateLimiter.forServerToken(serverToken, config.getRateLimitPerSecond(), burst);
+        } else {
+            rateLimiter = null;
+        }
+        rateLimitMaxWaitNanos = TimeUnit.MILLISECONDS.toNanos(config.getRateLimitMaxWaitMillis());
+
+        circuitBreaker = (config.getCircuitBreakerPolicy() != null) ? new CircuitBreaker(config.getCircuitBreakerPolicy()) : null;
+
+        requestConfig = RequestConfig.custom()
+                .setConnectTimeout(config.getConnectTimeoutMillis())
+                .setSocketTimeout(config.getReadTimeoutMillis())
+                .setConnectionRequestTimeout(config.getConnectionRequestTimeoutMillis())
+                .build();
+        sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getSendTimeoutMillis());
+
+        connectionManager = new TimedConnectionManager();
+        connectionManager.setMaxTotal(maxTotalConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setUserAgent("Postmark-Java");
+        if (idleConnectionTimeoutMillis > 0) {
+            builder.evictExpiredConnections()
+                    .evictIdleConnections(idleConnectionTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        httpClient = builder.build();
+
+        coalescer = (config.getLingerMillis() > 0)
+                ? new SendCoalescer(this, config.getLingerMillis(), config.getMaxLingerMessages(), maxConnectionsPerRoute)
+                : null;
+    }
+
+    /**
+     * @return the circuit breaker guarding requests to Postmark, or null if
+     * no {@link CircuitBreakerPolicy} was configured
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Sends messages waiting to be coalesced, then shuts down the connection
+     * pools, the idle-connection evictor and, if they were started, the
+     * non-blocking I/O reactor and the retry timer.
+     * The client cannot be used to send messages afterwards: sends fail with
+     * a {@link PostmarkException} without a request being made, as do
+     * asynchronous sends still waiting for the rate limiter or a retry.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        if (rateLimiter != null) {
+            rateLimiter.release();
+        }
+        if (coalescer != null) {
+            coalescer.close();
+        }
+        synchronized (this) {
+            shutDown = true;
+        }
+        try {
+            httpClient.close();
+        } finally {
+            synchronized (this) {
+                if (scheduler != null) {
+                    scheduler.shutdownNow();
+                }
+                if (asyncClient != null) {
+                    asyncClient.close();
+                }
+            }
+            // Their timer tasks were just dropped, so they would never complete
+            for (AsyncSend send : waitingSends) {
+                if (waitingSends.remove(send)) {
+                    send.abandon();
+                }
+            }
+        }
     }
 
     /**
@@ -175,6 +355,9 @@ public class PostmarkClient {
      * @return A response object
      */
     public PostmarkResponse sendMessage(PostmarkTemplate templateMessage) throws PostmarkException {
+        if (coalescer != null) {
+            return await(coalescer.send(templateMessage));
+        }
         return sendPostmarkMessage("/email/withTemplate", templateMessage);
     }
 
@@ -189,98 +372,1059 @@ public class PostmarkClient {
      * @return A response object
      */
     public PostmarkResponse sendMessage(PostmarkMessage message) throws PostmarkException {
+        if (coalescer != null) {
+            return await(coalescer.send(message));
+        }
         return sendPostmarkMessage("/email", message);
     }
 
-    private PostmarkResponse sendPostmarkMessage(String endpoint, PostmarkMessageBase message ) throws PostmarkException {
+    /**
+     * Sends a message through the Postmark API without blocking the caller.
+     * <p/>
+     * The request runs on a non-blocking HTTP transport, so many sends can be
+     * in flight without a thread each. The returned future completes with the
+     * response, or exceptionally with a {@link PostmarkException} if the
+     * message is invalid or could not be sent.
+     *
+     * @param message A prepared message instance.
+     * @return a future for the response
+     */
+    public CompletableFuture<PostmarkResponse> sendMessageAsync(PostmarkMessage message) {
+        if (coalescer != null) {
+            return coalescer.send(message);
+        }
+        return sendPostmarkMessageAsync("/email", message);
+    }
 
-        HttpClient httpClient = new DefaultHttpClient();
-        PostmarkResponse theResponse = new PostmarkResponse();
+    /**
+     * Sends a template message through the Postmark API without blocking the
+     * caller. See {@link #sendMessageAsync(PostmarkMessage)} for details.
+     *
+     * @param templateMessage A prepared template message instance.
+     * @return a future for the response
+     */
+    public CompletableFuture<PostmarkResponse> sendMessageAsync(PostmarkTemplate templateMessage) {
+        if (coalescer != null) {
+            return coalescer.send(templateMessage);
+        }
+        return sendPostmarkMessageAsync("/email/withTemplate", templateMessage);
+    }
 
+    // Waits for a coalesced send, throwing its failure as the blocking send would
+    private static PostmarkResponse await(CompletableFuture<PostmarkResponse> future) throws PostmarkException {
         try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof PostmarkException) {
+                throw (PostmarkException) e.getCause();
+            }
+            throw new PostmarkException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PostmarkException(e);
+        }
+    }
 
-            // Create post request to Postmark API endpoint
-            HttpPost method = new HttpPost(serverPath+endpoint);
+    /**
+     * Sends a batch of messages through the Postmark API.
+     * <p/>
+     * Messages are posted to the batch endpoint in chunks of at most
+     * {@link #MAX_BATCH_SIZE} messages and about {@link #MAX_BATCH_BYTES}
+     * of JSON. Failures are reported per message rather than
+     * thrown: a message that fails validation, is rejected by Postmark, or
+     * belongs to a chunk whose request failed gets a response whose status is
+     * not {@link PostmarkStatus#SUCCESS}.
+     *
+     * @param messages The prepared message instances
+     * @return one response per message, in the same order as {@code messages}
+     */
+    public List<PostmarkResponse> sendMessages(List<PostmarkMessage> messages) {
+        return sendPostmarkMessages("/email/batch", messages, false);
+    }
 
-            // Add standard headers required by Postmark
-            method.addHeader("Accept", "application/json");
-            method.addHeader("Content-Type", "application/json; charset=utf-8");
-            method.addHeader("X-Postmark-Server-Token", serverToken);
-            method.addHeader("User-Agent", "Postmark-Java");
+    /**
+     * Sends a batch of template messages through the Postmark API.
+     * <p/>
+     * Templates are posted to the batch template endpoint in chunks of at
+     * most {@link #MAX_BATCH_SIZE} messages and about {@link #MAX_BATCH_BYTES}
+     * of JSON, and failures are reported per message in
+     * the same way as {@link #sendMessages(List)}.
+     *
+     * @param templateMessages The prepared template message instances
+     * @return one response per template message, in the same order as {@code templateMessages}
+     */
+    public List<PostmarkResponse> sendTemplates(List<PostmarkTemplate> templateMessages) {
+        return sendPostmarkMessages("/email/batchWithTemplates", templateMessages, true);
+    }
+
+    private PostmarkResponse sendPostmarkMessage(String endpoint, PostmarkMessageBase message ) throws PostmarkException {
+
+        PostmarkResponse theResponse;
+        long start = System.nanoTime();
+        boolean valid = false;
+
+        try {
 
             // Validate and clean the message
             message.validate();
             message.clean();
+            valid = true;
+            metrics.recordPhase(PostmarkMetrics.Phase.VALIDATION, endpoint, System.nanoTime() - start);
 
-            // Convert the message into JSON content
-            Gson gson = gsonBuilder.create();
-            String messageContents = gson.toJson(message);
-            logger.info("Message contents: " + messageContents);
+            if (logsPayloads()) {
+                logger.fine("Message contents: " + truncate(message.toString()));
+            }
 
-            // Add JSON as payload to post request
-            StringEntity payload = new StringEntity(messageContents, "UTF-8");
-            method.setEntity(payload);
+            // The message is serialized to JSON while the request is written
+            Reply<PostmarkResponse> reply = executePost(endpoint, new JsonEntity(gson, message, metrics, endpoint), PostmarkResponse.class);
+            if (reply.error != null) {
+                throw responseError(reply.statusCode, reply.error);
+            }
+            if (reply.value == null) {
+                throw emptyResponse(reply.statusCode);
+            }
+            theResponse = reply.value;
+            theResponse.status = PostmarkStatus.SUCCESS;
 
-            ResponseHandler<String> responseHandler = new ResponseHandler<String>() {
+        } catch (PostmarkException e) {
+            //Log it and rethrow it, don't wrap it
+            logger.log(Level.SEVERE, "There has been an error sending your email: " + e.getMessage());
+            if (valid) {
+                recordOutcome(endpoint, null, e, start);
+            } else {
+                metrics.recordSend(endpoint, PostmarkStatus.USERERROR, 0, System.nanoTime() - start);
+            }
+            throw e;
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "There has been an error sending your email: " + e.getMessage());
+            recordOutcome(endpoint, null, e, start);
+            throw new PostmarkException(e);
+        }
+
+        recordOutcome(endpoint, theResponse, null, start);
+        return theResponse;
+    }
+
+    private List<PostmarkResponse> sendPostmarkMessages(String endpoint, List<? extends PostmarkMessageBase> messages, boolean templated) {
+
+        PostmarkResponse[] responses = new PostmarkResponse[messages.size()];
+
+        // Validate and clean every message up front, so that a bad message
+        // only fails itself and never the chunk it would have been sent in
+        List<Integer> accepted = new ArrayList<Integer>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            PostmarkMessageBase message = messages.get(i);
+            long start = System.nanoTime();
+            try {
+                message.validate();
+                message.clean();
+                metrics.recordPhase(PostmarkMetrics.Phase.VALIDATION, endpoint, System.nanoTime() - start);
+                accepted.add(i);
+            } catch (PostmarkException e) {
+                responses[i] = errorResponse(PostmarkStatus.USERERROR, e.getMessage(), message.getToAddress());
+                recordOutcome(endpoint, responses[i], null, start);
+            } catch (RuntimeException e) {
+                // A message that breaks the validator fails alone, like an invalid one
+                logger.log(Level.SEVERE, "There has been an error validating your email: " + e.getMessage(), e);
+                responses[i] = errorResponse(PostmarkStatus.UNKNOWN, String.valueOf(e), message.getToAddress());
+                recordOutcome(endpoint, responses[i], null, start);
+            }
+        }
+
+        int from = 0;
+        while (from < accepted.size()) {
+            // A chunk ends at the count limit or before the message that would
+            // take it over the size limit; a single message always goes out
+            int to = from;
+            long bytes = BATCH_OVERHEAD;
+            while (to < accepted.size() && to - from < MAX_BATCH_SIZE) {
+                long length = messages.get(accepted.get(to)).jsonLength() + 1;
+                if (to > from && bytes + length > MAX_BATCH_BYTES) {
+                    break;
+                }
+                bytes += length;
+                to++;
+            }
+            List<Integer> chunk = accepted.subList(from, to);
+            from = to;
+
+            List<PostmarkMessageBase> batch = new ArrayList<PostmarkMessageBase>(chunk.size());
+            for (Integer index : chunk) {
+                batch.add(messages.get(index));
+            }
+
+            // The template endpoint expects the messages wrapped in an object
+            Object payload = templated ? new TemplateBatch(batch) : batch;
+            PostmarkResponse[] results = sendChunk(endpoint, new JsonEntity(gson, payload, metrics, endpoint), chunk.size());
+
+            for (int i = 0; i < chunk.size(); i++) {
+                if (results[i].to == null) {
+                    results[i].to = batch.get(i).getToAddress();
+                }
+                responses[chunk.get(i)] = results[i];
+            }
+        }
+
+        return Arrays.asList(responses);
+    }
 
+    /**
+     * Sends messages that are already serialized to JSON, as kept by a
+     * {@link PostmarkOutbox}, in a single batch request.
+     *
+     * Unlike {@link #sendMessages(List)}, a failure of the whole request,
+     * such as a bad server token or a connection error, is thrown rather
+     * than copied onto every message, so that it is never taken for a
+     * rejection of the messages themselves.
+     *
+     * @param templated whether the messages are template messages
+     * @param messages  at most {@link #MAX_BATCH_SIZE} serialized messages,
+     *                  together at most {@link #MAX_BATCH_BYTES}
+     * @return one response per message, in the same order as {@code messages}
+     * @throws PostmarkException if the request failed as a whole
+     */
+    List<PostmarkResponse> sendSerializedBatch(boolean templated, List<byte[]> messages) throws PostmarkException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        byte[] open = (templated ? "{\"Messages\":[" : "[").getBytes(StandardCharsets.UTF_8);
+        byte[] close = (templated ? "]}" : "]").getBytes(StandardCharsets.UTF_8);
+
+        payload.write(open, 0, open.length);
+        for (int i = 0; i < messages.size(); i++) {
+            if (i > 0) {
+                payload.write(',');
+            }
+            payload.write(messages.get(i), 0, messages.get(i).length);
+        }
+        payload.write(close, 0, close.length);
+
+        String endpoint = templated ? "/email/batchWithTemplates" : "/email/batch";
+        long start = System.nanoTime();
+        PostmarkResponse[] responses;
+        try {
+            responses = postChunk(endpoint, new ByteArrayEntity(payload.toByteArray()), messages.size());
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "There has been an error sending your email batch: " + e.getMessage());
+            for (int i = 0; i < messages.size(); i++) {
+                recordOutcome(endpoint, null, e, start);
+            }
+            throw (e instanceof PostmarkException) ? (PostmarkException) e : new PostmarkException(e);
+        }
+
+        recordOutcomes(endpoint, responses, start);
+        return Arrays.asList(responses);
+    }
+
+    // Posts one chunk of a batch; failures are returned rather than thrown,
+    // and a failure of the whole request is copied onto every message
+    private PostmarkResponse[] sendChunk(String endpoint, HttpEntity payload, int size) {
+
+        PostmarkResponse[] responses;
+        long start = System.nanoTime();
+
+        try {
+            responses = postChunk(endpoint, payload, size);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "There has been an error sending your email batch: " + e.getMessage());
+
+            PostmarkResponse failure = (e instanceof PostmarkException) ? ((PostmarkException) e).getResponse() : null;
+            PostmarkStatus status = (failure != null && failure.status != null) ? failure.status : PostmarkStatus.UNKNOWN;
+            String message = (failure != null && failure.message != null) ? failure.message : e.getMessage();
+
+            responses = new PostmarkResponse[size];
+            for (int i = 0; i < size; i++) {
+                responses[i] = errorResponse(status, message, null);
+                responses[i].errorCode = (failure != null) ? failure.errorCode : 0;
+            }
+        }
+
+        recordOutcomes(endpoint, responses, start);
+        return responses;
+    }
+
+    // Posts one chunk of a batch and returns the result of each message;
+    // throws if the whole request failed
+    private PostmarkResponse[] postChunk(String endpoint, HttpEntity payload, int size) throws IOException, PostmarkException {
+
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Sending " + size + " messages to " + endpoint);
+        }
+
+        Reply<PostmarkResponse[]> reply = executePost(endpoint, payload, PostmarkResponse[].class);
+        if (reply.error != null) {
+            throw responseError(reply.statusCode, reply.error);
+        }
+        PostmarkResponse[] results = reply.value;
+
+        PostmarkResponse[] responses = new PostmarkResponse[size];
+        for (int i = 0; i < size; i++) {
+            PostmarkResponse result = (results != null && i < results.length) ? results[i] : null;
+            if (result == null) {
+                result = errorResponse(PostmarkStatus.UNKNOWN, "No result returned for this message.", null);
+            } else {
+                result.status = (result.errorCode == 0) ? PostmarkStatus.SUCCESS : PostmarkStatus.USERERROR;
+            }
+            responses[i] = result;
+        }
+        return responses;
+    }
+
+    // Payloads are only logged when the configuration asks for it and FINE
+    // is enabled, so the default send path never renders them
+    private boolean logsPayloads() {
+        return logPayloads && logger.isLoggable(Level.FINE);
+    }
+
+    // Cuts logged text down so a large message never floods the log
+    private String truncate(String text) {
+        if (text == null || text.length() <= maxLoggedPayloadLength) {
+            return text;
+        }
+        return text.substring(0, maxLoggedPayloadLength) + "... (" + text.length() + " characters)";
+    }
+
+    // Request body of the batch template endpoint
+    private static class TemplateBatch {
+
+        @SerializedName("Messages")
+        private final List<PostmarkMessageBase> messages;
+
+        TemplateBatch(List<PostmarkMessageBase> messages) {
+            this.messages = messages;
+        }
+    }
+
+    private static PostmarkResponse errorResponse(PostmarkStatus status, String message, String to) {
+        PostmarkResponse response = new PostmarkResponse();
+        response.status = status;
+        response.message = message;
+        response.to = to;
+        return response;
+    }
+
+    private void recordOutcomes(String endpoint, PostmarkResponse[] responses, long start) {
+        for (PostmarkResponse response : responses) {
+            recordOutcome(endpoint, response, null, start);
+        }
+    }
+
+    // Reports the outcome of one message, given either its response or why it failed
+    private void recordOutcome(String endpoint, PostmarkResponse response, Throwable failure, long start) {
+        if (response == null && failure instanceof PostmarkException) {
+            response = ((PostmarkException) failure).getResponse();
+        }
+        PostmarkStatus status = (response != null && response.status != null) ? response.status : PostmarkStatus.UNKNOWN;
+        int errorCode = (response != null) ? response.errorCode : 0;
+        metrics.recordSend(endpoint, status, errorCode, System.nanoTime() - start);
+    }
+
+    private HttpPost createPost(String endpoint, HttpEntity payload) {
+
+        // Create post request to Postmark API endpoint
+        HttpPost method = new HttpPost(serverPath+endpoint);
+
+        // Add standard headers required by Postmark
+        method.addHeader("Accept", "application/json");
+        method.addHeader("Content-Type", "application/json; charset=utf-8");
+        method.addHeader("X-Postmark-Server-Token", serverToken);
+
+        // Add JSON as payload to post request
+        method.setEntity(payload);
+
+        return method;
+    }
+
+    // Posts a request, retrying as the policy allows. Error responses from
+    // Postmark are returned rather than thrown; only transport failures throw
+    private <T> Reply<T> executePost(final String endpoint, HttpEntity payload, final Class<T> type) throws IOException, PostmarkException {
+
+        if (isClosed()) {
+            throw clientClosed();
+        }
+        HttpPost method = createPost(endpoint, payload);
+
+        ResponseHandler<Reply<T>> responseHandler = new ResponseHandler<Reply<T>>() {
+
+            @Override
+            public Reply<T> handleResponse(
+                    final HttpResponse response) throws IOException {
+                int status = response.getStatusLine().getStatusCode();
+                HttpEntity entity = response.getEntity();
+                if (status >= 200 && status < 300) {
+                    // Parsed while the body is read, before the connection is released
+                    return new Reply<T>(status, entity != null ? parse(endpoint, entity, type) : null, null, -1);
+                } else {
+                    return new Reply<T>(status, null, parseError(status, entity), retryAfterMillis(response));
+                }
+            }
+        };
+
+        retryBudget.onRequest();
+
+        // Abort the request in flight once the deadline has passed
+        long deadline = deadline();
+        ScheduledFuture<?> abort = null;
+        if (deadline != 0) {
+            final HttpPost aborted = method;
+            abort = scheduler().schedule(new Runnable() {
                 @Override
-                public String handleResponse(
-                        final HttpResponse response) throws IOException {
-                    int status = response.getStatusLine().getStatusCode();
-                    HttpEntity entity = response.getEntity();
-                    if (status >= 200 && status < 300) {
-                        return entity != null ? EntityUtils.toString(entity) : null;
-                    } else {
-                        Scanner s = new Scanner(entity.getContent()).useDelimiter("\\A");
-                        String result = s.hasNext() ? s.next() : "";
-                        // Output body in case of trouble for further debugging
-                        logger.warning(result);
+                public void run() {
+                    aborted.abort();
+                }
+            }, sendTimeoutNanos, TimeUnit.NANOSECONDS);
+        }
+
+        try {
+            for (int attempt = 1; ; attempt++) {
+                acquirePermission(deadline);
 
-                        throw new ClientProtocolException("Unexpected response status: " + status);
+                long delay;
+                long start = System.nanoTime();
+                try {
+                    Reply<T> reply;
+                    try {
+                        reply = httpClient.execute(method, responseHandler);
+                    } finally {
+                        recordRoundTrip(endpoint, start);
+                    }
+                    if (circuitBreaker != null) {
+                        circuitBreaker.onResponse(System.nanoTime() - start, reply.statusCode);
+                    }
+                    if (reply.error == null) {
+                        return reply;
                     }
+                    delay = retryPolicy.isRetryable(reply.statusCode) ? retryDelay(attempt, reply.retryAfterMillis, deadline) : -1;
+                    if (delay < 0) {
+                        return reply;
+                    }
+                } catch (IOException ioe) {
+                    if (circuitBreaker != null) {
+                        circuitBreaker.onResult(System.nanoTime() - start, true);
+                    }
+                    if (method.isAborted()) {
+                        throw timedOut();
+                    }
+                    delay = retryPolicy.isRetryable(ioe) ? retryDelay(attempt, -1, deadline) : -1;
+                    if (delay < 0) {
+                        throw ioe;
+                    }
+                } catch (RuntimeException e) {
+                    if (circuitBreaker != null) {
+                        circuitBreaker.onResult(System.nanoTime() - start, true);
+                    }
+                    throw e;
+                }
+
+                logRetry(endpoint, attempt, delay);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new PostmarkException(e);
                 }
-            };
-            
+            }
+        } finally {
+            if (abort != null) {
+                abort.cancel(false);
+            }
+        }
+    }
+
+    // Parses a response body as it is read from the connection, without
+    // holding it as a String unless payloads are logged
+    private <T> T parse(String endpoint, HttpEntity entity, Class<T> type) throws IOException {
+        long start = System.nanoTime();
+        T result;
+        if (logsPayloads()) {
+            String body = EntityUtils.toString(entity, "UTF-8");
+            logger.fine("Message response: " + truncate(body));
+            result = gson.fromJson(body, type);
+        } else {
+            ResponseReader reader = ResponseReader.open(entity.getContent());
             try {
-                String response = httpClient.execute(method, responseHandler);
-                logger.info("Message response: " + response);
-                theResponse = gsonBuilder.create().fromJson(response, PostmarkResponse.class);
-                theResponse.status = PostmarkStatus.SUCCESS;
-            } catch (HttpResponseException hre) {
-                switch(hre.getStatusCode()) {
-
-                    case 401:
-                    case 422:
-                        logger.log(Level.SEVERE, "There was a problem with the email: " + hre.getMessage());
-                        theResponse.setMessage(hre.getMessage());
-                        theResponse.status = PostmarkStatus.USERERROR;
-                        throw new PostmarkException(hre.getMessage(), theResponse);
-                    case 500:
-                        logger.log(Level.SEVERE, "There has been an error sending your email: " + hre.getMessage());
-                        theResponse.setMessage(hre.getMessage());
-                        theResponse.status = PostmarkStatus.SERVERERROR;
-                        throw new PostmarkException(hre.getMessage(), theResponse);
-                    default:
-                        logger.log(Level.SEVERE, "There has been an unknow error sending your email: " + hre.getMessage());
-                        theResponse.status = PostmarkStatus.UNKNOWN;
-                        theResponse.setMessage(hre.getMessage());
-                        throw new PostmarkException(hre.getMessage(), theResponse);
+                result = gson.fromJson(new JsonReader(reader), type);
+            } catch (JsonParseException e) {
+                // Gson reports a failed read of the body as a syntax error,
+                // so look for the I/O failure underneath either kind
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                if (e instanceof JsonIOException) {
+                    throw new IOException(e);
                 }
+                throw e;
+            } finally {
+                reader.close();
             }
+        }
+        metrics.recordPhase(PostmarkMetrics.Phase.PARSING, endpoint, System.nanoTime() - start);
+        return result;
+    }
+
+    // Reads the ErrorCode and Message Postmark sends with an error status.
+    // Bodies that are not Postmark JSON, such as a proxy's error page, only
+    // end up in the log
+    private PostmarkResponse parseError(int statusCode, HttpEntity entity) {
+        PostmarkResponse error = null;
+        String body = null;
+        if (entity != null) {
+            ResponseReader reader = null;
+            try {
+                reader = ResponseReader.open(entity.getContent());
+                body = reader.readUpTo(MAX_ERROR_BODY_LENGTH);
+                error = gson.fromJson(body, PostmarkResponse.class);
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Could not read the error response", e);
+            } catch (RuntimeException e) {
+                // Not JSON
+            } finally {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+        }
+
+        if (error == null) {
+            error = new PostmarkResponse();
+        }
+        if (error.message == null) {
+            error.message = "Unexpected response status: " + statusCode;
+        }
+        if (logger.isLoggable(Level.WARNING)) {
+            // Output body in case of trouble for further debugging
+            logger.warning("Postmark responded with status " + statusCode + ": " + (body != null ? truncate(body) : ""));
+        }
+        return error;
+    }
 
+    // Reports one attempt, and the pool lease it waited for if it got that far
+    private void recordRoundTrip(String endpoint, long start) {
+        long end = System.nanoTime();
+        long lease = connectionManager.takeLeaseNanos();
+        if (lease >= 0) {
+            metrics.recordPhase(PostmarkMetrics.Phase.POOL_LEASE, endpoint, lease);
+        }
+        metrics.recordPhase(PostmarkMetrics.Phase.ROUND_TRIP, endpoint, end - start);
+    }
+
+    // The time by which a send must be done, or 0 if there is none
+    private long deadline() {
+        if (sendTimeoutNanos <= 0) {
+            return 0;
+        }
+        long deadline = System.nanoTime() + sendTimeoutNanos;
+        return (deadline != 0) ? deadline : 1;
+    }
+
+    // The longest a send may still wait, given its deadline
+    private static long remainingNanos(long deadline, long maxWaitNanos) {
+        if (deadline == 0) {
+            return maxWaitNanos;
+        }
+        return Math.min(maxWaitNanos, deadline - System.nanoTime());
+    }
+
+    // Fails fast while the circuit breaker is open, then waits for the rate limiter
+    private void acquirePermission(long deadline) throws PostmarkException {
+        if (remainingNanos(deadline, Long.MAX_VALUE) <= 0) {
+            throw timedOut();
+        }
+        if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+            throw circuitOpen();
+        }
+        try {
+            acquirePermit(deadline);
         } catch (PostmarkException e) {
-            //Log it and rethrow it, don't wrap it
-            logger.log(Level.SEVERE, "There has been an error sending your email: " + e.getMessage());
+            if (circuitBreaker != null) {
+                circuitBreaker.release();
+            }
             throw e;
+        }
+    }
+
+    // Blocks until the rate limiter lets another request through
+    private void acquirePermit(long deadline) throws PostmarkException {
+        if (rateLimiter == null) {
+            return;
+        }
+        long wait = rateLimiter.reserve(1, remainingNanos(deadline, rateLimitMaxWaitNanos));
+        if (wait < 0) {
+            throw throttled();
+        }
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PostmarkException(e);
+            }
+        }
+    }
+
+    private static PostmarkException throttled() {
+        String message = "Rate limit for this server token exceeded";
+        logger.warning(message);
+        PostmarkResponse theResponse = new PostmarkResponse();
+        theResponse.status = PostmarkStatus.THROTTLED;
+        theResponse.setMessage(message);
+        return new PostmarkException(message, theResponse, false);
+    }
+
+    private static PostmarkException circuitOpen() {
+        String message = "Circuit breaker is open, Postmark is not being called";
+        logger.fine(message);
+        PostmarkResponse theResponse = new PostmarkResponse();
+        theResponse.status = PostmarkStatus.CIRCUITOPEN;
+        theResponse.setMessage(message);
+        return new PostmarkException(message, theResponse, false);
+    }
+
+    // A successful status without a response body, which Postmark never sends
+    private static PostmarkException emptyResponse(int statusCode) {
+        String message = "Postmark responded with status " + statusCode + " but no response body";
+        logger.warning(message);
+        PostmarkResponse theResponse = new PostmarkResponse();
+        theResponse.status = PostmarkStatus.UNKNOWN;
+        theResponse.setMessage(message);
+        return new PostmarkException(message, theResponse, false);
+    }
+
+    private synchronized boolean isClosed() {
+        return shutDown;
+    }
+
+    private static PostmarkException clientClosed() {
+        String message = "The client is closed";
+        PostmarkResponse theResponse = new PostmarkResponse();
+        theResponse.status = PostmarkStatus.UNKNOWN;
+        theResponse.setMessage(message);
+        return new PostmarkException(message, theResponse, false);
+    }
+
+    private PostmarkException timedOut() {
+        String message = "Send did not complete within " + TimeUnit.NANOSECONDS.toMillis(sendTimeoutNanos) + " ms";
+        logger.warning(message);
+        PostmarkResponse theResponse = new PostmarkResponse();
+        theResponse.status = PostmarkStatus.TIMEOUT;
+        theResponse.setMessage(message);
+        return new PostmarkException(message, theResponse, false);
+    }
+
+    // Returns the delay before retrying a failed attempt, or -1 if the
+    // attempts or the retry budget are used up, or the retry would come
+    // after the deadline
+    private long retryDelay(int attempt, long retryAfterMillis, long deadline) {
+        if (attempt >= retryPolicy.getMaxAttempts()) {
+            return -1;
+        }
+        long delay = retryPolicy.delayMillis(attempt, retryAfterMillis);
+        if (delay < 0 || TimeUnit.MILLISECONDS.toNanos(delay) >= remainingNanos(deadline, Long.MAX_VALUE)
+                || !retryBudget.tryRetry()) {
+            return -1;
+        }
+        return delay;
+    }
+
+    private static void logRetry(String endpoint, int attempt, long delay) {
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info("Attempt " + attempt + " to send to " + endpoint + " failed, retrying in " + delay + " ms");
+        }
+    }
+
+    // Reads a Retry-After header given either in seconds or as an HTTP date
+    private static long retryAfterMillis(HttpResponse response) {
+        Header header = response.getFirstHeader("Retry-After");
+        if (header == null || header.getValue() == null) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return (date != null) ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+
+    // A response from Postmark: the parsed body of a 2xx response, or the
+    // error it sent along with how long it asked us to wait
+    private static final class Reply<T> {
+
+        final int statusCode;
+        final T value;
+        final PostmarkResponse error;
+        final long retryAfterMillis;
+
+        Reply(int statusCode, T value, PostmarkResponse error, long retryAfterMillis) {
+            this.statusCode = statusCode;
+            this.value = value;
+            this.error = error;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+    }
+
+    // Sets the status of an error Postmark returned, keeping its ErrorCode and Message
+    private static PostmarkResponse classify(int statusCode, PostmarkResponse error) {
+
+        String message = error.getMessage();
+
+        switch(statusCode) {
+
+            case 401:
+            case 422:
+                logger.log(Level.SEVERE, "There was a problem with the email: " + message);
+                error.status = PostmarkStatus.USERERROR;
+                break;
+            case 429:
+                logger.log(Level.WARNING, "Postmark is rate limiting requests: " + message);
+                error.status = PostmarkStatus.THROTTLED;
+                break;
+            case 500:
+                logger.log(Level.SEVERE, "There has been an error sending your email: " + message);
+                error.status = PostmarkStatus.SERVERERROR;
+                break;
+            default:
+                logger.log(Level.SEVERE, "There has been an unknow error sending your email: " + message);
+                error.status = PostmarkStatus.UNKNOWN;
+                break;
+        }
+        return error;
+    }
+
+    private static PostmarkException responseError(int statusCode, PostmarkResponse error) {
+        classify(statusCode, error);
+        return new PostmarkException(error.getMessage(), error, false);
+    }
+
+    private CompletableFuture<PostmarkResponse> sendPostmarkMessageAsync(final String endpoint, PostmarkMessageBase message) {
+
+        final CompletableFuture<PostmarkResponse> future = new CompletableFuture<PostmarkResponse>();
+        final long start = System.nanoTime();
+
+        if (isClosed()) {
+            future.completeExceptionally(clientClosed());
+            return future;
+        }
+
+        HttpPost method;
+        try {
+
+            // Validate and clean the message
+            message.validate();
+            message.clean();
+            metrics.recordPhase(PostmarkMetrics.Phase.VALIDATION, endpoint, System.nanoTime() - start);
+
+            if (logsPayloads()) {
+                logger.fine("Message contents: " + truncate(message.toString()));
+            }
+
+            method = createPost(endpoint, new JsonEntity(gson, message, metrics, endpoint));
+
+        } catch (PostmarkException e) {
+            logger.log(Level.SEVERE, "There has been an error sending your email: " + e.getMessage());
+            metrics.recordSend(endpoint, PostmarkStatus.USERERROR, 0, System.nanoTime() - start);
+            future.completeExceptionally(e);
+            return future;
         } catch (Exception e) {
             logger.log(Level.SEVERE, "There has been an error sending your email: " + e.getMessage());
-            throw new PostmarkException(e);
+            recordOutcome(endpoint, null, e, start);
+            future.completeExceptionally(new PostmarkException(e));
+            return future;
         }
-        finally {
 
-            httpClient.getConnectionManager().shutdown();
+        future.whenComplete(new BiConsumer<PostmarkResponse, Throwable>() {
+            @Override
+            public void accept(PostmarkResponse response, Throwable throwable) {
+                recordOutcome(endpoint, response, throwable, start);
+            }
+        });
+
+        new AsyncSend(endpoint, method, future).start();
+
+        return future;
+    }
+
+    // One asynchronous send, followed through its attempts
+    private final class AsyncSend implements FutureCallback<HttpResponse> {
+
+        private final String endpoint;
+        private final HttpPost method;
+        private final CompletableFuture<PostmarkResponse> future;
+        private final long deadline = deadline();
+
+        private volatile int attempt = 1;
+        private volatile long start;
+        private volatile Future<HttpResponse> inFlight;
+        private volatile boolean holdsPermission;
+
+        AsyncSend(String endpoint, HttpPost method, CompletableFuture<PostmarkResponse> future) {
+            this.endpoint = endpoint;
+            this.method = method;
+            this.future = future;
         }
 
-        return theResponse;
+        void start() {
+            retryBudget.onRequest();
+
+            if (deadline != 0) {
+                final ScheduledFuture<?> timeout = schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (future.completeExceptionally(timedOut())) {
+                            Future<HttpResponse> request = inFlight;
+                            if (request != null) {
+                                request.cancel(true);
+                            }
+                        }
+                    }
+                }, sendTimeoutNanos);
+                future.whenComplete(new BiConsumer<PostmarkResponse, Throwable>() {
+                    @Override
+                    public void accept(PostmarkResponse response, Throwable throwable) {
+                        if (timeout != null) {
+                            timeout.cancel(false);
+                        }
+                    }
+                });
+            }
+
+            execute();
+        }
+
+        private void execute() {
+            if (future.isDone()) {
+                return;
+            }
+            if (remainingNanos(deadline, Long.MAX_VALUE) <= 0) {
+                future.completeExceptionally(timedOut());
+                return;
+            }
+            if (circuitBreaker != null && !circuitBreaker.tryAcquire()) {
+                future.completeExceptionally(circuitOpen());
+                return;
+            }
+
+            // Wait for a permit on the timer, so no thread is held while throttled
+            long wait = (rateLimiter != null) ? rateLimiter.reserve(1, remainingNanos(deadline, rateLimitMaxWaitNanos)) : 0;
+            if (wait < 0) {
+                releasePermission();
+                future.completeExceptionally(throttled());
+            } else if (wait > 0) {
+                waitOnTimer(new Runnable() {
+                    @Override
+                    public void run() {
+                        dispatch();
+                    }
+                }, wait, true);
+            } else {
+                dispatch();
+            }
+        }
+
+        private void dispatch() {
+            if (future.isDone()) {
+                releasePermission();
+                return;
+            }
+            start = System.nanoTime();
+            try {
+                inFlight = asyncClient().execute(method, this);
+            } catch (RuntimeException e) {
+                releasePermission();
+                if (isClosed()) {
+                    future.completeExceptionally(clientClosed());
+                } else {
+                    fail(e);
+                }
+            }
+        }
+
+        // Gives back the circuit breaker permission of a request never sent
+        private void releasePermission() {
+            if (circuitBreaker != null) {
+                circuitBreaker.release();
+            }
+        }
+
+        private void retry(long delay) {
+            logRetry(endpoint, attempt, delay);
+            attempt++;
+            waitOnTimer(new Runnable() {
+                @Override
+                public void run() {
+                    execute();
+                }
+            }, TimeUnit.MILLISECONDS.toNanos(delay), false);
+        }
+
+        // Runs the next step of the send on the timer, unless close() fails
+        // the send first; holdsPermission tells whether it has a breaker permission
+        private void waitOnTimer(final Runnable step, long delayNanos, boolean holdsPermission) {
+            this.holdsPermission = holdsPermission;
+            waitingSends.add(this);
+            ScheduledFuture<?> scheduled = schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (waitingSends.remove(AsyncSend.this)) {
+                        step.run();
+                    }
+                }
+            }, delayNanos);
+            if (scheduled == null && waitingSends.remove(this)) {
+                abandon();
+            }
+        }
+
+        // Fails a send that will never take its next step
+        void abandon() {
+            if (holdsPermission) {
+                releasePermission();
+            }
+            future.completeExceptionally(clientClosed());
+        }
+
+        // Runs a task on the client's timer, or fails the send if the client is closed
+        private ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+            try {
+                return scheduler().schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(clientClosed());
+                return null;
+            }
+        }
+
+        @Override
+        public void completed(HttpResponse response) {
+            try {
+                int status = response.getStatusLine().getStatusCode();
+                if (circuitBreaker != null) {
+                    circuitBreaker.onResponse(System.nanoTime() - start, status);
+                }
+                HttpEntity entity = response.getEntity();
+                metrics.recordPhase(PostmarkMetrics.Phase.ROUND_TRIP, endpoint, System.nanoTime() - start);
+
+                if (status >= 200 && status < 300) {
+                    PostmarkResponse theResponse = entity != null ? parse(endpoint, entity, PostmarkResponse.class) : null;
+                    if (theResponse == null) {
+                        future.completeExceptionally(emptyResponse(status));
+                    } else {
+                        theResponse.status = PostmarkStatus.SUCCESS;
+                        future.complete(theResponse);
+                    }
+                } else {
+                    PostmarkResponse error = parseError(status, entity);
+
+                    long delay = retryPolicy.isRetryable(status) ? retryDelay(attempt, retryAfterMillis(response), deadline) : -1;
+                    if (delay >= 0) {
+                        retry(delay);
+                    } else {
+                        future.completeExceptionally(responseError(status, error));
+                    }
+                }
+            } catch (Exception e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        public void failed(Exception ex) {
+            metrics.recordPhase(PostmarkMetrics.Phase.ROUND_TRIP, endpoint, System.nanoTime() - start);
+            if (circuitBreaker != null) {
+                circuitBreaker.onResult(System.nanoTime() - start, true);
+            }
+            long delay = (ex instanceof IOException && retryPolicy.isRetryable((IOException) ex)) ? retryDelay(attempt, -1, deadline) : -1;
+            if (delay >= 0) {
+                retry(delay);
+            } else {
+                fail(ex);
+            }
+        }
+
+        // Only the deadline cancels a request
+        @Override
+        public void cancelled() {
+            if (circuitBreaker != null) {
+                circuitBreaker.onResult(System.nanoTime() - start, true);
+            }
+            future.cancel(false);
+        }
+
+        private void fail(Exception ex) {
+            if (!future.isDone()) {
+                logger.log(Level.SEVERE, "There has been an error sending your email: " + ex.getMessage());
+                future.completeExceptionally(new PostmarkException(ex));
+            }
+        }
+    }
+
+    private ScheduledExecutorService scheduler() {
+        ScheduledExecutorService executor = scheduler;
+        if (executor == null) {
+            synchronized (this) {
+                executor = scheduler;
+                if (executor == null) {
+                    if (shutDown) {
+                        throw new RejectedExecutionException("The client is closed");
+                    }
+                    ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "postmark-scheduler");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    pool.setRemoveOnCancelPolicy(true);
+                    executor = pool;
+                    scheduler = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    // The non-blocking client is only started once the first asynchronous
+    // send needs it, so synchronous users never pay for its I/O threads
+    private CloseableHttpAsyncClient asyncClient() {
+        CloseableHttpAsyncClient client = asyncClient;
+        if (client == null) {
+            synchronized (this) {
+                client = asyncClient;
+                if (client == null) {
+                    if (shutDown) {
+                        throw new IllegalStateException("The client is closed");
+                    }
+                    client = HttpAsyncClients.custom()
+                            .setMaxConnTotal(maxTotalConnections)
+                            .setMaxConnPerRoute(maxConnectionsPerRoute)
+                            .setKeepAliveStrategy(new IdleTimeoutKeepAliveStrategy(idleConnectionTimeoutMillis))
+                            .setDefaultRequestConfig(requestConfig)
+                            .setUserAgent("Postmark-Java")
+                            .build();
+                    client.start();
+                    asyncClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
+    // Caps how long a kept-alive asynchronous connection may be reused, as
+    // the non-blocking pool has no background idle-connection evictor
+    private static class IdleTimeoutKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+
+        private final long idleConnectionTimeoutMillis;
+
+        IdleTimeoutKeepAliveStrategy(long idleConnectionTimeoutMillis) {
+            this.idleConnectionTimeoutMillis = idleConnectionTimeoutMillis;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            if (idleConnectionTimeoutMillis <= 0) {
+                return duration;
+            }
+            return (duration > 0) ? Math.min(duration, idleConnectionTimeoutMillis) : idleConnectionTimeoutMillis;
+        }
     }
 }
@@ -0,0 +1,424 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Tuning options for a {@link PostmarkClient}.
+ * <p/>
+ * A client owns one pooled connection manager for its whole lifetime, so a
+ * single instance should be shared by all threads sending mail. The defaults
+ * are suitable for most applications; raise the connection limits when many
+ * threads send concurrently.
+ */
+public class PostmarkClientConfig {
+
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 20;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+    public static final long DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS = 30000L;
+    public static final int DEFAULT_MAX_LOGGED_PAYLOAD_LENGTH = 1024;
+    public static final int DEFAULT_MAX_LINGER_MESSAGES = PostmarkClient.MAX_BATCH_SIZE;
+    public static final long DEFAULT_RATE_LIMIT_MAX_WAIT_MILLIS = Long.MAX_VALUE;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 30000;
+    public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT_MILLIS = 10000;
+
+    // The maximum number of pooled connections across all routes.
+    private int maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+
+    // The maximum number of pooled connections to a single host.
+    private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
+    // How long a connection may sit idle in the pool before it is evicted.
+    private long idleConnectionTimeoutMillis = DEFAULT_IDLE_CONNECTION_TIMEOUT_MILLIS;
+
+    // How long establishing a connection may take, 0 for no limit.
+    private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+
+    // How long to wait for data on an open connection, 0 for no limit.
+    private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+
+    // How long to wait for a connection from the pool, 0 for no limit.
+    private int connectionRequestTimeoutMillis = DEFAULT_CONNECTION_REQUEST_TIMEOUT_MILLIS;
+
+    // How long a whole send may take, including retries, 0 for no limit.
+    private long sendTimeoutMillis;
+
+    // How failed requests are retried, null for no retries.
+    private RetryPolicy retryPolicy;
+
+    // Requests per second allowed for the server token, 0 for no limit.
+    private double rateLimitPerSecond;
+
+    // Requests that may be sent at once after a quiet period, 0 for one second's worth.
+    private int rateLimitBurst;
+
+    // How long a send waits for the rate limiter before failing.
+    private long rateLimitMaxWaitMillis = DEFAULT_RATE_LIMIT_MAX_WAIT_MILLIS;
+
+    // When requests stop being sent to Postmark, null for never.
+    private CircuitBreakerPolicy circuitBreakerPolicy;
+
+    // How long single sends wait to be grouped into a batch, 0 to send them at once.
+    private long lingerMillis;
+
+    // The number of waiting single sends that are sent as a batch straight away.
+    private int maxLingerMessages = DEFAULT_MAX_LINGER_MESSAGES;
+
+    // Where timings and outcomes of sends are reported.
+    private PostmarkMetrics metrics = PostmarkMetrics.NOOP;
+
+    // Whether message and response payloads are logged at FINE.
+    private boolean logPayloads;
+
+    // The number of characters of a payload that are logged.
+    private int maxLoggedPayloadLength = DEFAULT_MAX_LOGGED_PAYLOAD_LENGTH;
+
+    /**
+     * @return the maximum number of pooled connections across all routes
+     */
+    public int getMaxTotalConnections() {
+        return maxTotalConnections;
+    }
+
+    /**
+     * @param maxTotalConnections The maximum number of pooled connections across all routes
+     */
+    public void setMaxTotalConnections(int maxTotalConnections) {
+        if (maxTotalConnections < 1) {
+            throw new IllegalArgumentException("maxTotalConnections must be at least 1");
+        }
+        this.maxTotalConnections = maxTotalConnections;
+    }
+
+    /**
+     * @return the maximum number of pooled connections to a single host
+     */
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    /**
+     * @param maxConnectionsPerRoute The maximum number of pooled connections to a single host
+     */
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        if (maxConnectionsPerRoute < 1) {
+            throw new IllegalArgumentException("maxConnectionsPerRoute must be at least 1");
+        }
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    /**
+     * @return how long, in milliseconds, an idle connection is kept in the pool
+     */
+    public long getIdleConnectionTimeoutMillis() {
+        return idleConnectionTimeoutMillis;
+    }
+
+    /**
+     * @param idleConnectionTimeoutMillis How long, in milliseconds, an idle connection is kept
+     *                                    in the pool. Zero or less disables idle eviction.
+     */
+    public void setIdleConnectionTimeoutMillis(long idleConnectionTimeoutMillis) {
+        this.idleConnectionTimeoutMillis = idleConnectionTimeoutMillis;
+    }
+
+    /**
+     * @return how long establishing a connection may take, or 0 for no limit
+     */
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * @param connectTimeoutMillis How long establishing a connection may take; 0 for no limit
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        if (connectTimeoutMillis < 0) {
+            throw new IllegalArgumentException("connectTimeoutMillis must not be negative");
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    /**
+     * @return how long to wait for data on an open connection, or 0 for no limit
+     */
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    /**
+     * @param readTimeoutMillis How long to wait for data on an open connection; 0 for no limit
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        if (readTimeoutMillis < 0) {
+            throw new IllegalArgumentException("readTimeoutMillis must not be negative");
+        }
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * @return how long to wait for a connection from the pool, or 0 for no limit
+     */
+    public int getConnectionRequestTimeoutMillis() {
+        return connectionRequestTimeoutMillis;
+    }
+
+    /**
+     * @param connectionRequestTimeoutMillis How long to wait for a connection from the pool; 0 for no limit
+     */
+    public void setConnectionRequestTimeoutMillis(int connectionRequestTimeoutMillis) {
+        if (connectionRequestTimeoutMillis < 0) {
+            throw new IllegalArgumentException("connectionRequestTimeoutMillis must not be negative");
+        }
+        this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+    }
+
+    /**
+     * @return how long a whole send may take, including retries, or 0 for no limit
+     */
+    public long getSendTimeoutMillis() {
+        return sendTimeoutMillis;
+    }
+
+    /**
+     * Sets a deadline for every request to Postmark, covering rate limiting,
+     * all attempts and the delays between them. A send that misses it fails
+     * with {@link PostmarkStatus#TIMEOUT}; each chunk of a batch has its own
+     * deadline.
+     *
+     * @param sendTimeoutMillis How long a whole send may take; 0, the default, for no limit
+     */
+    public void setSendTimeoutMillis(long sendTimeoutMillis) {
+        if (sendTimeoutMillis < 0) {
+            throw new IllegalArgumentException("sendTimeoutMillis must not be negative");
+        }
+        this.sendTimeoutMillis = sendTimeoutMillis;
+    }
+
+    /**
+     * @return how failed requests are retried, or null if they are not
+     */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * @param retryPolicy How failed requests are retried; null, the default, disables retries
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return the requests per second allowed for the server token, or 0 for no limit
+     */
+    public double getRateLimitPerSecond() {
+        return rateLimitPerSecond;
+    }
+
+    /**
+     * Limits how fast requests are sent. Every request counts, including
+     * retries and each chunk of a batch. Clients using the same server token
+     * share one limiter, created with the settings of the first of them.
+     *
+     * @param rateLimitPerSecond The requests per second allowed for the server token; 0, the default, disables the limit
+     */
+    public void setRateLimitPerSecond(double rateLimitPerSecond) {
+        if (!(rateLimitPerSecond >= 0)) {
+            throw new IllegalArgumentException("rateLimitPerSecond must not be negative");
+        }
+        this.rateLimitPerSecond = rateLimitPerSecond;
+    }
+
+    /**
+     * @return the requests that may be sent at once after a quiet period, or 0 for one second's worth
+     */
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    /**
+     * @param rateLimitBurst The requests that may be sent at once after a quiet period; 0, the default, allows one second's worth
+     */
+    public void setRateLimitBurst(int rateLimitBurst) {
+        if (rateLimitBurst < 0) {
+            throw new IllegalArgumentException("rateLimitBurst must not be negative");
+        }
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
+    /**
+     * @return how long a send waits for the rate limiter before failing
+     */
+    public long getRateLimitMaxWaitMillis() {
+        return rateLimitMaxWaitMillis;
+    }
+
+    /**
+     * A send that would have to wait longer fails straight away with
+     * {@link PostmarkStatus#THROTTLED}.
+     *
+     * @param rateLimitMaxWaitMillis How long a send waits for the rate limiter; 0 never waits, and by default sends wait as long as needed
+     */
+    public void setRateLimitMaxWaitMillis(long rateLimitMaxWaitMillis) {
+        if (rateLimitMaxWaitMillis < 0) {
+            throw new IllegalArgumentException("rateLimitMaxWaitMillis must not be negative");
+        }
+        this.rateLimitMaxWaitMillis = rateLimitMaxWaitMillis;
+    }
+
+    /**
+     * @return when requests stop being sent to Postmark, or null if they never do
+     */
+    public CircuitBreakerPolicy getCircuitBreakerPolicy() {
+        return circuitBreakerPolicy;
+    }
+
+    /**
+     * @param circuitBreakerPolicy When requests stop being sent to Postmark; null, the default, disables the circuit breaker
+     */
+    public void setCircuitBreakerPolicy(CircuitBreakerPolicy circuitBreakerPolicy) {
+        this.circuitBreakerPolicy = circuitBreakerPolicy;
+    }
+
+    /**
+     * @return how long single sends wait to be grouped into a batch, or 0 if they are sent at once
+     */
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    /**
+     * Groups single sends into batch requests. A message passed to
+     * {@code sendMessage} or {@code sendMessageAsync} waits up to this long
+     * for others to join it, then they all go out in one request to the
+     * batch endpoint and each caller gets its own response. A few
+     * milliseconds are usually enough when many threads send at once.
+     *
+     * @param lingerMillis How long single sends wait to be grouped; 0, the default, sends them at once
+     */
+    public void setLingerMillis(long lingerMillis) {
+        if (lingerMillis < 0) {
+            throw new IllegalArgumentException("lingerMillis must not be negative");
+        }
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * @return the number of waiting single sends that are sent as a batch straight away
+     */
+    public int getMaxLingerMessages() {
+        return maxLingerMessages;
+    }
+
+    /**
+     * @param maxLingerMessages The number of waiting single sends that are sent as a batch straight away,
+     *                          at most {@link PostmarkClient#MAX_BATCH_SIZE}
+     */
+    public void setMaxLingerMessages(int maxLingerMessages) {
+        if (maxLingerMessages < 1 || maxLingerMessages > PostmarkClient.MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("maxLingerMessages must be between 1 and " + PostmarkClient.MAX_BATCH_SIZE);
+        }
+        this.maxLingerMessages = maxLingerMessages;
+    }
+
+    /**
+     * @return where timings and outcomes of sends are reported
+     */
+    public PostmarkMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Reports the time spent validating, serializing, waiting for a pooled
+     * connection, on the wire and parsing responses, and the outcome of every
+     * message. {@link DefaultPostmarkMetrics} keeps these in memory and
+     * publishes them over JMX.
+     *
+     * @param metrics Where timings and outcomes of sends are reported; the default discards them
+     */
+    public void setMetrics(PostmarkMetrics metrics) {
+        if (metrics == null) {
+            throw new IllegalArgumentException("metrics must not be null");
+        }
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return whether message and response payloads are logged
+     */
+    public boolean isLogPayloads() {
+        return logPayloads;
+    }
+
+    /**
+     * @param logPayloads Whether message and response payloads are logged at
+     *                    {@link java.util.logging.Level#FINE}. Attachment content is never logged.
+     */
+    public void setLogPayloads(boolean logPayloads) {
+        this.logPayloads = logPayloads;
+    }
+
+    /**
+     * @return the number of characters of a payload that are logged
+     */
+    public int getMaxLoggedPayloadLength() {
+        return maxLoggedPayloadLength;
+    }
+
+    /**
+     * @param maxLoggedPayloadLength The number of characters of a payload that are logged;
+     *                               longer payloads are truncated
+     */
+    public void setMaxLoggedPayloadLength(int maxLoggedPayloadLength) {
+        if (maxLoggedPayloadLength < 0) {
+            throw new IllegalArgumentException("maxLoggedPayloadLength must not be negative");
+        }
+        this.maxLoggedPayloadLength = maxLoggedPayloadLength;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("PostmarkClientConfig");
+        sb.append("{ maxTotalConnections=").append(maxTotalConnections);
+        sb.append(", maxConnectionsPerRoute=").append(maxConnectionsPerRoute);
+        sb.append(", idleConnectionTimeoutMillis=").append(idleConnectionTimeoutMillis);
+        sb.append(", connectTimeoutMillis=").append(connectTimeoutMillis);
+        sb.append(", readTimeoutMillis=").append(readTimeoutMillis);
+        sb.append(", connectionRequestTimeoutMillis=").append(connectionRequestTimeoutMillis);
+        sb.append(", sendTimeoutMillis=").append(sendTimeoutMillis);
+        sb.append(", retryPolicy=").append(retryPolicy);
+        sb.append(", rateLimitPerSecond=").append(rateLimitPerSecond);
+        sb.append(", rateLimitBurst=").append(rateLimitBurst);
+        sb.append(", rateLimitMaxWaitMillis=").append(rateLimitMaxWaitMillis);
+        sb.append(", circuitBreakerPolicy=").append(circuitBreakerPolicy);
+        sb.append(", lingerMillis=").append(lingerMillis);
+        sb.append(", maxLingerMessages=").append(maxLingerMessages);
+        sb.append(", metrics=").append(metrics);
+        sb.append(", logPayloads=").append(logPayloads);
+        sb.append(", maxLoggedPayloadLength=").append(maxLoggedPayloadLength);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,137 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.Closeable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs blocking sends of a {@link PostmarkClient} on an executor and hands
+ * back a future for each of them.
+ * <p/>
+ * At most {@code maxConcurrency} sends talk to Postmark at the same time;
+ * further sends wait on their executor thread until a slot frees up, so the
+ * caller is never blocked. This is intended for executors that create a cheap
+ * thread per task, such as the virtual-thread executor of Java 21 (see
+ * {@code VirtualThreadDispatcher}, built with the {@code virtual-threads}
+ * profile), but works with any executor.
+ */
+public class PostmarkDispatcher implements Closeable {
+
+    private final PostmarkClient client;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+
+    /**
+     * @param client         the client used to send messages
+     * @param executor       the executor sends run on; it is owned by the dispatcher
+     *                       and shut down by {@link #close()}
+     * @param maxConcurrency the maximum number of sends in progress at once,
+     *                       zero or less for no limit
+     */
+    public PostmarkDispatcher(PostmarkClient client, ExecutorService executor, int maxConcurrency) {
+        this.client = client;
+        this.executor = executor;
+        this.permits = (maxConcurrency > 0) ? new Semaphore(maxConcurrency) : null;
+    }
+
+    /**
+     * Sends a message on the dispatcher's executor.
+     *
+     * @param message A prepared message instance.
+     * @return a future that completes with the response, or exceptionally
+     * with a {@link PostmarkException}
+     */
+    public CompletableFuture<PostmarkResponse> dispatch(final PostmarkMessage message) {
+        return dispatch(new Callable<PostmarkResponse>() {
+            @Override
+            public PostmarkResponse call() throws PostmarkException {
+                return client.sendMessage(message);
+            }
+        });
+    }
+
+    /**
+     * Sends a template message on the dispatcher's executor.
+     *
+     * @param templateMessage A prepared template message instance.
+     * @return a future that completes with the response, or exceptionally
+     * with a {@link PostmarkException}
+     */
+    public CompletableFuture<PostmarkResponse> dispatch(final PostmarkTemplate templateMessage) {
+        return dispatch(new Callable<PostmarkResponse>() {
+            @Override
+            public PostmarkResponse call() throws PostmarkException {
+                return client.sendMessage(templateMessage);
+            }
+        });
+    }
+
+    private CompletableFuture<PostmarkResponse> dispatch(final Callable<PostmarkResponse> send) {
+
+        final CompletableFuture<PostmarkResponse> future = new CompletableFuture<PostmarkResponse>();
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (permits != null) {
+                            permits.acquire();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        future.completeExceptionally(new PostmarkException(e));
+                        return;
+                    }
+
+                    try {
+                        future.complete(send.call());
+                    } catch (Exception e) {
+                        future.completeExceptionally(e instanceof PostmarkException ? e : new PostmarkException(e));
+                    } finally {
+                        if (permits != null) {
+                            permits.release();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new PostmarkException(e));
+        }
+
+        return future;
+    }
+
+    /**
+     * Stops accepting new sends. Sends already handed to the executor still run.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -46,6 +46,18 @@ public class PostmarkException extends Exception {
         this.response = response;
     }
 
+    /**
+     * Creates an exception for a failure that Postmark or the client's own
+     * limits report, such as a rejected message or an open circuit breaker.
+     * These can arrive by the thousand, so they skip the stack trace, which
+     * is most of the cost of an exception and says nothing about the cause.
+     */
+    protected PostmarkException(String message, PostmarkResponse response, boolean writableStackTrace) {
+        super(message, null, false, writableStackTrace);
+
+        this.response = response;
+    }
+
     public PostmarkResponse getResponse()
     {
         return response;
@@ -89,6 +89,28 @@ public class PostmarkMessage extends PostmarkMessageBase {
         this.subject = (this.subject == null) ? "" : this.subject.trim();
     }
 
+    @Override
+    protected long contentLength() {
+        return length(subject) + length(htmlBody) + length(textBody);
+    }
+
+    @Override
+    long contentJsonLength() {
+        return JsonEntity.jsonLength(subject) + JsonEntity.jsonLength(htmlBody) + JsonEntity.jsonLength(textBody);
+    }
+
+    // The size of a string in UTF-8, the unit of the message size limit
+    private static long length(String s) {
+        if (s == null) {
+            return 0;
+        }
+        long length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            length += JsonEntity.utf8Length(s.charAt(i));
+        }
+        return length;
+    }
+
     /**
      * @return the email subject
      */
@@ -67,6 +67,10 @@ public class PostmarkMessageBase {
     @SerializedName("Attachments")
     protected List<Attachment> attachments;
 
+    // Bytes of field names and punctuation in the JSON of a message, and of a header or attachment
+    private static final int MESSAGE_OVERHEAD = 160;
+    private static final int ENTRY_OVERHEAD = 48;
+
 
     protected PostmarkMessageBase(String fromAddress, String toAddress, String replyToAddress, String ccAddress, String bccAddress, String tag, List<NameValuePair> headers) {
 
@@ -107,16 +111,56 @@ public class PostmarkMessageBase {
         this.toAddress = this.toAddress.trim();
     }
 
+    /**
+     * Checks the addresses, headers, attachments and size of the message
+     * against the limits of the Postmark API, so that a message Postmark
+     * would reject fails without being sent.
+     *
+     * @throws PostmarkException with a {@link PostmarkStatus#USERERROR} response
+     *                           if the message is not valid
+     */
     public void validate() throws PostmarkException {
+        MessageValidator.validate(this, contentLength());
+    }
+
+    /**
+     * @return the size in UTF-8 bytes of the subject and bodies, counted
+     * towards the size limit of a message
+     */
+    protected long contentLength() {
+        return 0;
+    }
 
-        if ((this.fromAddress == null) || (this.fromAddress.equals(""))) {
-            throw new PostmarkException("You must specify a valid 'From' email address.");
+    /**
+     * @return the size of the message as JSON in bytes, used to keep batch
+     * requests under {@link PostmarkClient#MAX_BATCH_BYTES}
+     */
+    long jsonLength() {
+        long length = MESSAGE_OVERHEAD + contentJsonLength()
+                + JsonEntity.jsonLength(fromAddress) + JsonEntity.jsonLength(toAddress)
+                + JsonEntity.jsonLength(replyToAddress) + JsonEntity.jsonLength(ccAddress)
+                + JsonEntity.jsonLength(bccAddress) + JsonEntity.jsonLength(tag);
+        if (headers != null) {
+            for (NameValuePair header : headers) {
+                length += ENTRY_OVERHEAD + JsonEntity.jsonLength(header.getName()) + JsonEntity.jsonLength(header.getValue());
+            }
         }
-        if ((this.toAddress == null) || (this.toAddress.equals(""))) {
-            throw new PostmarkException("You must specify a valid 'To' email address.");
+        if (attachments != null) {
+            for (Attachment attachment : attachments) {
+                // Content read from a stream of unknown length counts as the
+                // largest a message may be
+                long content = attachment.getEncodedLength();
+                length += ENTRY_OVERHEAD + JsonEntity.jsonLength(attachment.getName())
+                        + JsonEntity.jsonLength(attachment.getContentType())
+                        + ((content >= 0) ? content : MessageValidator.MAX_MESSAGE_SIZE);
+            }
         }
+        return length;
+    }
 
-        // TODO: add more validation using regex
+    // The size as JSON of the fields a subclass adds
+    long contentJsonLength() {
+        return 0;
     }
 
 
@@ -0,0 +1,89 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Receives timings and outcomes from the send path of a
+ * {@link PostmarkClient}, for export to a monitoring system.
+ * <p/>
+ * Implementations are called on the sending threads, often for every
+ * message, so they must be thread-safe and cheap. {@link DefaultPostmarkMetrics}
+ * keeps counters and latency histograms in memory and can publish them over
+ * JMX; an adapter for Micrometer is available as a separate module.
+ */
+public interface PostmarkMetrics {
+
+    /**
+     * Metrics that discard everything, used when none are configured.
+     */
+    PostmarkMetrics NOOP = new PostmarkMetrics() {
+        @Override
+        public void recordPhase(Phase phase, String endpoint, long durationNanos) {
+        }
+
+        @Override
+        public void recordSend(String endpoint, PostmarkStatus status, int errorCode, long durationNanos) {
+        }
+    };
+
+    /**
+     * The stages of sending a message.
+     */
+    enum Phase {
+
+        // Checking and cleaning a message before it is sent
+        VALIDATION,
+
+        // Writing the JSON request body, including writing it to the connection
+        SERIALIZATION,
+
+        // Waiting for a connection from the pool
+        POOL_LEASE,
+
+        // One HTTP request to Postmark, from leasing a connection to reading the response
+        ROUND_TRIP,
+
+        // Turning the response body into PostmarkResponse objects
+        PARSING
+    }
+
+    /**
+     * Records how long one stage of a send took.
+     *
+     * @param phase         the stage
+     * @param endpoint      the API endpoint, such as {@code /email}
+     * @param durationNanos how long it took
+     */
+    void recordPhase(Phase phase, String endpoint, long durationNanos);
+
+    /**
+     * Records the outcome of a message, once per message. Messages sent in a
+     * batch are each recorded with the duration of the whole batch request.
+     *
+     * @param endpoint      the API endpoint, such as {@code /email}
+     * @param status        the status of the response
+     * @param errorCode     the Postmark error code of the response, 0 on success
+     * @param durationNanos how long the send took, including retries
+     */
+    void recordSend(String endpoint, PostmarkStatus status, int errorCode, long durationNanos);
+}
@@ -0,0 +1,63 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link DefaultPostmarkMetrics}, registered with
+ * {@link DefaultPostmarkMetrics#registerMBean(String)}.
+ * <p/>
+ * Latencies are in milliseconds and cover every send since the metrics were
+ * created.
+ */
+public interface PostmarkMetricsMXBean {
+
+    /**
+     * @return the number of messages sent, successfully or not
+     */
+    long getSendCount();
+
+    /**
+     * @return the number of messages that did not succeed
+     */
+    long getFailedSendCount();
+
+    double getSendLatencyP50Millis();
+
+    double getSendLatencyP99Millis();
+
+    double getSendLatencyMaxMillis();
+
+    /**
+     * @return message counts keyed by endpoint, status and error code, such
+     * as {@code "/email SUCCESS 0"}
+     */
+    Map<String, Long> getOutcomeCounts();
+
+    /**
+     * @return the 99th percentile of each phase in milliseconds, keyed by
+     * phase and endpoint, such as {@code "ROUND_TRIP /email"}
+     */
+    Map<String, Double> getPhaseLatencyP99Millis();
+}
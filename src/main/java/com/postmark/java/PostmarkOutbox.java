@@ -0,0 +1,619 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.google.gson.Gson;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * A durable queue of outgoing messages, sent in the background through a
+ * {@link PostmarkClient}.
+ * <p/>
+ * Enqueued messages are validated, serialized and appended to a write-ahead
+ * log of segment files in a directory, so that sending survives restarts of
+ * the process and outages of the Postmark API without blocking the caller.
+ * Appends are forced to disk in groups, see
+ * {@link PostmarkOutboxConfig#setSyncIntervalMillis(long)}.
+ * <p/>
+ * A background thread reads the log in order and sends the messages through
+ * the batch endpoints. After every batch it records how far the log has been
+ * sent in a checkpoint file, and deletes segments that have been sent in
+ * full. When a whole request fails, for example because the API is down or
+ * the server token is refused, the outbox pauses and sends the same batch
+ * again. Only messages Postmark rejects one by one, with their own error
+ * code, are dropped; other messages missing from a response are appended
+ * to the log again and retried. Delivery is
+ * at-least-once: a message sent just before a crash is sent again when the
+ * outbox is reopened on the same directory.
+ * <p/>
+ * Only one outbox may use a directory at a time.
+ */
+public class PostmarkOutbox implements Closeable {
+
+    private static Logger logger = Logger.getLogger("com.postmark.java");
+
+    private static final Gson gson = PostmarkGson.INSTANCE;
+
+    // Record types
+    private static final byte MESSAGE = 1;
+    private static final byte TEMPLATE = 2;
+
+    // A record is its payload length, a CRC32 of its type and payload, its type and its payload
+    private static final int HEADER_SIZE = 9;
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final String LOCK = "lock";
+
+    private final PostmarkClient client;
+    private final Path directory;
+    private final long segmentSizeBytes;
+    private final long syncIntervalMillis;
+    private final int drainBatchSize;
+    private final long retryDelayMillis;
+
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    // The segment being appended to, guarded by writeLock
+    private final Object writeLock = new Object();
+    private FileChannel writeChannel;
+    private long writeSegment;
+    private long writePosition;
+    private boolean unsynced;
+    private boolean closed;
+
+    // The next record to send, only used by the drain thread
+    private FileChannel readChannel;
+    private long readSegment;
+    private long readPosition;
+
+    private final Thread drainThread;
+    private final Thread syncThread;
+    private volatile boolean running = true;
+
+    // Set while the drain thread waits for new records, so that appends
+    // only wake it when it has nothing to send
+    private volatile boolean idle;
+
+    private volatile PostmarkOutboxListener listener;
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * Opens an outbox with the default settings.
+     *
+     * @param client    The client used to send the messages
+     * @param directory The directory holding the log, created if needed
+     * @throws IOException if the log cannot be opened, or another outbox uses the directory
+     */
+    public PostmarkOutbox(PostmarkClient client, Path directory) throws IOException {
+        this(client, directory, new PostmarkOutboxConfig());
+    }
+
+    /**
+     * Opens an outbox, and starts sending messages left in the directory by
+     * an earlier outbox.
+     *
+     * @param client    The client used to send the messages
+     * @param directory The directory holding the log, created if needed
+     * @param config    The outbox settings
+     * @throws IOException if the log cannot be opened, or another outbox uses the directory
+     */
+    public PostmarkOutbox(PostmarkClient client, Path directory, PostmarkOutboxConfig config) throws IOException {
+        this.client = client;
+        this.directory = directory;
+        this.segmentSizeBytes = config.getSegmentSizeBytes();
+        this.syncIntervalMillis = config.getSyncIntervalMillis();
+        this.drainBatchSize = config.getDrainBatchSize();
+        this.retryDelayMillis = config.getRetryDelayMillis();
+
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve(LOCK), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lock = lockChannel.tryLock();
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Outbox directory " + directory + " is used by another outbox");
+        }
+
+        try {
+            recover();
+        } catch (IOException e) {
+            lock.release();
+            lockChannel.close();
+            throw e;
+        }
+
+        drainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "postmark-outbox-drain");
+        drainThread.setDaemon(true);
+        drainThread.start();
+
+        if (syncIntervalMillis > 0) {
+            syncThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    syncPeriodically();
+                }
+            }, "postmark-outbox-sync");
+            syncThread.setDaemon(true);
+            syncThread.start();
+        } else {
+            syncThread = null;
+        }
+    }
+
+    // Picks up where the last outbox on the directory stopped: sending resumes
+    // at the checkpoint, and appending starts on a fresh segment so that a
+    // torn record at the end of the last one is never written after
+    private void recover() throws IOException {
+        TreeSet<Long> segments = segments();
+
+        readSegment = 0;
+        readPosition = 0;
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(checkpoint));
+            if (buffer.remaining() == 16) {
+                readSegment = buffer.getLong();
+                readPosition = buffer.getLong();
+            } else {
+                logger.warning("Ignoring damaged outbox checkpoint in " + directory);
+            }
+        }
+
+        // Segments before the checkpoint have been sent in full
+        for (Long segment : segments.headSet(readSegment)) {
+            Files.deleteIfExists(segmentPath(segment));
+        }
+        if (!segments.contains(readSegment)) {
+            Long next = segments.ceiling(readSegment);
+            readSegment = (next != null) ? next : readSegment;
+            readPosition = 0;
+        }
+
+        writeSegment = segments.isEmpty() ? readSegment : Math.max(readSegment, segments.last()) + 1;
+        writePosition = 0;
+        writeChannel = FileChannel.open(segmentPath(writeSegment), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+        if (!segments.isEmpty()) {
+            logger.info("Resuming outbox in " + directory + " at segment " + readSegment + ", position " + readPosition);
+        }
+    }
+
+    /**
+     * Validates a message and appends it to the outbox.
+     *
+     * @param message A prepared message instance
+     * @throws PostmarkException if the message is invalid or cannot be written
+     */
+    public void enqueue(PostmarkMessage message) throws PostmarkException {
+        append(MESSAGE, serialize(message));
+    }
+
+    /**
+     * Validates a template message and appends it to the outbox.
+     *
+     * @param templateMessage A prepared template message instance
+     * @throws PostmarkException if the message is invalid or cannot be written
+     */
+    public void enqueue(PostmarkTemplate templateMessage) throws PostmarkException {
+        append(TEMPLATE, serialize(templateMessage));
+    }
+
+    private static byte[] serialize(PostmarkMessageBase message) throws PostmarkException {
+        try {
+            message.validate();
+            message.clean();
+            return gson.toJson(message).getBytes(StandardCharsets.UTF_8);
+        } catch (RuntimeException e) {
+            throw new PostmarkException(e);
+        }
+    }
+
+    private void append(byte type, byte[] payload) throws PostmarkException {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload, 0, payload.length);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(type).put(payload);
+        record.flip();
+
+        synchronized (writeLock) {
+            if (closed) {
+                throw new PostmarkException("The outbox is closed");
+            }
+            try {
+                if (writePosition > 0 && writePosition + record.remaining() > segmentSizeBytes) {
+                    roll();
+                }
+                long position = writePosition;
+                while (record.hasRemaining()) {
+                    position += writeChannel.write(record, position);
+                }
+                if (syncIntervalMillis == 0) {
+                    writeChannel.force(false);
+                } else {
+                    unsynced = true;
+                }
+                writePosition = position;
+            } catch (IOException e) {
+                throw new PostmarkException(e);
+            }
+        }
+
+        if (idle && Thread.currentThread() != drainThread) {
+            LockSupport.unpark(drainThread);
+        }
+    }
+
+    // Seals the current segment and starts the next one; called with writeLock held
+    private void roll() throws IOException {
+        writeChannel.force(false);
+        writeChannel.close();
+        writeSegment++;
+        writePosition = 0;
+        unsynced = false;
+        writeChannel = FileChannel.open(segmentPath(writeSegment), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Forces every message enqueued so far to disk.
+     *
+     * @throws IOException if the log cannot be written
+     */
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            if (!closed) {
+                writeChannel.force(false);
+                unsynced = false;
+            }
+        }
+    }
+
+    private void syncPeriodically() {
+        while (running) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis));
+            FileChannel channel = null;
+            synchronized (writeLock) {
+                if (unsynced && !closed) {
+                    channel = writeChannel;
+                    unsynced = false;
+                }
+            }
+            if (channel != null) {
+                try {
+                    // Forcing outside the lock lets appends carry on meanwhile
+                    channel.force(false);
+                } catch (IOException e) {
+                    // A segment rolled over meanwhile has been forced already
+                    if (channel.isOpen()) {
+                        logger.log(Level.SEVERE, "Could not force the outbox to disk: " + e.getMessage());
+                    }
+                }
+            }
+        }
+    }
+
+    private void drain() {
+        while (running) {
+            try {
+                if (!drainBatch()) {
+                    // Checked again after going idle, so an append made
+                    // in between is not left waiting
+                    idle = true;
+                    if (!hasUnsent()) {
+                        LockSupport.parkNanos(TimeUnit.SECONDS.toNanos(1));
+                    }
+                    idle = false;
+                }
+            } catch (Exception e) {
+                logger.log(Level.SEVERE, "Could not send from the outbox: " + e.getMessage(), e);
+                pause();
+            }
+        }
+    }
+
+    // Whether records have been appended past the next one to send
+    private boolean hasUnsent() {
+        synchronized (writeLock) {
+            return readSegment < writeSegment || readPosition < writePosition;
+        }
+    }
+
+    // Sends the next batch of records of the same type; returns false if
+    // there was nothing to send
+    private boolean drainBatch() throws IOException, PostmarkException {
+        long activeSegment;
+        long activePosition;
+        synchronized (writeLock) {
+            activeSegment = writeSegment;
+            activePosition = writePosition;
+        }
+
+        if (readChannel == null) {
+            readChannel = FileChannel.open(segmentPath(readSegment), StandardOpenOption.READ);
+        }
+        boolean sealed = readSegment < activeSegment;
+        long limit = sealed ? readChannel.size() : activePosition;
+
+        List<byte[]> batch = new ArrayList<byte[]>(drainBatchSize);
+        byte type = 0;
+        long position = readPosition;
+        // The request body is the records, commas between them and the
+        // brackets of the template wrapper
+        long bytes = "{\"Messages\":[]}".length();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+
+        while (batch.size() < drainBatchSize && position + HEADER_SIZE <= limit) {
+            header.clear();
+            readFully(header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            byte recordType = header.get();
+
+            byte[] payload = null;
+            if (length >= 0 && length <= limit - position - HEADER_SIZE) {
+                payload = new byte[length];
+                readFully(ByteBuffer.wrap(payload), position + HEADER_SIZE);
+                CRC32 crc = new CRC32();
+                crc.update(recordType);
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    payload = null;
+                }
+            }
+            if (payload == null) {
+                // Only the end of a segment written before a crash can be torn
+                logger.warning("Skipping damaged outbox record in segment " + readSegment + " at position " + position);
+                position = limit;
+                break;
+            }
+
+            if (!batch.isEmpty() && (recordType != type || bytes + length + 1 > PostmarkClient.MAX_BATCH_BYTES)) {
+                break;
+            }
+            type = recordType;
+            bytes += length + 1;
+            batch.add(payload);
+            position += HEADER_SIZE + length;
+        }
+
+        if (batch.isEmpty()) {
+            if (sealed && position + HEADER_SIZE > limit) {
+                nextSegment();
+                return true;
+            }
+            if (position != readPosition) {
+                readPosition = position;
+                checkpoint();
+            }
+            return false;
+        }
+
+        boolean requeued = send(type, batch);
+
+        // Messages appended again must be on disk before the checkpoint
+        // moves past the originals, or a crash in between loses them
+        if (requeued) {
+            flush();
+        }
+        readPosition = position;
+        checkpoint();
+
+        if (requeued) {
+            pause();
+        }
+        return true;
+    }
+
+    // Sends a batch; returns true if some messages were appended again to be retried
+    private boolean send(byte type, List<byte[]> batch) throws PostmarkException {
+        List<PostmarkResponse> responses = client.sendSerializedBatch(type == TEMPLATE, batch);
+
+        boolean requeued = false;
+        PostmarkOutboxListener listener = this.listener;
+        for (int i = 0; i < batch.size(); i++) {
+            PostmarkResponse response = responses.get(i);
+            if (response.getStatus() == PostmarkStatus.SUCCESS) {
+                deliveredCount.incrementAndGet();
+                if (listener != null) {
+                    listener.onDelivered(response);
+                }
+            } else if (response.getStatus() == PostmarkStatus.USERERROR && response.getErrorCode() != 0) {
+                rejectedCount.incrementAndGet();
+                String message = new String(batch.get(i), StandardCharsets.UTF_8);
+                logger.severe("Postmark rejected a message from the outbox: " + response.getMessage());
+                if (listener != null) {
+                    listener.onRejected(message, response);
+                }
+            } else {
+                // Send it again later, from the end of the log
+                append(type, batch.get(i));
+                requeued = true;
+            }
+        }
+        return requeued;
+    }
+
+    // Waits out the retry delay. Parking can return early, so it parks
+    // again for whatever is left until the delay is over or the outbox closes
+    private void pause() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryDelayMillis);
+        long remaining;
+        while (running && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    // Moves past a segment that has been sent in full and deletes it
+    private void nextSegment() throws IOException {
+        readChannel.close();
+        readChannel = null;
+        long finished = readSegment;
+        Long next = segments().higher(finished);
+        readSegment = (next != null) ? next : finished + 1;
+        readPosition = 0;
+        checkpoint();
+        Files.deleteIfExists(segmentPath(finished));
+    }
+
+    // Records how far the log has been sent, replacing the old checkpoint atomically
+    private void checkpoint() throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putLong(readSegment).putLong(readPosition).flip();
+
+        Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+        FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+        Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = readChannel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of outbox segment " + readSegment);
+            }
+            position += read;
+        }
+    }
+
+    private TreeSet<Long> segments() throws IOException {
+        TreeSet<Long> segments = new TreeSet<Long>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX);
+        try {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    segments.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        return segments;
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%020d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * @param listener Told about every message that has been sent or rejected
+     */
+    public void setListener(PostmarkOutboxListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of messages Postmark accepted since the outbox was opened
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * @return the number of messages Postmark rejected since the outbox was opened
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Stops sending and closes the log. Messages that have not been sent yet
+     * stay in the directory and are sent by the next outbox opened on it.
+     * A batch being sent is allowed to finish.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(drainThread);
+        if (syncThread != null) {
+            LockSupport.unpark(syncThread);
+        }
+        try {
+            drainThread.join();
+            if (syncThread != null) {
+                syncThread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            synchronized (writeLock) {
+                closed = true;
+                try {
+                    writeChannel.force(false);
+                } finally {
+                    writeChannel.close();
+                }
+            }
+            if (readChannel != null) {
+                readChannel.close();
+            }
+        } finally {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+}
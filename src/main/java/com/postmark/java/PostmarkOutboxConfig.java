@@ -0,0 +1,131 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Tuning options for a {@link PostmarkOutbox}.
+ */
+public class PostmarkOutboxConfig {
+
+    public static final long DEFAULT_SEGMENT_SIZE_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 10L;
+    public static final int DEFAULT_DRAIN_BATCH_SIZE = PostmarkClient.MAX_BATCH_SIZE;
+    public static final long DEFAULT_RETRY_DELAY_MILLIS = 1000L;
+
+    // The size at which the log moves on to a new segment file.
+    private long segmentSizeBytes = DEFAULT_SEGMENT_SIZE_BYTES;
+
+    // How often appended messages are forced to disk, 0 for on every enqueue.
+    private long syncIntervalMillis = DEFAULT_SYNC_INTERVAL_MILLIS;
+
+    // The most messages sent in one batch request.
+    private int drainBatchSize = DEFAULT_DRAIN_BATCH_SIZE;
+
+    // How long to pause sending after a batch had failures.
+    private long retryDelayMillis = DEFAULT_RETRY_DELAY_MILLIS;
+
+    /**
+     * @return the size at which the log moves on to a new segment file
+     */
+    public long getSegmentSizeBytes() {
+        return segmentSizeBytes;
+    }
+
+    /**
+     * @param segmentSizeBytes The size at which the log moves on to a new segment file.
+     *                         Segments are deleted once all their messages are sent.
+     */
+    public void setSegmentSizeBytes(long segmentSizeBytes) {
+        if (segmentSizeBytes < 1) {
+            throw new IllegalArgumentException("segmentSizeBytes must be at least 1");
+        }
+        this.segmentSizeBytes = segmentSizeBytes;
+    }
+
+    /**
+     * @return how often appended messages are forced to disk, or 0 for on every enqueue
+     */
+    public long getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    /**
+     * Appended messages survive a crash of the process straight away, but
+     * only survive a crash of the machine once they are forced to disk.
+     * Forcing many appends at once keeps enqueueing cheap.
+     *
+     * @param syncIntervalMillis How often appended messages are forced to disk; 0 forces on every enqueue
+     */
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        if (syncIntervalMillis < 0) {
+            throw new IllegalArgumentException("syncIntervalMillis must not be negative");
+        }
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    /**
+     * @return the most messages sent in one batch request
+     */
+    public int getDrainBatchSize() {
+        return drainBatchSize;
+    }
+
+    /**
+     * @param drainBatchSize The most messages sent in one batch request, at most {@link PostmarkClient#MAX_BATCH_SIZE}
+     */
+    public void setDrainBatchSize(int drainBatchSize) {
+        if (drainBatchSize < 1 || drainBatchSize > PostmarkClient.MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("drainBatchSize must be between 1 and " + PostmarkClient.MAX_BATCH_SIZE);
+        }
+        this.drainBatchSize = drainBatchSize;
+    }
+
+    /**
+     * @return how long to pause sending after a batch had failures
+     */
+    public long getRetryDelayMillis() {
+        return retryDelayMillis;
+    }
+
+    /**
+     * @param retryDelayMillis How long to pause sending after a batch had failures
+     */
+    public void setRetryDelayMillis(long retryDelayMillis) {
+        if (retryDelayMillis < 0) {
+            throw new IllegalArgumentException("retryDelayMillis must not be negative");
+        }
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("PostmarkOutboxConfig");
+        sb.append("{ segmentSizeBytes=").append(segmentSizeBytes);
+        sb.append(", syncIntervalMillis=").append(syncIntervalMillis);
+        sb.append(", drainBatchSize=").append(drainBatchSize);
+        sb.append(", retryDelayMillis=").append(retryDelayMillis);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -25,12 +25,16 @@ package com.postmark.java;
 import com.google.gson.annotations.SerializedName;
 import org.joda.time.DateTime;
 
+import java.time.Instant;
+
 /**
  * Class that wraps the Postmark response
  */
 
 public class PostmarkResponse {
 
+    private static final long NO_TIME = Long.MIN_VALUE;
+
     /**
      * The status outcome of the response.
      */
@@ -53,10 +57,14 @@ public class PostmarkResponse {
     public String messageId;
 
     /**
-     * The time the request was received by Postmark.
+     * The time the request was received by Postmark, in milliseconds since
+     * the epoch, or {@link Long#MIN_VALUE} if it is not known.
      */
     @SerializedName("SubmittedAt")
-    public DateTime submittedAt;
+    long submittedAtMillis = NO_TIME;
+
+    // Converted from submittedAtMillis when first asked for
+    private transient DateTime submittedAt;
 
     /**
      * The recipient of the submitted request.
@@ -87,12 +95,38 @@ public class PostmarkResponse {
         this.message = message;
     }
 
+    /**
+     * @return the time the request was received by Postmark, in the default
+     * time zone, or null if it is not known
+     */
     public DateTime getSubmittedAt() {
-        return submittedAt;
+        DateTime dateTime = submittedAt;
+        if (dateTime == null && submittedAtMillis != NO_TIME) {
+            // DateTime is immutable, so a racing conversion is harmless
+            dateTime = new DateTime(submittedAtMillis);
+            submittedAt = dateTime;
+        }
+        return dateTime;
     }
 
     public void setSubmittedAt(DateTime submittedAt) {
         this.submittedAt = submittedAt;
+        this.submittedAtMillis = (submittedAt != null) ? submittedAt.getMillis() : NO_TIME;
+    }
+
+    /**
+     * @return the time the request was received by Postmark, or null if it is not known
+     */
+    public Instant getSubmittedAtInstant() {
+        return (submittedAtMillis != NO_TIME) ? Instant.ofEpochMilli(submittedAtMillis) : null;
+    }
+
+    /**
+     * @return the time the request was received by Postmark in milliseconds
+     * since the epoch, or {@link Long#MIN_VALUE} if it is not known
+     */
+    public long getSubmittedAtMillis() {
+        return submittedAtMillis;
     }
 
     public String getTo() {
@@ -117,7 +151,7 @@ public class PostmarkResponse {
         sb.append("PostmarkResponse");
         sb.append("{ status=").append(status);
         sb.append(", to='").append(to).append('\'');
-        sb.append(", submittedAt='").append(submittedAt).append('\'');
+        sb.append(", submittedAt='").append(getSubmittedAt()).append('\'');
         sb.append(", messageId='").append(messageId).append('\'');
         sb.append(", errorCode=").append(errorCode);
         sb.append(", message='").append(message).append('\'');
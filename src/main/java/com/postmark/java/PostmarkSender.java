@@ -0,0 +1,350 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Queues messages in memory and sends them from a pool of worker threads,
+ * so that throughput to Postmark is shaped in one place instead of by every
+ * caller doing its own blocking send.
+ * <p/>
+ * Each worker owns a bounded lock-free ring buffer that submitting threads
+ * add to. A worker takes everything waiting in its buffer at once and, when
+ * at least {@code minBatchSize} messages of a kind are waiting, sends them
+ * through the batch endpoint in a single request; otherwise it sends them
+ * one by one. When every buffer is full, the
+ * {@link BackpressurePolicy} decides what happens to a new message.
+ */
+public class PostmarkSender implements Closeable {
+
+    private static Logger logger = Logger.getLogger("com.postmark.java");
+
+    // How long an idle worker sleeps before looking at its buffer again
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // How long a blocked submitter waits before trying the buffers again
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    // How long closing waits for a worker to send what is queued
+    private static final long CLOSE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final PostmarkClient client;
+    private final int maxBatchSize;
+    private final int minBatchSize;
+    private final BackpressurePolicy backpressurePolicy;
+    private final Worker[] workers;
+
+    private volatile boolean closed;
+
+    /**
+     * Starts a sender with the default settings.
+     *
+     * @param client the client used to send messages; it is not closed by the sender
+     */
+    public PostmarkSender(PostmarkClient client) {
+        this(client, new PostmarkSenderConfig());
+    }
+
+    /**
+     * Starts a sender and its worker threads.
+     *
+     * @param client the client used to send messages; it is not closed by the sender
+     * @param config the sender settings
+     */
+    public PostmarkSender(PostmarkClient client, PostmarkSenderConfig config) {
+        this.client = client;
+        this.maxBatchSize = config.getMaxBatchSize();
+        this.minBatchSize = config.getMinBatchSize();
+        this.backpressurePolicy = config.getBackpressurePolicy();
+
+        int capacity = (config.getQueueCapacity() + config.getWorkerThreads() - 1) / config.getWorkerThreads();
+        workers = new Worker[config.getWorkerThreads()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(capacity);
+            workers[i].thread.setName("postmark-sender-" + i);
+            workers[i].thread.start();
+        }
+    }
+
+    /**
+     * Queues a message for sending.
+     *
+     * @param message A prepared message instance.
+     * @return a future that completes with the response, or exceptionally
+     * with a {@link PostmarkException}
+     */
+    public CompletableFuture<PostmarkResponse> submit(PostmarkMessage message) {
+        return submit(new Submission(message));
+    }
+
+    /**
+     * Queues a template message for sending.
+     *
+     * @param templateMessage A prepared template message instance.
+     * @return a future that completes with the response, or exceptionally
+     * with a {@link PostmarkException}
+     */
+    public CompletableFuture<PostmarkResponse> submit(PostmarkTemplate templateMessage) {
+        return submit(new Submission(templateMessage));
+    }
+
+    private CompletableFuture<PostmarkResponse> submit(Submission submission) {
+        while (true) {
+            if (closed) {
+                submission.future.completeExceptionally(closedException());
+                return submission.future;
+            }
+
+            // Start at a random worker so submitters spread over the buffers
+            int start = ThreadLocalRandom.current().nextInt(workers.length);
+            for (int i = 0; i < workers.length; i++) {
+                Worker worker = workers[(start + i) % workers.length];
+                if (worker.queue.offer(submission)) {
+                    worker.wake();
+                    // The worker may have stopped between the check above
+                    // and the offer, leaving the submission behind
+                    if (closed) {
+                        worker.abandon();
+                    }
+                    return submission.future;
+                }
+            }
+
+            switch (backpressurePolicy) {
+                case DROP:
+                    submission.future.completeExceptionally(queueFull());
+                    return submission.future;
+                case CALLER_RUNS:
+                    send(submission);
+                    return submission.future;
+                default:
+                    LockSupport.parkNanos(FULL_PARK_NANOS);
+                    if (Thread.interrupted()) {
+                        Thread.currentThread().interrupt();
+                        submission.future.completeExceptionally(new PostmarkException(new InterruptedException()));
+                        return submission.future;
+                    }
+            }
+        }
+    }
+
+    private static PostmarkException closedException() {
+        return new PostmarkException("The sender is closed");
+    }
+
+    private static PostmarkException queueFull() {
+        String message = "Send queue is full";
+        PostmarkResponse theResponse = new PostmarkResponse();
+        theResponse.status = PostmarkStatus.THROTTLED;
+        theResponse.setMessage(message);
+        return new PostmarkException(message, theResponse, false);
+    }
+
+    /**
+     * @return the number of messages waiting to be sent
+     */
+    public int getQueuedCount() {
+        int count = 0;
+        for (Worker worker : workers) {
+            count += worker.queue.size();
+        }
+        return count;
+    }
+
+    // Sends the messages a worker took from its buffer
+    private void sendAll(List<Submission> submissions) {
+        List<Submission> messages = new ArrayList<Submission>();
+        List<Submission> templates = new ArrayList<Submission>();
+        for (Submission submission : submissions) {
+            (submission.message instanceof PostmarkTemplate ? templates : messages).add(submission);
+        }
+        sendAll(messages, false);
+        sendAll(templates, true);
+    }
+
+    private void sendAll(List<Submission> submissions, boolean templated) {
+        if (submissions.size() < minBatchSize) {
+            for (Submission submission : submissions) {
+                send(submission);
+            }
+            return;
+        }
+
+        List<PostmarkResponse> responses;
+        try {
+            if (templated) {
+                List<PostmarkTemplate> batch = new ArrayList<PostmarkTemplate>(submissions.size());
+                for (Submission submission : submissions) {
+                    batch.add((PostmarkTemplate) submission.message);
+                }
+                responses = client.sendTemplates(batch);
+            } else {
+                List<PostmarkMessage> batch = new ArrayList<PostmarkMessage>(submissions.size());
+                for (Submission submission : submissions) {
+                    batch.add((PostmarkMessage) submission.message);
+                }
+                responses = client.sendMessages(batch);
+            }
+        } catch (RuntimeException e) {
+            for (Submission submission : submissions) {
+                submission.future.completeExceptionally(new PostmarkException(e));
+            }
+            return;
+        }
+
+        for (int i = 0; i < submissions.size(); i++) {
+            PostmarkResponse response = responses.get(i);
+            if (response.getStatus() == PostmarkStatus.SUCCESS) {
+                submissions.get(i).future.complete(response);
+            } else {
+                submissions.get(i).future.completeExceptionally(new PostmarkException(response.getMessage(), response, false));
+            }
+        }
+    }
+
+    private void send(Submission submission) {
+        try {
+            PostmarkResponse response = (submission.message instanceof PostmarkTemplate)
+                    ? client.sendMessage((PostmarkTemplate) submission.message)
+                    : client.sendMessage((PostmarkMessage) submission.message);
+            submission.future.complete(response);
+        } catch (PostmarkException e) {
+            submission.future.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            submission.future.completeExceptionally(new PostmarkException(e));
+        }
+    }
+
+    /**
+     * Stops accepting messages, sends the messages already queued and waits
+     * up to 30 seconds for each worker to finish. Messages submitted while the sender closes
+     * are either sent or fail as closed. The client is left open.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (Worker worker : workers) {
+            worker.wake();
+        }
+        for (Worker worker : workers) {
+            worker.abandon();
+        }
+    }
+
+    // A message waiting in a buffer, with the future handed to its submitter
+    private static final class Submission {
+
+        final PostmarkMessageBase message;
+        final CompletableFuture<PostmarkResponse> future = new CompletableFuture<PostmarkResponse>();
+
+        Submission(PostmarkMessageBase message) {
+            this.message = message;
+        }
+    }
+
+    private final class Worker implements Runnable {
+
+        final MpscRingBuffer<Submission> queue;
+        final Thread thread;
+
+        // Set while the worker sleeps, so submitters only wake it when needed
+        private volatile boolean parked;
+
+        Worker(int capacity) {
+            this.queue = new MpscRingBuffer<Submission>(capacity);
+            this.thread = new Thread(this);
+            this.thread.setDaemon(true);
+        }
+
+        void wake() {
+            if (parked) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        // Waits for the worker to stop, then fails what submitters racing
+        // with close() added after it last looked at its buffer
+        void abandon() {
+            // A callback resubmitting on the worker itself leaves the message
+            // to the worker, which sends what is queued before it stops
+            if (Thread.currentThread() == thread) {
+                return;
+            }
+            try {
+                thread.join(CLOSE_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (thread.isAlive()) {
+                // Still sending; the worker drains its buffer before it stops
+                logger.warning("Timed out waiting for " + thread.getName() + " to send the queued messages");
+                return;
+            }
+
+            List<Submission> left = new ArrayList<Submission>();
+            // Late submitters and close() may get here together, and the
+            // buffer allows only one consumer at a time
+            synchronized (this) {
+                queue.drain(left, Integer.MAX_VALUE);
+            }
+            for (Submission submission : left) {
+                submission.future.completeExceptionally(closedException());
+            }
+        }
+
+        @Override
+        public void run() {
+            List<Submission> submissions = new ArrayList<Submission>(maxBatchSize);
+            while (true) {
+                submissions.clear();
+                if (queue.drain(submissions, maxBatchSize) > 0) {
+                    try {
+                        sendAll(submissions);
+                    } catch (RuntimeException e) {
+                        logger.log(Level.SEVERE, "There has been an error sending queued email: " + e.getMessage(), e);
+                    }
+                    continue;
+                }
+                if (closed && queue.isEmpty()) {
+                    return;
+                }
+
+                parked = true;
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                parked = false;
+            }
+        }
+    }
+}
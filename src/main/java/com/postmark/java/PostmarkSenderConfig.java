@@ -0,0 +1,148 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+/**
+ * Tuning options for a {@link PostmarkSender}.
+ */
+public class PostmarkSenderConfig {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    public static final int DEFAULT_WORKER_THREADS = 4;
+    public static final int DEFAULT_MAX_BATCH_SIZE = PostmarkClient.MAX_BATCH_SIZE;
+    public static final int DEFAULT_MIN_BATCH_SIZE = 2;
+
+    // The most messages waiting to be sent, across all workers.
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    // The number of threads sending messages.
+    private int workerThreads = DEFAULT_WORKER_THREADS;
+
+    // The most messages a worker sends in one batch request.
+    private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    // The fewest waiting messages a worker sends as a batch rather than one by one.
+    private int minBatchSize = DEFAULT_MIN_BATCH_SIZE;
+
+    // What happens to a message when the queue is full.
+    private BackpressurePolicy backpressurePolicy = BackpressurePolicy.BLOCK;
+
+    /**
+     * @return the most messages waiting to be sent, across all workers
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @param queueCapacity The most messages waiting to be sent, across all workers.
+     *                      Each worker's share is rounded up to a power of two.
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("queueCapacity must be at least 1");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @return the number of threads sending messages
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * @param workerThreads The number of threads sending messages
+     */
+    public void setWorkerThreads(int workerThreads) {
+        if (workerThreads < 1) {
+            throw new IllegalArgumentException("workerThreads must be at least 1");
+        }
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * @return the most messages a worker sends in one batch request
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * @param maxBatchSize The most messages a worker sends in one batch request, at most {@link PostmarkClient#MAX_BATCH_SIZE}
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1 || maxBatchSize > PostmarkClient.MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("maxBatchSize must be between 1 and " + PostmarkClient.MAX_BATCH_SIZE);
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * @return the fewest waiting messages a worker sends as a batch rather than one by one
+     */
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    /**
+     * @param minBatchSize The fewest waiting messages a worker sends as a batch rather than one by one
+     */
+    public void setMinBatchSize(int minBatchSize) {
+        if (minBatchSize < 1) {
+            throw new IllegalArgumentException("minBatchSize must be at least 1");
+        }
+        this.minBatchSize = minBatchSize;
+    }
+
+    /**
+     * @return what happens to a message when the queue is full
+     */
+    public BackpressurePolicy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    /**
+     * @param backpressurePolicy What happens to a message when the queue is full
+     */
+    public void setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+        if (backpressurePolicy == null) {
+            throw new IllegalArgumentException("backpressurePolicy must not be null");
+        }
+        this.backpressurePolicy = backpressurePolicy;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("PostmarkSenderConfig");
+        sb.append("{ queueCapacity=").append(queueCapacity);
+        sb.append(", workerThreads=").append(workerThreads);
+        sb.append(", maxBatchSize=").append(maxBatchSize);
+        sb.append(", minBatchSize=").append(minBatchSize);
+        sb.append(", backpressurePolicy=").append(backpressurePolicy);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -10,5 +10,11 @@ package com.postmark.java;
 
 // Enum of possible response statuses
 public enum PostmarkStatus {
-    UNKNOWN, SUCCESS, USERERROR, SERVERERROR
+    UNKNOWN, SUCCESS, USERERROR, SERVERERROR,
+    // Held back by the rate limiter or a full send queue, or answered 429 by Postmark
+    THROTTLED,
+    // Not sent because the circuit breaker is open
+    CIRCUITOPEN,
+    // Missed its deadline, and may or may not have reached Postmark
+    TIMEOUT
 }
@@ -74,6 +74,13 @@ public class PostmarkTemplate extends PostmarkMessageBase
         super.clean();
     }
 
+    // The model is an application object, so its size is measured by
+    // serializing it without keeping the JSON
+    @Override
+    long contentJsonLength() {
+        return JsonEntity.jsonLength(PostmarkGson.INSTANCE, templateModel);
+    }
+
     /**
      * @return the template id.
      */
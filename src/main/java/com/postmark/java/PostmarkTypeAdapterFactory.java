@@ -0,0 +1,322 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+
+/**
+ * Gson factory for hand-written writers of the outgoing message types and a
+ * hand-written reader of {@link PostmarkResponse}.
+ * <p/>
+ * {@link PostmarkMessage}, {@link PostmarkTemplate}, {@link Attachment} and
+ * {@link NameValuePair} are written field by field straight to the
+ * {@link JsonWriter}, without reflective field access. The JSON is the same
+ * as Gson's reflective output for these classes. Reading them is rare and
+ * left to Gson's reflective adapters.
+ * <p/>
+ * Responses are read on every send, up to 500 at a time for a batch, so
+ * they are read field by field too, with {@code SubmittedAt} parsed by
+ * {@link IsoDateParser} rather than through Joda-Time.
+ */
+final class PostmarkTypeAdapterFactory implements TypeAdapterFactory {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> rawType = type.getRawType();
+        TypeAdapter<T> delegate = gson.getDelegateAdapter(this, type);
+
+        if (rawType == PostmarkMessage.class) {
+            return (TypeAdapter<T>) new MessageAdapter(gson, (TypeAdapter<PostmarkMessage>) delegate);
+        }
+        if (rawType == PostmarkTemplate.class) {
+            return (TypeAdapter<T>) new TemplateAdapter(gson, (TypeAdapter<PostmarkTemplate>) delegate);
+        }
+        if (rawType == Attachment.class) {
+            return (TypeAdapter<T>) new AttachmentAdapter((TypeAdapter<Attachment>) delegate);
+        }
+        if (rawType == NameValuePair.class) {
+            return (TypeAdapter<T>) new NameValuePairAdapter((TypeAdapter<NameValuePair>) delegate);
+        }
+        if (rawType == PostmarkResponse.class) {
+            return (TypeAdapter<T>) new ResponseAdapter(gson);
+        }
+        return null;
+    }
+
+    // Writes the fields declared by PostmarkMessageBase, which follow the
+    // subclass fields in Gson's reflective field order
+    private static void writeBaseFields(Gson gson, JsonWriter out, PostmarkMessageBase message) throws IOException {
+        out.name("From").value(message.fromAddress);
+        out.name("To").value(message.toAddress);
+        out.name("ReplyTo").value(message.replyToAddress);
+        out.name("Cc").value(message.ccAddress);
+        out.name("Bcc").value(message.bccAddress);
+        out.name("Tag").value(message.tag);
+
+        if (message.headers != null) {
+            TypeAdapter<NameValuePair> headerAdapter = gson.getAdapter(NameValuePair.class);
+            out.name("Headers");
+            out.beginArray();
+            for (NameValuePair header : message.headers) {
+                headerAdapter.write(out, header);
+            }
+            out.endArray();
+        }
+
+        if (message.attachments != null) {
+            TypeAdapter<Attachment> attachmentAdapter = gson.getAdapter(Attachment.class);
+            out.name("Attachments");
+            out.beginArray();
+            for (Attachment attachment : message.attachments) {
+                attachmentAdapter.write(out, attachment);
+            }
+            out.endArray();
+        }
+    }
+
+    private static final class MessageAdapter extends TypeAdapter<PostmarkMessage> {
+
+        private final Gson gson;
+        private final TypeAdapter<PostmarkMessage> delegate;
+
+        MessageAdapter(Gson gson, TypeAdapter<PostmarkMessage> delegate) {
+            this.gson = gson;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(JsonWriter out, PostmarkMessage message) throws IOException {
+            if (message == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("Subject").value(message.getSubject());
+            out.name("HtmlBody").value(message.getHtmlBody());
+            out.name("TextBody").value(message.getTextBody());
+            writeBaseFields(gson, out, message);
+            out.endObject();
+        }
+
+        @Override
+        public PostmarkMessage read(JsonReader in) throws IOException {
+            return delegate.read(in);
+        }
+    }
+
+    private static final class TemplateAdapter extends TypeAdapter<PostmarkTemplate> {
+
+        private final Gson gson;
+        private final TypeAdapter<PostmarkTemplate> delegate;
+
+        TemplateAdapter(Gson gson, TypeAdapter<PostmarkTemplate> delegate) {
+            this.gson = gson;
+            this.delegate = delegate;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void write(JsonWriter out, PostmarkTemplate template) throws IOException {
+            if (template == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("TemplateId").value(template.getTemplateId());
+
+            // The model is an application class, so it is written reflectively
+            TemplateModel model = template.getTemplateModel();
+            if (model != null) {
+                out.name("TemplateModel");
+                ((TypeAdapter<TemplateModel>) gson.getAdapter(model.getClass())).write(out, model);
+            }
+
+            out.name("InlineCss").value(template.getInlineCss());
+            writeBaseFields(gson, out, template);
+            out.endObject();
+        }
+
+        @Override
+        public PostmarkTemplate read(JsonReader in) throws IOException {
+            return delegate.read(in);
+        }
+    }
+
+    private static final class AttachmentAdapter extends TypeAdapter<Attachment> {
+
+        private final TypeAdapter<Attachment> delegate;
+
+        AttachmentAdapter(TypeAdapter<Attachment> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(JsonWriter out, Attachment attachment) throws IOException {
+            if (attachment == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("name").value(attachment.getName());
+            out.name("contentType").value(attachment.getContentType());
+
+            AttachmentSource source = attachment.getSource();
+            if (source != null && out instanceof JsonEntity.StreamingJsonWriter) {
+                // Encode straight into the request body, chunk by chunk
+                JsonEntity.StreamingJsonWriter streamingOut = (JsonEntity.StreamingJsonWriter) out;
+                out.name("content");
+                source.writeBase64(streamingOut.beginStringValue());
+                streamingOut.endStringValue();
+            } else {
+                out.name("content").value(attachment.getContent());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Attachment read(JsonReader in) throws IOException {
+            return delegate.read(in);
+        }
+    }
+
+    private static final class NameValuePairAdapter extends TypeAdapter<NameValuePair> {
+
+        private final TypeAdapter<NameValuePair> delegate;
+
+        NameValuePairAdapter(TypeAdapter<NameValuePair> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(JsonWriter out, NameValuePair header) throws IOException {
+            if (header == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("name").value(header.getName());
+            out.name("value").value(header.getValue());
+            out.endObject();
+        }
+
+        @Override
+        public NameValuePair read(JsonReader in) throws IOException {
+            return delegate.read(in);
+        }
+    }
+
+    private static final class ResponseAdapter extends TypeAdapter<PostmarkResponse> {
+
+        private final TypeAdapter<PostmarkStatus> statusAdapter;
+
+        ResponseAdapter(Gson gson) {
+            this.statusAdapter = gson.getAdapter(PostmarkStatus.class);
+        }
+
+        @Override
+        public void write(JsonWriter out, PostmarkResponse response) throws IOException {
+            if (response == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (response.status != null) {
+                out.name("Status");
+                statusAdapter.write(out, response.status);
+            }
+            if (response.message != null) {
+                out.name("Message").value(response.message);
+            }
+            if (response.messageId != null) {
+                out.name("MessageID").value(response.messageId);
+            }
+            if (response.getSubmittedAt() != null) {
+                out.name("SubmittedAt").value(response.getSubmittedAt().toString());
+            }
+            if (response.to != null) {
+                out.name("To").value(response.to);
+            }
+            out.name("ErrorCode").value(response.errorCode);
+            out.endObject();
+        }
+
+        @Override
+        public PostmarkResponse read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            PostmarkResponse response = new PostmarkResponse();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                    continue;
+                }
+                if ("ErrorCode".equals(name)) {
+                    response.errorCode = in.nextInt();
+                } else if ("Message".equals(name)) {
+                    response.message = in.nextString();
+                } else if ("MessageID".equals(name)) {
+                    response.messageId = in.nextString();
+                } else if ("SubmittedAt".equals(name)) {
+                    response.submittedAtMillis = parseSubmittedAt(in.nextString());
+                } else if ("To".equals(name)) {
+                    response.to = in.nextString();
+                } else if ("Status".equals(name)) {
+                    response.status = statusAdapter.read(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return response;
+        }
+
+        private static long parseSubmittedAt(String text) {
+            try {
+                return IsoDateParser.parseEpochMillis(text);
+            } catch (IllegalArgumentException e) {
+                // Forms the fast parser does not handle, such as a missing offset
+                try {
+                    return new DateTime(text).getMillis();
+                } catch (IllegalArgumentException invalid) {
+                    throw new JsonSyntaxException("Invalid SubmittedAt: " + text, invalid);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,226 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Lock-free token bucket that smooths requests to a steady rate.
+ * <p/>
+ * The bucket holds up to {@code burst} permits and refills at
+ * {@code permitsPerSecond}. Rather than counting tokens, the limiter keeps
+ * the theoretical arrival time of the next request in a single
+ * {@link AtomicLong}, so acquiring a permit is one compare-and-set and no
+ * background thread is needed to refill the bucket.
+ * <p/>
+ * Postmark limits requests per server token, so clients sharing a token
+ * should share a limiter as well; see {@link #forServerToken}.
+ */
+public class RateLimiter {
+
+    private static Logger logger = Logger.getLogger("com.postmark.java");
+
+    // Limiters in use per server token, guarded by itself
+    private static final Map<String, RateLimiter> serverTokenLimiters = new HashMap<String, RateLimiter>();
+
+    private final double permitsPerSecond;
+    private final int burst;
+
+    // Nanoseconds between two permits
+    private final long interval;
+
+    // How far the arrival time may run ahead of now, i.e. the burst
+    private final long tolerance;
+
+    // The time at which the bucket will be full again
+    private final AtomicLong arrivalTime;
+
+    // For a shared limiter, its server token and the number of holders that
+    // have not released it, guarded by serverTokenLimiters
+    private String serverToken;
+    private int holders;
+
+    /**
+     * @param permitsPerSecond The rate at which permits are handed out
+     * @param burst            The number of permits that can be taken at once after a quiet period
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst must be at least 1");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.interval = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.tolerance = interval * burst;
+        this.arrivalTime = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Returns the limiter shared by all clients using a server token, creating
+     * it with the given settings if no one holds one for the token. Every
+     * call must be matched by a {@link #release()}; the limiter is forgotten
+     * once all its holders have released it.
+     * <p/>
+     * A limiter that is already held keeps its settings, and asking for it
+     * with different ones logs a warning.
+     *
+     * @param serverToken      The Postmark server token
+     * @param permitsPerSecond The rate at which requests may be sent
+     * @param burst            The number of requests that can be sent at once after a quiet period
+     * @return the limiter for the server token
+     */
+    public static RateLimiter forServerToken(String serverToken, double permitsPerSecond, int burst) {
+        synchronized (serverTokenLimiters) {
+            RateLimiter limiter = serverTokenLimiters.get(serverToken);
+            if (limiter == null) {
+                limiter = new RateLimiter(permitsPerSecond, burst);
+                limiter.serverToken = serverToken;
+                serverTokenLimiters.put(serverToken, limiter);
+            } else if (limiter.permitsPerSecond != permitsPerSecond || limiter.burst != burst) {
+                logger.warning("The server token already has a rate limiter of " + limiter.permitsPerSecond + " per second and a burst of "
+                        + limiter.burst + "; ignoring " + permitsPerSecond + " per second and a burst of " + burst);
+            }
+            limiter.holders++;
+            return limiter;
+        }
+    }
+
+    /**
+     * Gives back a limiter taken from {@link #forServerToken}. Does nothing
+     * for a limiter that is not shared.
+     */
+    public void release() {
+        synchronized (serverTokenLimiters) {
+            if (serverToken != null && holders > 0 && --holders == 0) {
+                serverTokenLimiters.remove(serverToken);
+                serverToken = null;
+            }
+        }
+    }
+
+    // The number of server tokens with a shared limiter
+    static int sharedCount() {
+        synchronized (serverTokenLimiters) {
+            return serverTokenLimiters.size();
+        }
+    }
+
+    /**
+     * Takes a permit if one is available right now.
+     *
+     * @return whether a permit was taken
+     */
+    public boolean tryAcquire() {
+        return reserve(1, 0) >= 0;
+    }
+
+    /**
+     * Takes a permit, waiting up to the given time for one to become available.
+     * No permit is taken if it would not be available in time.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit    The unit of {@code timeout}
+     * @return whether a permit was taken
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long wait = reserve(1, unit.toNanos(timeout));
+        if (wait < 0) {
+            return false;
+        }
+        sleep(wait);
+        return true;
+    }
+
+    /**
+     * Takes a permit, waiting as long as it takes for one to become available.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        sleep(reserve(1, Long.MAX_VALUE));
+    }
+
+    /**
+     * Reserves permits without waiting for them.
+     *
+     * @param permits     The number of permits to take
+     * @param maxWaitNanos The longest acceptable wait before the permits are available
+     * @return the nanoseconds until the permits may be used, or -1 if that is
+     * longer than {@code maxWaitNanos}, in which case nothing is reserved
+     */
+    long reserve(int permits, long maxWaitNanos) {
+        long cost = interval * permits;
+        while (true) {
+            long now = System.nanoTime();
+            long current = arrivalTime.get();
+            long next = ((current - now) > 0 ? current : now) + cost;
+            long wait = next - now - tolerance;
+            if (wait < 0) {
+                wait = 0;
+            } else if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (arrivalTime.compareAndSet(current, next)) {
+                return wait;
+            }
+        }
+    }
+
+    private static void sleep(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+
+    /**
+     * @return the rate at which permits are handed out
+     */
+    public double getPermitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * @return the number of permits that can be taken at once after a quiet period
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("RateLimiter");
+        sb.append("{ permitsPerSecond=").append(permitsPerSecond);
+        sb.append(", burst=").append(burst);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,141 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes a UTF-8 response body for {@link com.google.gson.stream.JsonReader}
+ * as it arrives, so a response is never held as a {@code String}.
+ * <p/>
+ * Each thread keeps one reader and reuses its byte buffer and decoder, so
+ * parsing a response allocates no buffers of its own. A reader must be
+ * closed before the same thread opens another.
+ */
+final class ResponseReader extends Reader {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<ResponseReader> POOL = new ThreadLocal<ResponseReader>() {
+        @Override
+        protected ResponseReader initialValue() {
+            return new ResponseReader();
+        }
+    };
+
+    private final byte[] bytes = new byte[BUFFER_SIZE];
+    private final ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private InputStream in;
+    private boolean endOfInput;
+    private boolean flushed;
+
+    private ResponseReader() {
+    }
+
+    /**
+     * @param in the response body; it is not closed by the reader
+     * @return the calling thread's reader, reading from {@code in}
+     */
+    static ResponseReader open(InputStream in) {
+        ResponseReader reader = POOL.get();
+        reader.in = in;
+        reader.endOfInput = false;
+        reader.flushed = false;
+        reader.decoder.reset();
+        reader.byteBuffer.clear().flip();
+        return reader;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (in == null) {
+            throw new IOException("Reader is closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        // The decoder cannot decode again once flushed
+        if (flushed) {
+            return -1;
+        }
+
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (true) {
+            decoder.decode(byteBuffer, out, endOfInput);
+            if (endOfInput && !flushed) {
+                if (decoder.flush(out).isOverflow()) {
+                    return out.position() - off;
+                }
+                flushed = true;
+            }
+            if (out.position() > off) {
+                return out.position() - off;
+            }
+            if (flushed) {
+                return -1;
+            }
+
+            // Keep any partial character and read more bytes behind it
+            byteBuffer.compact();
+            int read = in.read(bytes, byteBuffer.position(), byteBuffer.remaining());
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                byteBuffer.position(byteBuffer.position() + read);
+            }
+            byteBuffer.flip();
+        }
+    }
+
+    /**
+     * Reads at most {@code max} characters, for logging the start of a body.
+     */
+    String readUpTo(int max) throws IOException {
+        StringBuilder text = new StringBuilder(Math.min(max, BUFFER_SIZE));
+        char[] chunk = new char[Math.min(Math.max(max, 1), 1024)];
+        int read;
+        while (text.length() < max && (read = read(chunk, 0, Math.min(chunk.length, max - text.length()))) != -1) {
+            text.append(chunk, 0, read);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Detaches the reader from its stream, which the connection still owns.
+     */
+    @Override
+    public void close() {
+        in = null;
+    }
+}
@@ -0,0 +1,76 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket that limits retries to a share of all requests.
+ * <p/>
+ * Balances are kept in thousandths of a retry, so fractional deposits need
+ * no floating point arithmetic on the hot path.
+ */
+final class RetryBudget {
+
+    private static final long RETRY = 1000;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+
+    RetryBudget(double ratio, int capacity) {
+        this.deposit = Math.max(0, Math.round(ratio * RETRY));
+        this.capacity = Math.max(0, capacity) * RETRY;
+        this.balance = new AtomicLong(this.capacity);
+    }
+
+    /**
+     * Records a first attempt, which earns a share of a retry.
+     */
+    void onRequest() {
+        if (deposit == 0) {
+            return;
+        }
+        long current;
+        do {
+            current = balance.get();
+            if (current >= capacity) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(capacity, current + deposit)));
+    }
+
+    /**
+     * @return whether a retry may be made; if so, it is withdrawn from the budget
+     */
+    boolean tryRetry() {
+        long current;
+        do {
+            current = balance.get();
+            if (current < RETRY) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - RETRY));
+        return true;
+    }
+}
@@ -0,0 +1,260 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.apache.http.client.ClientProtocolException;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether and when a failed request to Postmark is sent again.
+ * <p/>
+ * Retries wait for an exponentially growing delay with full jitter: a random
+ * time between zero and {@code baseDelayMillis * 2^(retry - 1)}, capped at
+ * {@code maxDelayMillis}. A {@code Retry-After} header on a 429 or 503
+ * response is honoured, unless it asks for a longer wait than
+ * {@code maxDelayMillis}, in which case the request fails straight away.
+ * <p/>
+ * A retry budget stops retries from multiplying the load on Postmark during
+ * an outage: every request earns {@code retryBudgetRatio} of a retry, up to
+ * {@code retryBudgetCapacity} saved retries, and a retry is only made while
+ * the budget has a whole retry left.
+ * <p/>
+ * A request whose response was lost may already have been accepted, so a
+ * retried message can occasionally be delivered twice.
+ */
+public class RetryPolicy {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_BASE_DELAY_MILLIS = 100L;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 5000L;
+    public static final double DEFAULT_RETRY_BUDGET_RATIO = 0.1;
+    public static final int DEFAULT_RETRY_BUDGET_CAPACITY = 100;
+
+    // The maximum number of times a request is sent, including the first.
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    // The delay cap of the first retry, doubled for every further retry.
+    private long baseDelayMillis = DEFAULT_BASE_DELAY_MILLIS;
+
+    // The longest delay before a retry.
+    private long maxDelayMillis = DEFAULT_MAX_DELAY_MILLIS;
+
+    // HTTP status codes that are retried.
+    private Set<Integer> retryableStatusCodes = new HashSet<Integer>(Arrays.asList(429, 500, 502, 503, 504));
+
+    // Whether requests that failed with an I/O error are retried.
+    private boolean retryOnIOException = true;
+
+    // The share of a retry every request adds to the retry budget.
+    private double retryBudgetRatio = DEFAULT_RETRY_BUDGET_RATIO;
+
+    // The most retries the budget can save up.
+    private int retryBudgetCapacity = DEFAULT_RETRY_BUDGET_CAPACITY;
+
+    public RetryPolicy() {
+    }
+
+    // Copy Constructor
+    public RetryPolicy(RetryPolicy policy) {
+        this.maxAttempts = policy.maxAttempts;
+        this.baseDelayMillis = policy.baseDelayMillis;
+        this.maxDelayMillis = policy.maxDelayMillis;
+        this.retryableStatusCodes = new HashSet<Integer>(policy.retryableStatusCodes);
+        this.retryOnIOException = policy.retryOnIOException;
+        this.retryBudgetRatio = policy.retryBudgetRatio;
+        this.retryBudgetCapacity = policy.retryBudgetCapacity;
+    }
+
+    /**
+     * @return a policy that never retries
+     */
+    public static RetryPolicy none() {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(1);
+        return policy;
+    }
+
+    /**
+     * @param statusCode the HTTP status of a failed request
+     * @return whether a request that failed with this status may be retried
+     */
+    public boolean isRetryable(int statusCode) {
+        return retryableStatusCodes.contains(statusCode);
+    }
+
+    /**
+     * @param e the I/O error a request failed with
+     * @return whether a request that failed with this error may be retried.
+     * Protocol violations, unknown hosts and TLS failures are not retried.
+     */
+    public boolean isRetryable(IOException e) {
+        return retryOnIOException
+                && !(e instanceof ClientProtocolException)
+                && !(e instanceof UnknownHostException)
+                && !(e instanceof SSLException);
+    }
+
+    /**
+     * @param retry            the number of the retry, starting at 1
+     * @param retryAfterMillis the delay asked for by a {@code Retry-After} header, or -1
+     * @return the delay before the retry in milliseconds, or -1 if the
+     * server asked for a longer delay than {@code maxDelayMillis}
+     */
+    public long delayMillis(int retry, long retryAfterMillis) {
+        if (retryAfterMillis > maxDelayMillis) {
+            return -1;
+        }
+
+        long cap = baseDelayMillis << Math.min(retry - 1, 30);
+        if (cap <= 0 || cap > maxDelayMillis) {
+            cap = maxDelayMillis;
+        }
+        long delay = (cap > 0) ? ThreadLocalRandom.current().nextLong(cap + 1) : 0;
+        return Math.max(delay, retryAfterMillis);
+    }
+
+    /**
+     * @return the maximum number of times a request is sent, including the first
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param maxAttempts The maximum number of times a request is sent, including the first.
+     *                    1 disables retries.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * @return the delay cap of the first retry in milliseconds
+     */
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    /**
+     * @param baseDelayMillis The delay cap of the first retry in milliseconds, doubled for every further retry
+     */
+    public void setBaseDelayMillis(long baseDelayMillis) {
+        this.baseDelayMillis = baseDelayMillis;
+    }
+
+    /**
+     * @return the longest delay before a retry in milliseconds
+     */
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * @param maxDelayMillis The longest delay before a retry in milliseconds
+     */
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return the HTTP status codes that are retried
+     */
+    public Set<Integer> getRetryableStatusCodes() {
+        return retryableStatusCodes;
+    }
+
+    /**
+     * @param retryableStatusCodes The HTTP status codes that are retried
+     */
+    public void setRetryableStatusCodes(Set<Integer> retryableStatusCodes) {
+        this.retryableStatusCodes = retryableStatusCodes;
+    }
+
+    /**
+     * @return whether requests that failed with an I/O error are retried
+     */
+    public boolean isRetryOnIOException() {
+        return retryOnIOException;
+    }
+
+    /**
+     * @param retryOnIOException Whether requests that failed with an I/O error are retried
+     */
+    public void setRetryOnIOException(boolean retryOnIOException) {
+        this.retryOnIOException = retryOnIOException;
+    }
+
+    /**
+     * @return the share of a retry every request adds to the retry budget
+     */
+    public double getRetryBudgetRatio() {
+        return retryBudgetRatio;
+    }
+
+    /**
+     * @param retryBudgetRatio The share of a retry every request adds to the retry budget,
+     *                         e.g. 0.1 allows one retry for every ten requests
+     */
+    public void setRetryBudgetRatio(double retryBudgetRatio) {
+        this.retryBudgetRatio = retryBudgetRatio;
+    }
+
+    /**
+     * @return the most retries the budget can save up
+     */
+    public int getRetryBudgetCapacity() {
+        return retryBudgetCapacity;
+    }
+
+    /**
+     * @param retryBudgetCapacity The most retries the budget can save up. The budget starts full.
+     */
+    public void setRetryBudgetCapacity(int retryBudgetCapacity) {
+        this.retryBudgetCapacity = retryBudgetCapacity;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("RetryPolicy");
+        sb.append("{ maxAttempts=").append(maxAttempts);
+        sb.append(", baseDelayMillis=").append(baseDelayMillis);
+        sb.append(", maxDelayMillis=").append(maxDelayMillis);
+        sb.append(", retryableStatusCodes=").append(retryableStatusCodes);
+        sb.append(", retryOnIOException=").append(retryOnIOException);
+        sb.append(", retryBudgetRatio=").append(retryBudgetRatio);
+        sb.append(", retryBudgetCapacity=").append(retryBudgetCapacity);
+        sb.append('}');
+        return sb.toString();
+    }
+}
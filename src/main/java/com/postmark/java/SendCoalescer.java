@@ -0,0 +1,226 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Groups single sends of a {@link PostmarkClient} into batch requests.
+ * <p/>
+ * A message waits up to {@code lingerMillis} for others to join it, and a
+ * batch goes out as soon as it holds {@code maxMessages}, whichever comes
+ * first. Every message keeps its own future, completed from its entry in the
+ * batch response.
+ */
+final class SendCoalescer {
+
+    // How long closing waits for batches being sent
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+
+    private final PostmarkClient client;
+    private final long lingerNanos;
+    private final int maxMessages;
+
+    private final ScheduledExecutorService timer;
+    private final ExecutorService senders;
+
+    private final Pending messages = new Pending(false);
+    private final Pending templates = new Pending(true);
+
+    SendCoalescer(PostmarkClient client, long lingerMillis, int maxMessages, int maxConcurrentBatches) {
+        this.client = client;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.maxMessages = maxMessages;
+
+        ScheduledThreadPoolExecutor scheduled = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("postmark-linger"));
+        scheduled.setRemoveOnCancelPolicy(true);
+        this.timer = scheduled;
+        this.senders = new ThreadPoolExecutor(maxConcurrentBatches, maxConcurrentBatches, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("postmark-batch"));
+    }
+
+    CompletableFuture<PostmarkResponse> send(PostmarkMessage message) {
+        return messages.add(message);
+    }
+
+    CompletableFuture<PostmarkResponse> send(PostmarkTemplate templateMessage) {
+        return templates.add(templateMessage);
+    }
+
+    /**
+     * Sends what is waiting and waits for the batches being sent.
+     */
+    void close() {
+        messages.flush();
+        templates.flush();
+        timer.shutdownNow();
+        senders.shutdown();
+        try {
+            senders.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Messages waiting for a batch of one kind
+    private final class Pending implements Runnable {
+
+        private final boolean templated;
+
+        // Guarded by this
+        private Batch batch;
+
+        Pending(boolean templated) {
+            this.templated = templated;
+        }
+
+        CompletableFuture<PostmarkResponse> add(PostmarkMessageBase message) {
+            CompletableFuture<PostmarkResponse> future = new CompletableFuture<PostmarkResponse>();
+            Batch full = null;
+            synchronized (this) {
+                if (batch == null) {
+                    batch = new Batch(templated);
+                    try {
+                        batch.timer = timer.schedule(this, lingerNanos, TimeUnit.NANOSECONDS);
+                    } catch (RejectedExecutionException e) {
+                        batch = null;
+                        future.completeExceptionally(new PostmarkException(e));
+                        return future;
+                    }
+                }
+                batch.messages.add(message);
+                batch.futures.add(future);
+                if (batch.messages.size() >= maxMessages) {
+                    full = take();
+                }
+            }
+            if (full != null) {
+                submit(full);
+            }
+            return future;
+        }
+
+        // The linger time of the oldest message is up
+        @Override
+        public void run() {
+            flush();
+        }
+
+        void flush() {
+            Batch waiting;
+            synchronized (this) {
+                waiting = take();
+            }
+            if (waiting != null) {
+                submit(waiting);
+            }
+        }
+
+        // Called with the lock held
+        private Batch take() {
+            Batch taken = batch;
+            batch = null;
+            if (taken != null) {
+                taken.timer.cancel(false);
+            }
+            return taken;
+        }
+    }
+
+    private void submit(Batch batch) {
+        try {
+            senders.execute(batch);
+        } catch (RejectedExecutionException e) {
+            // The client has been closed
+            for (CompletableFuture<PostmarkResponse> future : batch.futures) {
+                future.completeExceptionally(new PostmarkException(e));
+            }
+        }
+    }
+
+    private final class Batch implements Runnable {
+
+        final boolean templated;
+        final List<PostmarkMessageBase> messages = new ArrayList<PostmarkMessageBase>();
+        final List<CompletableFuture<PostmarkResponse>> futures = new ArrayList<CompletableFuture<PostmarkResponse>>();
+        ScheduledFuture<?> timer;
+
+        Batch(boolean templated) {
+            this.templated = templated;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void run() {
+            List<PostmarkResponse> responses;
+            try {
+                responses = templated
+                        ? client.sendTemplates((List<PostmarkTemplate>) (List<?>) messages)
+                        : client.sendMessages((List<PostmarkMessage>) (List<?>) messages);
+            } catch (RuntimeException e) {
+                for (CompletableFuture<PostmarkResponse> future : futures) {
+                    future.completeExceptionally(new PostmarkException(e));
+                }
+                return;
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                PostmarkResponse response = responses.get(i);
+                if (response.getStatus() == PostmarkStatus.SUCCESS) {
+                    futures.get(i).complete(response);
+                } else {
+                    futures.get(i).completeExceptionally(new PostmarkException(response.getMessage(), response, false));
+                }
+            }
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -33,12 +33,19 @@ import com.google.gson.FieldAttributes;
 public class SkipMeExclusionStrategy implements ExclusionStrategy {
     private final Class<?> typeToSkip;
 
+    /**
+     * Skips only the fields marked with {@link com.postmark.java.SkipMe}.
+     */
+    public SkipMeExclusionStrategy() {
+        this(null);
+    }
+
     public SkipMeExclusionStrategy(Class<?> typeToSkip) {
         this.typeToSkip = typeToSkip;
     }
 
     public boolean shouldSkipClass(Class<?> clazz) {
-        return (clazz == typeToSkip);
+        return (typeToSkip != null) && (clazz == typeToSkip);
     }
 
     public boolean shouldSkipField(FieldAttributes f) {
@@ -0,0 +1,84 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection pool that remembers how long the calling thread last waited
+ * for a connection, so the client can report pool contention.
+ * <p/>
+ * HttpClient leases the connection on the thread that executes the request,
+ * so the time is kept per thread and read back once the request is done.
+ */
+class TimedConnectionManager extends PoolingHttpClientConnectionManager {
+
+    // Nanoseconds of the last lease on this thread, or -1 once read
+    private final ThreadLocal<long[]> leaseNanos = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[] { -1 };
+        }
+    };
+
+    @Override
+    public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+        final ConnectionRequest request = super.requestConnection(route, state);
+        return new ConnectionRequest() {
+
+            @Override
+            public HttpClientConnection get(long timeout, TimeUnit tunit)
+                    throws InterruptedException, ExecutionException, ConnectionPoolTimeoutException {
+                long start = System.nanoTime();
+                try {
+                    return request.get(timeout, tunit);
+                } finally {
+                    leaseNanos.get()[0] = System.nanoTime() - start;
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return request.cancel();
+            }
+        };
+    }
+
+    /**
+     * @return how long the calling thread waited for its last connection, in
+     * nanoseconds, or -1 if it has not leased one since the last call
+     */
+    long takeLeaseNanos() {
+        long[] holder = leaseNanos.get();
+        long nanos = holder[0];
+        holder[0] = -1;
+        return nanos;
+    }
+}
@@ -0,0 +1,44 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.concurrent.Executors;
+
+/**
+ * A {@link PostmarkDispatcher} that runs every send on its own virtual thread.
+ * <p/>
+ * Tens of thousands of sends can wait for a connection or a concurrency slot
+ * without sizing a platform thread pool. Requires Java 21; this class is only
+ * part of the build when the {@code virtual-threads} Maven profile is active.
+ */
+public class VirtualThreadDispatcher extends PostmarkDispatcher {
+
+    /**
+     * @param client         the client used to send messages
+     * @param maxConcurrency the maximum number of sends talking to Postmark at once,
+     *                       zero or less for no limit
+     */
+    public VirtualThreadDispatcher(PostmarkClient client, int maxConcurrency) {
+        super(client, Executors.newVirtualThreadPerTaskExecutor(), maxConcurrency);
+    }
+}
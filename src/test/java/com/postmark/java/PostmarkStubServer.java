@@ -0,0 +1,685 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the Postmark API on the loopback interface, for load and
+ * resilience tests that must not reach the real service.
+ * <p/>
+ * The server answers {@code /email}, {@code /email/withTemplate},
+ * {@code /email/batch} and {@code /email/batchWithTemplates} with responses
+ * shaped like Postmark's. It can delay each response by a {@link Latency},
+ * fail a share of requests with 401, 422, 429 or 500, and reset a share of
+ * connections. On the batch endpoints the 422 rate applies to each message,
+ * which then gets an error in an otherwise successful response, as Postmark
+ * does, and a batch body larger than {@link PostmarkClient#MAX_BATCH_BYTES}
+ * is refused with 422.
+ * <p/>
+ * Point a client at {@link #getServerPath()}:
+ * <pre>
+ * PostmarkStubServer server = new PostmarkStubServer();
+ * server.setLatency(PostmarkStubServer.Latency.exponential(20));
+ * server.setErrorRate(500, 0.01);
+ * PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath());
+ * </pre>
+ */
+public class PostmarkStubServer implements Closeable {
+
+    private static final String SUBMITTED_AT = "2014-02-17T07:25:01.4178645-05:00";
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+
+    private volatile Latency latency = Latency.none();
+    private volatile Map<Integer, Double> errorRates = new HashMap<Integer, Double>();
+    private volatile double resetRate;
+    private volatile double emptyResponseRate;
+    private volatile int retryAfterSeconds;
+    private volatile Map<Integer, String> errorBodies = new HashMap<Integer, String>();
+    private volatile double truncateRate;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong messageCount = new AtomicLong();
+    private final AtomicLong resetCount = new AtomicLong();
+    private final AtomicLong connectionCount = new AtomicLong();
+    private final AtomicLong largestRequest = new AtomicLong();
+    private final ConcurrentHashMap<Integer, AtomicLong> statusCounts = new ConcurrentHashMap<Integer, AtomicLong>();
+
+    /**
+     * Starts a server on a free port of the loopback interface.
+     */
+    public PostmarkStubServer() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+
+        connections = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "postmark-stub");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        connections.execute(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+    }
+
+    /**
+     * @return the server path to pass to {@link PostmarkClient}
+     */
+    public String getServerPath() {
+        return "http://" + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * @param latency how long each response is delayed
+     */
+    public void setLatency(Latency latency) {
+        if (latency == null) {
+            throw new IllegalArgumentException("latency must not be null");
+        }
+        this.latency = latency;
+    }
+
+    /**
+     * Fails a share of requests with an HTTP status and the body Postmark
+     * sends with it. The rates of all statuses together must not exceed 1.
+     *
+     * @param status one of 401, 422, 429 and 500
+     * @param rate   the share of requests that fail with it, between 0 and 1
+     */
+    public synchronized void setErrorRate(int status, double rate) {
+        if (errorBody(status) == null) {
+            throw new IllegalArgumentException("status must be one of 401, 422, 429 and 500");
+        }
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("rate must be between 0 and 1");
+        }
+
+        Map<Integer, Double> rates = new HashMap<Integer, Double>(errorRates);
+        rates.put(status, rate);
+        double total = 0;
+        for (double r : rates.values()) {
+            total += r;
+        }
+        if (total > 1) {
+            throw new IllegalArgumentException("error rates must not add up to more than 1");
+        }
+        errorRates = rates;
+    }
+
+    /**
+     * @param resetRate the share of requests whose connection is reset
+     *                  instead of answered, between 0 and 1
+     */
+    public void setResetRate(double resetRate) {
+        if (resetRate < 0 || resetRate > 1) {
+            throw new IllegalArgumentException("resetRate must be between 0 and 1");
+        }
+        this.resetRate = resetRate;
+    }
+
+    /**
+     * @param emptyResponseRate the share of requests answered with a 204 and
+     *                          no body, which Postmark never sends, between 0 and 1
+     */
+    public void setEmptyResponseRate(double emptyResponseRate) {
+        if (emptyResponseRate < 0 || emptyResponseRate > 1) {
+            throw new IllegalArgumentException("emptyResponseRate must be between 0 and 1");
+        }
+        this.emptyResponseRate = emptyResponseRate;
+    }
+
+    /**
+     * @param retryAfterSeconds the Retry-After header sent with 429 responses, 0 for none
+     */
+    public void setRetryAfterSeconds(int retryAfterSeconds) {
+        if (retryAfterSeconds < 0) {
+            throw new IllegalArgumentException("retryAfterSeconds must not be negative");
+        }
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Replaces the body sent with an error status, for instance with the
+     * HTML page of a proxy.
+     *
+     * @param status one of 401, 422, 429 and 500
+     * @param body   the body, or null for the one Postmark sends
+     */
+    public synchronized void setErrorBody(int status, String body) {
+        if (errorBody(status) == null) {
+            throw new IllegalArgumentException("status must be one of 401, 422, 429 and 500");
+        }
+        Map<Integer, String> bodies = new HashMap<Integer, String>(errorBodies);
+        bodies.put(status, body);
+        errorBodies = bodies;
+    }
+
+    /**
+     * @param truncateRate the share of responses whose connection is closed
+     *                     halfway through the body, between 0 and 1
+     */
+    public void setTruncateRate(double truncateRate) {
+        if (truncateRate < 0 || truncateRate > 1) {
+            throw new IllegalArgumentException("truncateRate must be between 0 and 1");
+        }
+        this.truncateRate = truncateRate;
+    }
+
+    /**
+     * @return the number of requests received, including reset ones
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return the number of messages accepted, counting each message of a batch
+     */
+    public long getMessageCount() {
+        return messageCount.get();
+    }
+
+    /**
+     * @return the size in bytes of the largest request body received
+     */
+    public long getLargestRequestBytes() {
+        return largestRequest.get();
+    }
+
+    /**
+     * @return the number of connections accepted
+     */
+    public long getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    /**
+     * @return the number of connections the client has not closed yet
+     */
+    public int getOpenConnectionCount() {
+        return openSockets.size();
+    }
+
+    /**
+     * @return the number of connections reset on purpose
+     */
+    public long getResetCount() {
+        return resetCount.get();
+    }
+
+    /**
+     * @return the number of responses sent with the given HTTP status
+     */
+    public long getResponseCount(int status) {
+        AtomicLong count = statusCounts.get(status);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket socket : openSockets) {
+            closeQuietly(socket);
+        }
+        connections.shutdownNow();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                return;
+            }
+            openSockets.add(socket);
+            connectionCount.incrementAndGet();
+            connections.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        serve(socket);
+                    } catch (IOException e) {
+                        // The client went away
+                    } finally {
+                        openSockets.remove(socket);
+                        closeQuietly(socket);
+                    }
+                }
+            });
+        }
+    }
+
+    // Answers requests on one keep-alive connection until either side closes it
+    private void serve(Socket socket) throws IOException {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+
+        while (true) {
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.isEmpty()) {
+                return;
+            }
+            Map<String, String> headers = new HashMap<String, String>();
+            for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+                }
+            }
+            byte[] body = readBody(in, headers);
+            requestCount.incrementAndGet();
+            for (long largest = largestRequest.get(); body.length > largest; largest = largestRequest.get()) {
+                if (largestRequest.compareAndSet(largest, body.length)) {
+                    break;
+                }
+            }
+
+            String[] parts = requestLine.split(" ");
+            String path = parts.length > 1 ? parts[1] : "";
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            sleep(latency.nextNanos(random));
+
+            if (random.nextDouble() < resetRate) {
+                resetCount.incrementAndGet();
+                // Linger 0 makes close send RST instead of FIN
+                socket.setSoLinger(true, 0);
+                socket.close();
+                return;
+            }
+
+            Response response = respond(parts[0], path, headers, body, random);
+            if (random.nextDouble() < truncateRate) {
+                write(out, response, response.body.getBytes(StandardCharsets.UTF_8).length / 2);
+                return;
+            }
+            write(out, response, Integer.MAX_VALUE);
+            if ("close".equalsIgnoreCase(headers.get("connection"))) {
+                return;
+            }
+        }
+    }
+
+    private Response respond(String method, String path, Map<String, String> headers, byte[] body, Random random) {
+        if (!"POST".equals(method)) {
+            return new Response(405, "{\"ErrorCode\":0,\"Message\":\"Method not allowed\"}");
+        }
+        boolean single = "/email".equals(path) || "/email/withTemplate".equals(path);
+        boolean batch = "/email/batch".equals(path) || "/email/batchWithTemplates".equals(path);
+        if (!single && !batch) {
+            return new Response(404, "{\"ErrorCode\":0,\"Message\":\"Not found\"}");
+        }
+        if (headers.get("x-postmark-server-token") == null || headers.get("x-postmark-server-token").isEmpty()) {
+            return new Response(401, errorBody(401));
+        }
+
+        // Failures of the whole request
+        double draw = random.nextDouble();
+        for (Map.Entry<Integer, Double> rate : errorRates.entrySet()) {
+            if (batch && rate.getKey() == 422) {
+                continue;
+            }
+            draw -= rate.getValue();
+            if (draw < 0) {
+                String errorBody = errorBodies.get(rate.getKey());
+                Response response = new Response(rate.getKey(), errorBody != null ? errorBody : errorBody(rate.getKey()));
+                if (rate.getKey() == 429 && retryAfterSeconds > 0) {
+                    response.retryAfter = Integer.toString(retryAfterSeconds);
+                }
+                return response;
+            }
+        }
+
+        if (batch && body.length > PostmarkClient.MAX_BATCH_BYTES) {
+            return new Response(422, errorBody(422));
+        }
+
+        if (random.nextDouble() < emptyResponseRate) {
+            return new Response(204, "");
+        }
+
+        JsonElement payload;
+        try {
+            payload = JsonParser.parseString(new String(body, StandardCharsets.UTF_8));
+        } catch (RuntimeException e) {
+            return new Response(400, "{\"ErrorCode\":0,\"Message\":\"Invalid JSON\"}");
+        }
+
+        if (single) {
+            if (!payload.isJsonObject()) {
+                return new Response(422, errorBody(422));
+            }
+            JsonObject result = result(payload.getAsJsonObject(), random, false);
+            return new Response(result.get("ErrorCode").getAsInt() == 0 ? 200 : 422, result.toString());
+        }
+
+        JsonArray messages = payload.isJsonArray() ? payload.getAsJsonArray()
+                : payload.isJsonObject() && payload.getAsJsonObject().has("Messages")
+                ? payload.getAsJsonObject().getAsJsonArray("Messages") : null;
+        if (messages == null) {
+            return new Response(422, errorBody(422));
+        }
+        JsonArray results = new JsonArray();
+        for (JsonElement message : messages) {
+            results.add(result(message.isJsonObject() ? message.getAsJsonObject() : new JsonObject(), random, true));
+        }
+        return new Response(200, results.toString());
+    }
+
+    // The response to one message
+    private JsonObject result(JsonObject message, Random random, boolean inBatch) {
+        JsonObject result = new JsonObject();
+        JsonElement to = message.get("To");
+        if (to != null && to.isJsonPrimitive()) {
+            result.addProperty("To", to.getAsString());
+        }
+
+        Double rejectRate = inBatch ? errorRates.get(422) : null;
+        if (!message.has("From") || !message.has("To")) {
+            result.addProperty("ErrorCode", 300);
+            result.addProperty("Message", "Invalid email request");
+        } else if (rejectRate != null && random.nextDouble() < rejectRate) {
+            result.addProperty("ErrorCode", 406);
+            result.addProperty("Message", "You tried to send to a recipient that has been marked as inactive.");
+        } else {
+            result.addProperty("SubmittedAt", SUBMITTED_AT);
+            result.addProperty("MessageID", UUID.randomUUID().toString());
+            result.addProperty("ErrorCode", 0);
+            result.addProperty("Message", "OK");
+            messageCount.incrementAndGet();
+        }
+        return result;
+    }
+
+    private static String errorBody(int status) {
+        switch (status) {
+            case 401:
+                return "{\"ErrorCode\":10,\"Message\":\"Bad or missing API token\"}";
+            case 422:
+                return "{\"ErrorCode\":300,\"Message\":\"Invalid email request\"}";
+            case 429:
+                return "{\"ErrorCode\":0,\"Message\":\"Rate limit exceeded\"}";
+            case 500:
+                return "{\"ErrorCode\":0,\"Message\":\"Internal server error\"}";
+            default:
+                return null;
+        }
+    }
+
+    // Writes the response, with at most bodyBytes of its body
+    private void write(OutputStream out, Response response, int bodyBytes) throws IOException {
+        AtomicLong count = statusCounts.get(response.status);
+        if (count == null) {
+            statusCounts.putIfAbsent(response.status, new AtomicLong());
+            count = statusCounts.get(response.status);
+        }
+        count.incrementAndGet();
+
+        byte[] body = response.body.getBytes(StandardCharsets.UTF_8);
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.status).append(' ').append(reason(response.status)).append("\r\n");
+        head.append("Content-Type: application/json; charset=utf-8\r\n");
+        head.append("Content-Length: ").append(body.length).append("\r\n");
+        if (response.retryAfter != null) {
+            head.append("Retry-After: ").append(response.retryAfter).append("\r\n");
+        }
+        head.append("\r\n");
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(head.length() + body.length);
+        buffer.write(head.toString().getBytes(StandardCharsets.US_ASCII));
+        buffer.write(body, 0, Math.min(body.length, bodyBytes));
+        buffer.writeTo(out);
+        out.flush();
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 204:
+                return "No Content";
+            case 401:
+                return "Unauthorized";
+            case 422:
+                return "Unprocessable Entity";
+            case 429:
+                return "Too Many Requests";
+            case 500:
+                return "Internal Server Error";
+            default:
+                return "Error";
+        }
+    }
+
+    private static byte[] readBody(InputStream in, Map<String, String> headers) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+            while (true) {
+                String sizeLine = readLine(in);
+                if (sizeLine == null) {
+                    throw new SocketException("Connection closed in a chunked body");
+                }
+                int semicolon = sizeLine.indexOf(';');
+                int size = Integer.parseInt((semicolon >= 0 ? sizeLine.substring(0, semicolon) : sizeLine).trim(), 16);
+                if (size == 0) {
+                    // Skip trailers up to the closing blank line
+                    for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+                    }
+                    return body.toByteArray();
+                }
+                copy(in, body, size);
+                readLine(in);
+            }
+        }
+        String length = headers.get("content-length");
+        if (length != null) {
+            copy(in, body, Integer.parseInt(length));
+        }
+        return body.toByteArray();
+    }
+
+    private static void copy(InputStream in, ByteArrayOutputStream out, int length) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (length > 0) {
+            int read = in.read(buffer, 0, Math.min(buffer.length, length));
+            if (read < 0) {
+                throw new SocketException("Connection closed in a request body");
+            }
+            out.write(buffer, 0, read);
+            length -= read;
+        }
+    }
+
+    // Reads a CRLF-terminated line, or returns null at the end of the stream
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int end = line.length();
+                if (end > 0 && line.charAt(end - 1) == '\r') {
+                    line.setLength(end - 1);
+                }
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static void sleep(long nanos) throws IOException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SocketException("Interrupted");
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+
+    private static final class Response {
+
+        final int status;
+        final String body;
+        String retryAfter;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * How long the server waits before answering a request.
+     */
+    public abstract static class Latency {
+
+        /**
+         * @param random the source of randomness to draw from
+         * @return the delay of one response in nanoseconds
+         */
+        public abstract long nextNanos(Random random);
+
+        /**
+         * @return a latency of zero
+         */
+        public static Latency none() {
+            return fixed(0);
+        }
+
+        /**
+         * @return the same delay for every response
+         */
+        public static Latency fixed(final double millis) {
+            final long nanos = toNanos(millis);
+            return new Latency() {
+                @Override
+                public long nextNanos(Random random) {
+                    return nanos;
+                }
+            };
+        }
+
+        /**
+         * @return delays spread evenly between {@code minMillis} and {@code maxMillis}
+         */
+        public static Latency uniform(final double minMillis, final double maxMillis) {
+            if (maxMillis < minMillis) {
+                throw new IllegalArgumentException("maxMillis must not be less than minMillis");
+            }
+            return new Latency() {
+                @Override
+                public long nextNanos(Random random) {
+                    return toNanos(minMillis + random.nextDouble() * (maxMillis - minMillis));
+                }
+            };
+        }
+
+        /**
+         * @return delays with an exponential distribution: mostly short, with
+         * the occasional long one
+         */
+        public static Latency exponential(final double meanMillis) {
+            return new Latency() {
+                @Override
+                public long nextNanos(Random random) {
+                    return toNanos(-meanMillis * Math.log(1 - random.nextDouble()));
+                }
+            };
+        }
+
+        /**
+         * @param medianMillis the typical delay
+         * @param sigma        the spread; around 1 gives a p99 about ten times the median
+         * @return delays with a log-normal distribution, the long-tailed shape of
+         * real service latency
+         */
+        public static Latency logNormal(final double medianMillis, final double sigma) {
+            return new Latency() {
+                @Override
+                public long nextNanos(Random random) {
+                    return toNanos(medianMillis * Math.exp(sigma * random.nextGaussian()));
+                }
+            };
+        }
+
+        private static long toNanos(double millis) {
+            if (millis < 0) {
+                throw new IllegalArgumentException("latency must not be negative");
+            }
+            return (long) (millis * 1000000);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.postmark.java;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that {@link AsyncLogHandler} drops records when its queue is full,
+ * publishes the queued records on flush and close, and keeps the level and
+ * formatting of the records.
+ */
+public class TestAsyncLogHandler {
+
+    @Test
+    public void testDropsWhenFull() throws Exception
+    {
+        final CountDownLatch taken = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingHandler target = new RecordingHandler() {
+            @Override
+            public void publish(LogRecord record) {
+                taken.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.publish(record);
+            }
+        };
+        AsyncLogHandler handler = new AsyncLogHandler(target, 2);
+
+        // The worker holds the first record, the queue the next two
+        handler.publish(record(Level.INFO, "first"));
+        Assert.assertTrue(taken.await(5, TimeUnit.SECONDS));
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            handler.publish(record(Level.INFO, "record " + i));
+        }
+        Assert.assertTrue("publish must not block", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+        Assert.assertEquals(3, handler.getDroppedCount());
+
+        release.countDown();
+        handler.flush();
+        Assert.assertEquals(3, target.getMessages().size());
+        Assert.assertEquals("first", target.getMessages().get(0));
+        Assert.assertEquals("record 0", target.getMessages().get(1));
+        Assert.assertEquals("record 1", target.getMessages().get(2));
+        handler.close();
+    }
+
+    @Test
+    public void testFlushPublishesQueued() throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        RecordingHandler target = new RecordingHandler() {
+            @Override
+            public void publish(LogRecord record) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.publish(record);
+            }
+        };
+        final AsyncLogHandler handler = new AsyncLogHandler(target, 100);
+        for (int i = 0; i < 10; i++) {
+            handler.publish(record(Level.INFO, "record " + i));
+        }
+
+        Thread flusher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                handler.flush();
+            }
+        });
+        flusher.start();
+        flusher.join(200);
+        Assert.assertTrue("flush waits for the queued records", flusher.isAlive());
+        Assert.assertEquals(0, target.getFlushCount());
+
+        release.countDown();
+        flusher.join(5000);
+        Assert.assertFalse(flusher.isAlive());
+        Assert.assertEquals(10, target.getMessages().size());
+        Assert.assertEquals(1, target.getFlushCount());
+        handler.close();
+    }
+
+    @Test
+    public void testClosePublishesQueued() throws Exception
+    {
+        final CountDownLatch taken = new CountDownLatch(1);
+        RecordingHandler target = new RecordingHandler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (taken.getCount() > 0) {
+                    taken.countDown();
+                    try {
+                        Thread.sleep(200);
+                    } catch (InterruptedException e) {
+                        // close interrupts the worker; the record is still published
+                    }
+                }
+                super.publish(record);
+            }
+        };
+        AsyncLogHandler handler = new AsyncLogHandler(target, 100);
+        for (int i = 0; i < 10; i++) {
+            handler.publish(record(Level.INFO, "record " + i));
+        }
+        Assert.assertTrue(taken.await(5, TimeUnit.SECONDS));
+
+        handler.close();
+        Assert.assertEquals(10, target.getMessages().size());
+        Assert.assertTrue(target.isClosed());
+
+        // Records published after close are ignored
+        handler.publish(record(Level.SEVERE, "late"));
+        Assert.assertEquals(10, target.getMessages().size());
+        Assert.assertEquals(0, handler.getDroppedCount());
+    }
+
+    @Test
+    public void testLevelAndFormatter() throws Exception
+    {
+        RecordingHandler target = new RecordingHandler();
+        target.setFormatter(new Formatter() {
+            @Override
+            public String format(LogRecord record) {
+                return record.getLevel() + ": " + formatMessage(record);
+            }
+        });
+        AsyncLogHandler handler = new AsyncLogHandler(target, 100);
+        handler.setLevel(Level.WARNING);
+
+        handler.publish(record(Level.INFO, "ignored"));
+        LogRecord warning = record(Level.WARNING, "rate limited after {0} sends");
+        warning.setParameters(new Object[]{3});
+        handler.publish(warning);
+        handler.publish(record(Level.SEVERE, "failed"));
+        handler.flush();
+
+        Assert.assertEquals(2, target.getMessages().size());
+        Assert.assertEquals("WARNING: rate limited after 3 sends", target.getMessages().get(0));
+        Assert.assertEquals("SEVERE: failed", target.getMessages().get(1));
+        Assert.assertEquals(0, handler.getDroppedCount());
+        handler.close();
+    }
+
+    private static LogRecord record(Level level, String message)
+    {
+        LogRecord record = new LogRecord(level, message);
+        record.setLoggerName("com.postmark.java");
+        return record;
+    }
+
+    // Keeps the formatted records it publishes
+    private static class RecordingHandler extends Handler {
+
+        private final List<String> messages = new ArrayList<String>();
+        private int flushCount;
+        private boolean closed;
+
+        RecordingHandler() {
+            setFormatter(new Formatter() {
+                @Override
+                public String format(LogRecord record) {
+                    return formatMessage(record);
+                }
+            });
+        }
+
+        @Override
+        public synchronized void publish(LogRecord record) {
+            messages.add(getFormatter().format(record));
+        }
+
+        @Override
+        public synchronized void flush() {
+            flushCount++;
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+        }
+
+        synchronized List<String> getMessages() {
+            return new ArrayList<String>(messages);
+        }
+
+        synchronized int getFlushCount() {
+            return flushCount;
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.postmark.java;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the eviction, size accounting and counters of {@link AttachmentCache}.
+ */
+public class TestAttachmentCache {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEvictsLeastRecentlyUsed()
+    {
+        // Three raw bytes encode to four, so the cache holds three entries
+        AttachmentCache cache = new AttachmentCache(12, false);
+        AttachmentHandle a = cache.register(bytes(1));
+        AttachmentHandle b = cache.register(bytes(2));
+        AttachmentHandle c = cache.register(bytes(3));
+        Assert.assertEquals(12, cache.getSize());
+
+        // Registering a again makes b the least recently used
+        Assert.assertSame(a, cache.register(bytes(1)));
+        AttachmentHandle d = cache.register(bytes(4));
+        Assert.assertNull(cache.get(b.getKey()));
+        Assert.assertSame(a, cache.get(a.getKey()));
+        Assert.assertSame(c, cache.get(c.getKey()));
+        Assert.assertSame(d, cache.get(d.getKey()));
+        Assert.assertEquals(12, cache.getSize());
+
+        // Reading c makes d the least recently used, after a and c
+        cache.get(c.getKey());
+        cache.register(bytes(5));
+        Assert.assertNull(cache.get(a.getKey()));
+        Assert.assertNotNull(cache.get(c.getKey()));
+        Assert.assertNotNull(cache.get(d.getKey()));
+    }
+
+    @Test
+    public void testSizeBound()
+    {
+        AttachmentCache cache = new AttachmentCache(20, true);
+        AttachmentHandle small = cache.register(new byte[3]);
+        Assert.assertEquals(4, small.getEncodedLength());
+        Assert.assertTrue(small.isDirect());
+
+        // Twelve raw bytes encode to sixteen, which only fit alongside the small entry
+        AttachmentHandle medium = cache.register(bytes(1, 12));
+        Assert.assertEquals(20, cache.getSize());
+        AttachmentHandle other = cache.register(bytes(2, 12));
+        Assert.assertEquals(16, cache.getSize());
+        Assert.assertNull(cache.get(small.getKey()));
+        Assert.assertNull(cache.get(medium.getKey()));
+        Assert.assertSame(other, cache.get(other.getKey()));
+
+        // Content larger than the cache is encoded but never kept
+        AttachmentHandle large = cache.register(new byte[30]);
+        Assert.assertEquals(40, large.getEncodedLength());
+        Assert.assertNull(cache.get(large.getKey()));
+        Assert.assertSame(other, cache.get(other.getKey()));
+        Assert.assertEquals(16, cache.getSize());
+    }
+
+    @Test
+    public void testCounters()
+    {
+        AttachmentCache cache = new AttachmentCache(1024, false);
+        cache.register(bytes(1));
+        cache.register(bytes(1));
+        cache.register(ByteBuffer.wrap(bytes(1)));
+        cache.register(bytes(2));
+        Assert.assertEquals(2, cache.getHits());
+        Assert.assertEquals(2, cache.getMisses());
+
+        // Content that was not kept is a miss every time
+        AttachmentCache tiny = new AttachmentCache(1, false);
+        tiny.register(bytes(1));
+        tiny.register(bytes(1));
+        Assert.assertEquals(0, tiny.getHits());
+        Assert.assertEquals(2, tiny.getMisses());
+    }
+
+    @Test
+    public void testClear()
+    {
+        AttachmentCache cache = new AttachmentCache(1024, false);
+        AttachmentHandle handle = cache.register(bytes(1));
+        cache.clear();
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertNull(cache.get(handle.getKey()));
+        Assert.assertEquals(4, handle.getEncodedLength());
+
+        // Cleared content is encoded again when registered
+        Assert.assertNotSame(handle, cache.register(bytes(1)));
+        Assert.assertEquals(2, cache.getMisses());
+        Assert.assertEquals(4, cache.getSize());
+    }
+
+    @Test
+    public void testRegisterPath() throws Exception
+    {
+        byte[] content = bytes(7, 1000);
+        Path file = folder.newFile("terms.pdf").toPath();
+        Files.write(file, content);
+
+        AttachmentCache cache = new AttachmentCache(1 << 20, false);
+        AttachmentHandle handle = cache.register(file);
+        Assert.assertSame(handle, cache.register(content));
+        Assert.assertEquals(1, cache.getHits());
+
+        Attachment attachment = Attachment.fromHandle(handle, "terms.pdf", "application/pdf");
+        Assert.assertEquals(Base64.getEncoder().encodeToString(content).length(), handle.getEncodedLength());
+        Assert.assertEquals(Base64.getEncoder().encodeToString(content), attachment.getContent());
+    }
+
+    private static byte[] bytes(int seed)
+    {
+        return bytes(seed, 3);
+    }
+
+    private static byte[] bytes(int seed, int length)
+    {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (seed * 31 + i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,224 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.postmark.java;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.annotations.SerializedName;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that batch sends are split into requests by message count and
+ * payload size, and that failures are reported per message.
+ */
+public class TestBatch {
+
+    private PostmarkStubServer server;
+    private PostmarkClient client;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        server = new PostmarkStubServer();
+        client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void testSplitByCount() throws Exception
+    {
+        List<PostmarkMessage> messages = messages(1201);
+        // An invalid message fails alone and is never sent
+        messages.set(600, TestOutbox.message(""));
+
+        List<PostmarkResponse> responses = client.sendMessages(messages);
+        Assert.assertEquals(1201, responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+            if (i == 600) {
+                Assert.assertEquals(PostmarkStatus.USERERROR, responses.get(i).getStatus());
+                Assert.assertEquals(0, responses.get(i).getErrorCode());
+            } else {
+                Assert.assertEquals(PostmarkStatus.SUCCESS, responses.get(i).getStatus());
+                Assert.assertEquals("user" + i + "@email.com", responses.get(i).getTo());
+            }
+        }
+        Assert.assertEquals(3, server.getRequestCount());
+        Assert.assertEquals(1200, server.getMessageCount());
+    }
+
+    @Test
+    public void testSplitTemplatesByCount() throws Exception
+    {
+        List<PostmarkTemplate> templates = new ArrayList<PostmarkTemplate>();
+        for (int i = 0; i < 501; i++) {
+            templates.add(new PostmarkTemplate("team@company.com", "user" + i + "@email.com", null, null, null, 1,
+                    new TestClient.TestModel(), true));
+        }
+
+        for (PostmarkResponse response : client.sendTemplates(templates)) {
+            Assert.assertEquals(PostmarkStatus.SUCCESS, response.getStatus());
+        }
+        Assert.assertEquals(2, server.getRequestCount());
+        Assert.assertEquals(501, server.getMessageCount());
+    }
+
+    @Test
+    public void testSplitBySize() throws Exception
+    {
+        // Six messages of 9 MB each do not fit in one 50 MB request; the
+        // content is shared so the test needs little heap
+        Attachment attachment = new Attachment();
+        attachment.setName("large.pdf");
+        attachment.setContentType("application/pdf");
+        attachment.setContent(new String(new char[9 * 1024 * 1024]).replace('\0', 'A'));
+
+        List<PostmarkMessage> messages = messages(6);
+        for (PostmarkMessage message : messages) {
+            message.setAttachments(Arrays.asList(attachment));
+        }
+
+        for (PostmarkResponse response : client.sendMessages(messages)) {
+            Assert.assertEquals(PostmarkStatus.SUCCESS, response.getStatus());
+        }
+        Assert.assertEquals(2, server.getRequestCount());
+        Assert.assertTrue(server.getLargestRequestBytes() <= PostmarkClient.MAX_BATCH_BYTES);
+        Assert.assertEquals(6, server.getMessageCount());
+    }
+
+    @Test
+    public void testSplitTemplatesBySize() throws Exception
+    {
+        // Sixty models of 1 MB each do not fit in one request either
+        LargeModel model = new LargeModel(new String(new char[1024 * 1024]).replace('\0', 'x'));
+        List<PostmarkTemplate> templates = new ArrayList<PostmarkTemplate>();
+        for (int i = 0; i < 60; i++) {
+            templates.add(new PostmarkTemplate("team@company.com", "user" + i + "@email.com", null, null, null, 1, model, true));
+        }
+
+        for (PostmarkResponse response : client.sendTemplates(templates)) {
+            Assert.assertEquals(PostmarkStatus.SUCCESS, response.getStatus());
+        }
+        Assert.assertEquals(2, server.getRequestCount());
+        Assert.assertTrue(server.getLargestRequestBytes() <= PostmarkClient.MAX_BATCH_BYTES);
+    }
+
+    @Test
+    public void testSizeEstimate() throws Exception
+    {
+        String text = "Quotes \" and \\ backslashes, a tab\t, a line\nbreak, \u0001, caf\u00e9, \u20ac, \uD83D\uDE00 and \u2028";
+        Assert.assertEquals(PostmarkGson.INSTANCE.toJson(text).getBytes(StandardCharsets.UTF_8).length,
+                JsonEntity.jsonLength(text));
+        Assert.assertEquals(4, JsonEntity.jsonLength(null));
+
+        PostmarkMessage message = new PostmarkMessage("team@company.com", "user@email.com", null, null, text, text, false, null);
+        message.setHeaders(Arrays.asList(new NameValuePair("X-Header", text)));
+        long actual = PostmarkGson.INSTANCE.toJson(message).getBytes(StandardCharsets.UTF_8).length;
+        Assert.assertTrue(message.jsonLength() >= actual);
+        Assert.assertTrue(message.jsonLength() < actual + 512);
+
+        PostmarkTemplate template = new PostmarkTemplate("team@company.com", "user@email.com", null, null, null, 1,
+                new LargeModel(text), true);
+        actual = PostmarkGson.INSTANCE.toJson(template).getBytes(StandardCharsets.UTF_8).length;
+        Assert.assertTrue(template.jsonLength() >= actual);
+        Assert.assertTrue(template.jsonLength() < actual + 512);
+    }
+
+    @Test
+    public void testRequestErrorReachesEveryMessage() throws Exception
+    {
+        server.setErrorRate(401, 1);
+        List<PostmarkResponse> responses = client.sendMessages(messages(700));
+        for (int i = 0; i < responses.size(); i++) {
+            Assert.assertEquals(PostmarkStatus.USERERROR, responses.get(i).getStatus());
+            Assert.assertEquals(10, responses.get(i).getErrorCode());
+            Assert.assertEquals("Bad or missing API token", responses.get(i).getMessage());
+            Assert.assertEquals("user" + i + "@email.com", responses.get(i).getTo());
+        }
+        Assert.assertEquals(2, server.getRequestCount());
+
+        server.setErrorRate(401, 0);
+        server.setErrorRate(500, 1);
+        for (PostmarkResponse response : client.sendMessages(messages(3))) {
+            Assert.assertEquals(PostmarkStatus.SERVERERROR, response.getStatus());
+        }
+        Assert.assertEquals(0, server.getMessageCount());
+    }
+
+    @Test
+    public void testBrokenMessageFailsAlone() throws Exception
+    {
+        List<PostmarkMessage> messages = messages(3);
+        messages.set(1, broken("user1@email.com"));
+
+        List<PostmarkResponse> responses = client.sendMessages(messages);
+        Assert.assertEquals(PostmarkStatus.SUCCESS, responses.get(0).getStatus());
+        Assert.assertEquals(PostmarkStatus.UNKNOWN, responses.get(1).getStatus());
+        Assert.assertEquals("user1@email.com", responses.get(1).getTo());
+        Assert.assertEquals(PostmarkStatus.SUCCESS, responses.get(2).getStatus());
+        Assert.assertEquals(2, server.getMessageCount());
+    }
+
+    // A message whose validation fails with an unexpected exception
+    static PostmarkMessage broken(String to)
+    {
+        return new PostmarkMessage("team@company.com", to, null, null, "Test Subject", "Body", false, null) {
+            @Override
+            public void validate() {
+                throw new IllegalStateException("Broken validator");
+            }
+        };
+    }
+
+    private static List<PostmarkMessage> messages(int count)
+    {
+        List<PostmarkMessage> messages = new ArrayList<PostmarkMessage>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(TestOutbox.message("user" + i + "@email.com"));
+        }
+        return messages;
+    }
+
+    static class LargeModel implements TemplateModel
+    {
+        @SerializedName("content")
+        public String content;
+
+        LargeModel(String content)
+        {
+            this.content = content;
+        }
+    }
+}
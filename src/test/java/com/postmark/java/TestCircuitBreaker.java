@@ -0,0 +1,228 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the state changes of {@link CircuitBreaker}.
+ */
+public class TestCircuitBreaker {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testOpensOnFailureRate()
+    {
+        CircuitBreaker breaker = new CircuitBreaker(policy(60000));
+
+        // Too few calls to judge
+        breaker.onResult(FAST, true);
+        breaker.onResult(FAST, false);
+        breaker.onResult(FAST, false);
+        Assert.assertEquals(-1f, breaker.getFailureRate(), 0.01);
+
+        breaker.onResult(FAST, false);
+        Assert.assertEquals(25f, breaker.getFailureRate(), 0.01);
+        // The oldest call, the failure, drops out of the window
+        breaker.onResult(FAST, false);
+        Assert.assertEquals(0f, breaker.getFailureRate(), 0.01);
+
+        breaker.onResult(FAST, true);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assert.assertEquals(25f, breaker.getFailureRate(), 0.01);
+        breaker.onResult(FAST, true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testOpensOnSlowCalls()
+    {
+        CircuitBreakerPolicy policy = policy(60000);
+        policy.setSlowCallDurationMillis(100);
+        policy.setSlowCallRateThreshold(50);
+        CircuitBreaker breaker = new CircuitBreaker(policy);
+
+        long slow = TimeUnit.MILLISECONDS.toNanos(150);
+        breaker.onResult(FAST, false);
+        breaker.onResult(FAST, false);
+        breaker.onResult(slow, false);
+        breaker.onResult(slow, false);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenProbe() throws Exception
+    {
+        CircuitBreaker breaker = new CircuitBreaker(policy(200));
+        final List<CircuitBreaker.State> changes = new ArrayList<CircuitBreaker.State>();
+        breaker.addListener(new CircuitBreakerListener() {
+            @Override
+            public void onStateChange(CircuitBreaker breaker, CircuitBreaker.State from, CircuitBreaker.State to) {
+                changes.add(to);
+            }
+        });
+        open(breaker);
+        Assert.assertFalse(breaker.tryAcquire());
+
+        // After the open duration, only the trial calls are let through
+        Thread.sleep(250);
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertFalse(breaker.tryAcquire());
+
+        // A trial that was never sent gives its permission back
+        breaker.release();
+        Assert.assertTrue(breaker.tryAcquire());
+
+        breaker.onResult(FAST, false);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onResult(FAST, false);
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assert.assertEquals(-1f, breaker.getFailureRate(), 0.01);
+        Assert.assertTrue(breaker.tryAcquire());
+
+        Assert.assertEquals(Arrays.asList(CircuitBreaker.State.OPEN, CircuitBreaker.State.HALF_OPEN,
+                CircuitBreaker.State.CLOSED), changes);
+    }
+
+    @Test
+    public void testFailedProbeReopens() throws Exception
+    {
+        CircuitBreaker breaker = new CircuitBreaker(policy(200));
+        open(breaker);
+        Thread.sleep(250);
+        Assert.assertTrue(breaker.tryAcquire());
+        breaker.onResult(FAST, true);
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testFailsFastAgainstStub() throws Exception
+    {
+        PostmarkStubServer server = new PostmarkStubServer();
+        server.setErrorRate(500, 1);
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setCircuitBreakerPolicy(policy(60000));
+        PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), config);
+        try {
+            for (int i = 0; i < 4; i++) {
+                try {
+                    client.sendMessage(TestOutbox.message("user@email.com"));
+                    Assert.fail("Expected a server error");
+                } catch (PostmarkException e) {
+                    Assert.assertEquals(PostmarkStatus.SERVERERROR, e.getResponse().getStatus());
+                }
+            }
+            Assert.assertEquals(CircuitBreaker.State.OPEN, client.getCircuitBreaker().getState());
+
+            // Rejections by Postmark do not count as failures, but an open breaker sends nothing
+            try {
+                client.sendMessage(TestOutbox.message("user@email.com"));
+                Assert.fail("Expected the circuit to be open");
+            } catch (PostmarkException e) {
+                Assert.assertEquals(PostmarkStatus.CIRCUITOPEN, e.getResponse().getStatus());
+            }
+            Assert.assertEquals(4, server.getRequestCount());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testUnsentTrialIsReleased() throws Exception
+    {
+        PostmarkStubServer server = new PostmarkStubServer();
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setCircuitBreakerPolicy(policy(200));
+        config.setRateLimitPerSecond(1);
+        config.setRateLimitBurst(1);
+        config.setRateLimitMaxWaitMillis(10000);
+        PostmarkClient client = new PostmarkClient("TestCircuitBreaker-trial", server.getServerPath(), config);
+        try {
+            // The second send waits for the rate limiter on the client's timer
+            CompletableFuture<PostmarkResponse> first = client.sendMessageAsync(TestOutbox.message("user@email.com"));
+            CompletableFuture<PostmarkResponse> second = client.sendMessageAsync(TestOutbox.message("user@email.com"));
+            Assert.assertEquals(PostmarkStatus.SUCCESS, first.get(5, TimeUnit.SECONDS).getStatus());
+            Assert.assertEquals(PostmarkStatus.SUCCESS, second.get(5, TimeUnit.SECONDS).getStatus());
+
+            CircuitBreaker breaker = client.getCircuitBreaker();
+            open(breaker);
+            Thread.sleep(250);
+
+            // The trial waits for the rate limiter on the timer, and closing
+            // the client fails it before it is sent, so its permission must
+            // come back
+            CompletableFuture<PostmarkResponse> trial = client.sendMessageAsync(TestOutbox.message("user@email.com"));
+            Assert.assertFalse(trial.isDone());
+            client.close();
+            try {
+                trial.get(5, TimeUnit.SECONDS);
+                Assert.fail("Expected the closed client to refuse the send");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof PostmarkException);
+                Assert.assertEquals("The client is closed", e.getCause().getMessage());
+            }
+            Assert.assertEquals(2, server.getRequestCount());
+            Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+            Assert.assertTrue(breaker.tryAcquire());
+            Assert.assertTrue(breaker.tryAcquire());
+            Assert.assertFalse(breaker.tryAcquire());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+
+    // Opens at 50% failures over a window of four calls, with two trial calls
+    private static CircuitBreakerPolicy policy(long openDurationMillis)
+    {
+        CircuitBreakerPolicy policy = new CircuitBreakerPolicy();
+        policy.setWindowSize(4);
+        policy.setMinimumCalls(4);
+        policy.setFailureRateThreshold(50);
+        policy.setOpenDurationMillis(openDurationMillis);
+        policy.setHalfOpenCalls(2);
+        return policy;
+    }
+
+    private static void open(CircuitBreaker breaker)
+    {
+        for (int i = 0; i < 4; i++) {
+            breaker.onResult(FAST, true);
+        }
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+}
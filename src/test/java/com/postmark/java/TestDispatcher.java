@@ -0,0 +1,152 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.postmark.java;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends through a {@link PostmarkDispatcher} on a platform thread pool, the
+ * path every build has. {@code VirtualThreadDispatcher} only adds the
+ * executor, and is compiled by the {@code virtual-threads} profile on JDK 21.
+ */
+public class TestDispatcher {
+
+    private PostmarkStubServer server;
+    private PostmarkClient client;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        server = new PostmarkStubServer();
+        client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void testDispatch() throws Exception
+    {
+        PostmarkDispatcher dispatcher = new PostmarkDispatcher(client, Executors.newFixedThreadPool(4), 2);
+        List<CompletableFuture<PostmarkResponse>> futures = new ArrayList<CompletableFuture<PostmarkResponse>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(dispatcher.dispatch(TestOutbox.message("user" + i + "@email.com")));
+        }
+        futures.add(dispatcher.dispatch(new PostmarkTemplate("team@company.com", "user@email.com", null, null, null,
+                1, new TestBatch.LargeModel("content"), true)));
+
+        for (CompletableFuture<PostmarkResponse> future : futures) {
+            PostmarkResponse response = future.get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(PostmarkStatus.SUCCESS, response.getStatus());
+        }
+        Assert.assertEquals(21, server.getMessageCount());
+        dispatcher.close();
+    }
+
+    @Test
+    public void testMaxConcurrency() throws Exception
+    {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger largest = new AtomicInteger();
+        PostmarkClient counting = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath()) {
+            @Override
+            public PostmarkResponse sendMessage(PostmarkMessage message) throws PostmarkException {
+                int current = inFlight.incrementAndGet();
+                for (int seen = largest.get(); current > seen; seen = largest.get()) {
+                    if (largest.compareAndSet(seen, current)) {
+                        break;
+                    }
+                }
+                try {
+                    Thread.sleep(20);
+                    return super.sendMessage(message);
+                } catch (InterruptedException e) {
+                    throw new PostmarkException(e);
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            }
+        };
+
+        // More threads than slots, so sends wait for a slot on their thread
+        PostmarkDispatcher dispatcher = new PostmarkDispatcher(counting, Executors.newFixedThreadPool(16), 3);
+        List<CompletableFuture<PostmarkResponse>> futures = new ArrayList<CompletableFuture<PostmarkResponse>>();
+        for (int i = 0; i < 48; i++) {
+            futures.add(dispatcher.dispatch(TestOutbox.message("user" + i + "@email.com")));
+        }
+        for (CompletableFuture<PostmarkResponse> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(3, largest.get());
+        Assert.assertEquals(48, server.getMessageCount());
+        dispatcher.close();
+        counting.close();
+    }
+
+    @Test
+    public void testFailedSend() throws Exception
+    {
+        server.setErrorRate(422, 1);
+        PostmarkDispatcher dispatcher = new PostmarkDispatcher(client, Executors.newFixedThreadPool(2), 0);
+        CompletableFuture<PostmarkResponse> future = dispatcher.dispatch(TestOutbox.message("user@email.com"));
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            Assert.fail("the send was refused");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof PostmarkException);
+        }
+        dispatcher.close();
+    }
+
+    @Test
+    public void testDispatchAfterClose() throws Exception
+    {
+        PostmarkDispatcher dispatcher = new PostmarkDispatcher(client, Executors.newFixedThreadPool(2), 0);
+        dispatcher.close();
+        CompletableFuture<PostmarkResponse> future = dispatcher.dispatch(TestOutbox.message("user@email.com"));
+        Assert.assertTrue(future.isCompletedExceptionally());
+        try {
+            future.get();
+            Assert.fail("the dispatcher was closed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof PostmarkException);
+        }
+        Assert.assertEquals(0, server.getRequestCount());
+    }
+}
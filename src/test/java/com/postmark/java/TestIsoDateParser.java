@@ -0,0 +1,124 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks {@link IsoDateParser} against {@code java.time}, and the fallback
+ * to Joda-Time for timestamps it does not accept.
+ */
+public class TestIsoDateParser {
+
+    @Test
+    public void testPostmarkTimestamps()
+    {
+        assertParsed("2014-02-17T07:25:01.4178645-05:00");
+        assertParsed("2014-02-17T12:25:01Z");
+        assertParsed("2014-02-17T12:25:01.5Z");
+        assertParsed("2014-02-17T12:25:01.123+00:00");
+        assertParsed("2016-02-29T23:59:59.999+14:00");
+        assertParsed("1999-12-31T23:59:59-12:00");
+        assertParsed("2014-02-17t12:25:01z");
+        Assert.assertEquals(1392639901417L, IsoDateParser.parseEpochMillis("2014-02-17T07:25:01.4178645-05:00"));
+    }
+
+    @Test
+    public void testOffsetForms()
+    {
+        long utc = IsoDateParser.parseEpochMillis("2014-02-17T12:25:01Z");
+        Assert.assertEquals(utc, IsoDateParser.parseEpochMillis("2014-02-17T14:25:01+02:00"));
+        Assert.assertEquals(utc, IsoDateParser.parseEpochMillis("2014-02-17T14:25:01+0200"));
+        Assert.assertEquals(utc, IsoDateParser.parseEpochMillis("2014-02-17T14:25:01+02"));
+        Assert.assertEquals(utc, IsoDateParser.parseEpochMillis("2014-02-17T07:55:01-04:30"));
+    }
+
+    @Test
+    public void testRandomInstants()
+    {
+        Random random = new Random(7);
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSSSXXX");
+        for (int i = 0; i < 10000; i++) {
+            Instant instant = Instant.ofEpochSecond(random.nextInt(Integer.MAX_VALUE), random.nextInt(1000000000));
+            ZoneOffset offset = ZoneOffset.ofTotalSeconds((random.nextInt(37) - 18) * 1800);
+            assertParsed(OffsetDateTime.ofInstant(instant, offset).format(formatter));
+        }
+    }
+
+    @Test
+    public void testRejected()
+    {
+        String[] invalid = {
+                "",
+                "2014-02-17",
+                "2014-02-17T12:25:01",
+                "2014-02-17 12:25:01Z",
+                "2014-02-30T12:25:01Z",
+                "2014-13-17T12:25:01Z",
+                "2014-02-17T24:25:01Z",
+                "2014-02-17T12:25:01.Z",
+                "2014-02-17T12:25:01+19:00",
+                "2014-02-17T12:25:01+02:0",
+                "2014-02-17T12:25:01Zjunk",
+                "2O14-02-17T12:25:01Z",
+        };
+        for (String text : invalid) {
+            try {
+                IsoDateParser.parseEpochMillis(text);
+                Assert.fail("Expected " + text + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testFallback()
+    {
+        // Without an offset the response falls back to Joda-Time's parser
+        PostmarkResponse response = PostmarkGson.INSTANCE.fromJson("{\"SubmittedAt\":\"2014-02-17T07:25:01.417\"}", PostmarkResponse.class);
+        Assert.assertEquals(new DateTime("2014-02-17T07:25:01.417"), response.getSubmittedAt());
+        Assert.assertEquals(new DateTime("2014-02-17T07:25:01.417").getMillis(), response.getSubmittedAtMillis());
+
+        response = PostmarkGson.INSTANCE.fromJson("{\"SubmittedAt\":\"2014-02-17T07:25:01.4178645-05:00\"}", PostmarkResponse.class);
+        Assert.assertEquals(1392639901417L, response.getSubmittedAtInstant().toEpochMilli());
+
+        response = PostmarkGson.INSTANCE.fromJson("{\"MessageID\":\"id\"}", PostmarkResponse.class);
+        Assert.assertNull(response.getSubmittedAt());
+        Assert.assertNull(response.getSubmittedAtInstant());
+    }
+
+    private static void assertParsed(String text)
+    {
+        long expected = OffsetDateTime.parse(text.toUpperCase(), DateTimeFormatter.ISO_OFFSET_DATE_TIME).toInstant().toEpochMilli();
+        Assert.assertEquals(text, expected, IsoDateParser.parseEpochMillis(text));
+    }
+}
@@ -0,0 +1,185 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.postmark.java;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a {@link PostmarkClient} sizes its connection pool from
+ * {@link PostmarkClientConfig}, releases it on close, and refuses sends
+ * once closed, against {@link PostmarkStubServer}.
+ */
+public class TestLifecycle {
+
+    private PostmarkStubServer server;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        server = new PostmarkStubServer();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        server.close();
+    }
+
+    @Test
+    public void testPoolLimits() throws Exception
+    {
+        server.setLatency(PostmarkStubServer.Latency.fixed(100));
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setMaxTotalConnections(3);
+        config.setMaxConnectionsPerRoute(2);
+        final PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), config);
+
+        // Eight concurrent sends share the two connections of the route
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            final String to = "user" + i + "@email.com";
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        client.sendMessage(TestOutbox.message(to));
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+        Assert.assertEquals(Collections.emptyList(), failures);
+        Assert.assertEquals(8, server.getMessageCount());
+        Assert.assertEquals(2, server.getConnectionCount());
+
+        // The non-blocking pool gets the same limits
+        List<CompletableFuture<PostmarkResponse>> futures = new ArrayList<CompletableFuture<PostmarkResponse>>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(client.sendMessageAsync(TestOutbox.message("async" + i + "@email.com")));
+        }
+        for (CompletableFuture<PostmarkResponse> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(4, server.getConnectionCount());
+        client.close();
+    }
+
+    @Test
+    public void testCloseReleasesPool() throws Exception
+    {
+        PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath());
+        client.sendMessage(TestOutbox.message("user@email.com"));
+        client.sendMessageAsync(TestOutbox.message("user@email.com")).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(2, server.getOpenConnectionCount());
+
+        client.close();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getOpenConnectionCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, server.getOpenConnectionCount());
+
+        // Closing again does nothing
+        client.close();
+    }
+
+    @Test
+    public void testCloseFailsWaitingSends() throws Exception
+    {
+        server.setErrorRate(500, 1);
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(3);
+        policy.setBaseDelayMillis(60000);
+        policy.setMaxDelayMillis(60000);
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setRetryPolicy(policy);
+        PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), config);
+
+        // The send fails once and waits a minute on the timer for its retry
+        CompletableFuture<PostmarkResponse> future = client.sendMessageAsync(TestOutbox.message("user@email.com"));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getRequestCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        Assert.assertFalse(future.isDone());
+
+        client.close();
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("The client is closed");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("The client is closed", e.getCause().getMessage());
+        }
+        Assert.assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testSendAfterClose() throws Exception
+    {
+        PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath());
+        client.close();
+
+        try {
+            client.sendMessage(TestOutbox.message("user@email.com"));
+            Assert.fail("The client is closed");
+        } catch (PostmarkException e) {
+            Assert.assertEquals("The client is closed", e.getMessage());
+        }
+
+        CompletableFuture<PostmarkResponse> future = client.sendMessageAsync(TestOutbox.message("user@email.com"));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("The client is closed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof PostmarkException);
+            Assert.assertEquals("The client is closed", e.getCause().getMessage());
+        }
+
+        List<PostmarkResponse> responses = client.sendMessages(Collections.singletonList(TestOutbox.message("user@email.com")));
+        Assert.assertNotEquals(PostmarkStatus.SUCCESS, responses.get(0).getStatus());
+        Assert.assertEquals("The client is closed", responses.get(0).getMessage());
+
+        Assert.assertEquals(0, server.getRequestCount());
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            Assert.assertNotEquals("postmark-scheduler", thread.getName());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the buckets of {@link LatencyHistogram}, and what
+ * {@link DefaultPostmarkMetrics} records for sends to the stub server.
+ */
+public class TestMetrics {
+
+    @Test
+    public void testExactSmallValues()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 128; i++) {
+            histogram.record(i);
+        }
+        Assert.assertEquals(128, histogram.getCount());
+        Assert.assertEquals(63.5, histogram.getMean(), 0.001);
+        Assert.assertEquals(63, histogram.getValueAtPercentile(50));
+        Assert.assertEquals(126, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(127, histogram.getValueAtPercentile(100));
+        Assert.assertEquals(0, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void testRelativeError()
+    {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            long value = (long) Math.exp(random.nextDouble() * Math.log(1e12));
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE);
+
+            // The median reports the top of the bucket holding the value
+            long reported = histogram.getValueAtPercentile(50);
+            Assert.assertTrue(value + " reported as " + reported, reported >= value && reported <= value + value / 64);
+        }
+    }
+
+    @Test
+    public void testBucketBoundaries()
+    {
+        // Neighbouring values either share a bucket or start a new one just above
+        long previous = -1;
+        for (long value = 0; value < 1 << 15; value++) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE);
+            long top = histogram.getValueAtPercentile(50);
+            Assert.assertTrue(top >= value);
+            Assert.assertTrue(top == previous || previous < value);
+            previous = top;
+        }
+    }
+
+    @Test
+    public void testClamping()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        Assert.assertEquals(0, histogram.getMax());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(100));
+
+        histogram.record(Long.MAX_VALUE);
+        Assert.assertEquals((1L << 41) - 1, histogram.getMax());
+        Assert.assertEquals(histogram.getMax(), histogram.getValueAtPercentile(100));
+        Assert.assertEquals(0, new LatencyHistogram().getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception
+    {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= 100000; i++) {
+                        histogram.record(i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(400000, histogram.getCount());
+        Assert.assertEquals(100000, histogram.getMax());
+        Assert.assertEquals(50000.5, histogram.getMean(), 0.001);
+    }
+
+    @Test
+    public void testSendMetrics() throws Exception
+    {
+        PostmarkStubServer server = new PostmarkStubServer();
+        DefaultPostmarkMetrics metrics = new DefaultPostmarkMetrics();
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setMetrics(metrics);
+        PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), config);
+        try {
+            for (int i = 0; i < 3; i++) {
+                client.sendMessage(TestOutbox.message("user@email.com"));
+            }
+            server.setErrorRate(422, 1);
+            try {
+                client.sendMessage(TestOutbox.message("user@email.com"));
+                Assert.fail("Expected a rejection");
+            } catch (PostmarkException e) {
+                // Counted below
+            }
+            try {
+                client.sendMessage(TestOutbox.message("not an address"));
+                Assert.fail("Expected a validation error");
+            } catch (PostmarkException e) {
+                // Counted below
+            }
+        } finally {
+            client.close();
+            server.close();
+        }
+
+        Assert.assertEquals(3, metrics.getOutcomeCount("/email", PostmarkStatus.SUCCESS, 0));
+        Assert.assertEquals(1, metrics.getOutcomeCount("/email", PostmarkStatus.USERERROR, 300));
+        Assert.assertEquals(1, metrics.getOutcomeCount("/email", PostmarkStatus.USERERROR, 0));
+        Assert.assertEquals(5, metrics.getSendCount());
+        Assert.assertEquals(2, metrics.getFailedSendCount());
+        Assert.assertEquals(5, metrics.getSendHistogram("/email").getCount());
+
+        // Only messages that passed validation were serialized and sent
+        Assert.assertEquals(4, metrics.getPhaseHistogram(PostmarkMetrics.Phase.VALIDATION, "/email").getCount());
+        Assert.assertEquals(4, metrics.getPhaseHistogram(PostmarkMetrics.Phase.ROUND_TRIP, "/email").getCount());
+        Assert.assertEquals(4, metrics.getPhaseHistogram(PostmarkMetrics.Phase.SERIALIZATION, "/email").getCount());
+        Assert.assertEquals(3, metrics.getPhaseHistogram(PostmarkMetrics.Phase.PARSING, "/email").getCount());
+    }
+
+    @Test
+    public void testReadsAddNoSeries()
+    {
+        DefaultPostmarkMetrics metrics = new DefaultPostmarkMetrics();
+        metrics.recordSend("/email", PostmarkStatus.SUCCESS, 0, 1000);
+        Map<String, Long> counts = metrics.getOutcomeCounts();
+
+        Assert.assertEquals(0, metrics.getOutcomeCount("/unknown", PostmarkStatus.SERVERERROR, 0));
+        Assert.assertEquals(0, metrics.getOutcomeCount("/email", PostmarkStatus.USERERROR, 406));
+        Assert.assertEquals(0, metrics.getSendHistogram("/unknown").getCount());
+        Assert.assertEquals(0, metrics.getPhaseHistogram(PostmarkMetrics.Phase.PARSING, "/unknown").getCount());
+        Assert.assertEquals(counts, metrics.getOutcomeCounts());
+        Assert.assertTrue(metrics.getPhaseLatencyP99Millis().isEmpty());
+    }
+}
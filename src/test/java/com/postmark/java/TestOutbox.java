@@ -0,0 +1,309 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Sends from a {@link PostmarkOutbox} through {@link PostmarkStubServer}.
+ */
+public class TestOutbox {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PostmarkStubServer server;
+    private PostmarkClient client;
+    private Path directory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        server = new PostmarkStubServer();
+        client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath());
+        directory = folder.newFolder("outbox").toPath();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void testRequestErrorsKeepMessages() throws Exception
+    {
+        // A refused server token fails the whole request, not the messages
+        server.setErrorRate(401, 1);
+        PostmarkOutbox outbox = new PostmarkOutbox(client, directory, config(50));
+        final AtomicInteger rejected = new AtomicInteger();
+        outbox.setListener(new PostmarkOutboxListener() {
+            @Override
+            public void onDelivered(PostmarkResponse response) {
+            }
+
+            @Override
+            public void onRejected(String message, PostmarkResponse response) {
+                rejected.incrementAndGet();
+            }
+        });
+        try {
+            outbox.enqueue(message("a@email.com"));
+            outbox.enqueue(message("b@email.com"));
+            awaitRequests(3);
+            Assert.assertEquals(0, outbox.getRejectedCount());
+            Assert.assertEquals(0, rejected.get());
+
+            server.setErrorRate(401, 0);
+            awaitDelivered(outbox, 2);
+            Assert.assertEquals(0, outbox.getRejectedCount());
+        } finally {
+            outbox.close();
+        }
+    }
+
+    @Test
+    public void testBrokenMessageIsRefused() throws Exception
+    {
+        PostmarkOutbox outbox = new PostmarkOutbox(client, directory, config(50));
+        try {
+            outbox.enqueue(TestBatch.broken("a@email.com"));
+            Assert.fail("Expected the message to be refused");
+        } catch (PostmarkException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        } finally {
+            outbox.close();
+        }
+    }
+
+    @Test
+    public void testRejectedMessagesAreDropped() throws Exception
+    {
+        // On the batch endpoint each message is rejected with its own error code
+        server.setErrorRate(422, 1);
+        PostmarkOutbox outbox = new PostmarkOutbox(client, directory, config(50));
+        try {
+            outbox.enqueue(message("a@email.com"));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (outbox.getRejectedCount() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(1, outbox.getRejectedCount());
+            Assert.assertEquals(1, server.getRequestCount());
+        } finally {
+            outbox.close();
+        }
+    }
+
+    @Test
+    public void testRecoveryAfterRestart() throws Exception
+    {
+        fill(3);
+        Assert.assertEquals(0, server.getMessageCount());
+
+        PostmarkOutbox outbox = new PostmarkOutbox(client, directory, config(50));
+        try {
+            awaitDelivered(outbox, 3);
+        } finally {
+            outbox.close();
+        }
+        Assert.assertEquals(3, server.getMessageCount());
+
+        // Everything was sent, so a third outbox has nothing left to send
+        outbox = new PostmarkOutbox(client, directory, config(50));
+        try {
+            Thread.sleep(200);
+            Assert.assertEquals(0, outbox.getDeliveredCount());
+        } finally {
+            outbox.close();
+        }
+        Assert.assertEquals(3, server.getMessageCount());
+    }
+
+    @Test
+    public void testTornRecord() throws Exception
+    {
+        fill(2);
+        Path segment = segments().get(0);
+        byte[] log = Files.readAllBytes(segment);
+        Files.write(segment, Arrays.copyOf(log, log.length - 5));
+
+        PostmarkOutbox outbox = new PostmarkOutbox(client, directory, config(50));
+        try {
+            awaitDelivered(outbox, 1);
+            Thread.sleep(200);
+            Assert.assertEquals(1, server.getMessageCount());
+        } finally {
+            outbox.close();
+        }
+    }
+
+    @Test
+    public void testDamagedRecord() throws Exception
+    {
+        fill(2);
+        Path segment = segments().get(0);
+        byte[] log = Files.readAllBytes(segment);
+        // A record is its payload length, CRC32, type and payload
+        int second = 9 + ByteBuffer.wrap(log).getInt();
+        log[second + 9 + 2] ^= 1;
+        Files.write(segment, log);
+
+        PostmarkOutbox outbox = new PostmarkOutbox(client, directory, config(50));
+        try {
+            awaitDelivered(outbox, 1);
+            Thread.sleep(200);
+            Assert.assertEquals(1, server.getMessageCount());
+        } finally {
+            outbox.close();
+        }
+    }
+
+    @Test
+    public void testSegmentRollover() throws Exception
+    {
+        PostmarkOutboxConfig config = config(50);
+        config.setSegmentSizeBytes(1024);
+        config.setDrainBatchSize(3);
+        PostmarkOutbox outbox = new PostmarkOutbox(client, directory, config);
+        try {
+            for (int i = 0; i < 20; i++) {
+                outbox.enqueue(message("user" + i + "@email.com"));
+            }
+            awaitDelivered(outbox, 20);
+            Assert.assertTrue(server.getRequestCount() >= 7);
+        } finally {
+            outbox.close();
+        }
+
+        // Sent segments are deleted, and the checkpoint points past the rest
+        Assert.assertTrue(segments().size() <= 2);
+        Assert.assertTrue(Files.exists(directory.resolve("checkpoint")));
+        outbox = new PostmarkOutbox(client, directory, config);
+        try {
+            Thread.sleep(200);
+            Assert.assertEquals(0, outbox.getDeliveredCount());
+        } finally {
+            outbox.close();
+        }
+        Assert.assertEquals(20, server.getMessageCount());
+    }
+
+    @Test
+    public void testRetryDelay() throws Exception
+    {
+        server.setErrorRate(500, 1);
+        PostmarkOutbox outbox = new PostmarkOutbox(client, directory, config(200));
+        try {
+            outbox.enqueue(message("user@email.com"));
+            Thread.sleep(500);
+            // Sent at once, then once after each delay
+            long requests = server.getRequestCount();
+            Assert.assertTrue("Sent " + requests + " requests", requests >= 2 && requests <= 4);
+
+            server.setErrorRate(500, 0);
+            awaitDelivered(outbox, 1);
+            Assert.assertEquals(1, server.getMessageCount());
+        } finally {
+            outbox.close();
+        }
+    }
+
+    // Leaves messages in the outbox directory, unsent because the API fails
+    private void fill(int count) throws Exception
+    {
+        server.setErrorRate(500, 1);
+        PostmarkOutbox outbox = new PostmarkOutbox(client, directory, config(50));
+        try {
+            for (int i = 0; i < count; i++) {
+                outbox.enqueue(message("user" + i + "@email.com"));
+            }
+            awaitRequests(1);
+        } finally {
+            outbox.close();
+        }
+        server.setErrorRate(500, 0);
+    }
+
+    private List<Path> segments() throws IOException
+    {
+        List<Path> segments = new ArrayList<Path>();
+        DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.log");
+        try {
+            for (Path path : stream) {
+                if (Files.size(path) > 0) {
+                    segments.add(path);
+                }
+            }
+        } finally {
+            stream.close();
+        }
+        return segments;
+    }
+
+    static PostmarkMessage message(String to)
+    {
+        return new PostmarkMessage("team@company.com", to, null, null, "Test Subject", "<h1>Test heading</h1>", true, null);
+    }
+
+    private static PostmarkOutboxConfig config(long retryDelayMillis)
+    {
+        PostmarkOutboxConfig config = new PostmarkOutboxConfig();
+        config.setRetryDelayMillis(retryDelayMillis);
+        return config;
+    }
+
+    private void awaitRequests(long count) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getRequestCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(server.getRequestCount() >= count);
+    }
+
+    private static void awaitDelivered(PostmarkOutbox outbox, long count) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (outbox.getDeliveredCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, outbox.getDeliveredCount());
+    }
+}
@@ -0,0 +1,150 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the token bucket of {@link RateLimiter}.
+ */
+public class TestRateLimiter {
+
+    @Test
+    public void testBurst()
+    {
+        RateLimiter limiter = new RateLimiter(1, 5);
+        // A full bucket hands out the burst at once, then nothing more for now
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(0, limiter.reserve(1, 0));
+        }
+        Assert.assertFalse(limiter.tryAcquire());
+    }
+
+    @Test
+    public void testWait()
+    {
+        RateLimiter limiter = new RateLimiter(10, 1);
+        Assert.assertEquals(0, limiter.reserve(1, 0));
+
+        // The next permit comes one interval of 100 ms later
+        long wait = limiter.reserve(1, TimeUnit.SECONDS.toNanos(1));
+        Assert.assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(80) && wait <= TimeUnit.MILLISECONDS.toNanos(100));
+
+        // Reservations queue up behind each other
+        long next = limiter.reserve(1, TimeUnit.SECONDS.toNanos(1));
+        Assert.assertTrue(next > TimeUnit.MILLISECONDS.toNanos(180) && next <= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    @Test
+    public void testTimeoutRefusal()
+    {
+        RateLimiter limiter = new RateLimiter(10, 1);
+        Assert.assertEquals(0, limiter.reserve(1, 0));
+
+        // A refused reservation takes nothing, so a later one waits just as long
+        Assert.assertEquals(-1, limiter.reserve(1, TimeUnit.MILLISECONDS.toNanos(10)));
+        Assert.assertEquals(-1, limiter.reserve(1, TimeUnit.MILLISECONDS.toNanos(10)));
+        long wait = limiter.reserve(1, TimeUnit.SECONDS.toNanos(1));
+        Assert.assertTrue(wait <= TimeUnit.MILLISECONDS.toNanos(100));
+    }
+
+    @Test
+    public void testRefill() throws Exception
+    {
+        RateLimiter limiter = new RateLimiter(100, 2);
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertFalse(limiter.tryAcquire());
+
+        Thread.sleep(30);
+        Assert.assertTrue(limiter.tryAcquire());
+        Assert.assertTrue(limiter.tryAcquire(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSharedByServerToken()
+    {
+        int shared = RateLimiter.sharedCount();
+        RateLimiter limiter = RateLimiter.forServerToken("TestRateLimiter", 10, 3);
+        // Conflicting settings are logged and the first ones kept
+        Assert.assertSame(limiter, RateLimiter.forServerToken("TestRateLimiter", 50, 20));
+        Assert.assertEquals(3, limiter.getBurst());
+        RateLimiter other = RateLimiter.forServerToken("TestRateLimiter-other", 10, 3);
+        Assert.assertNotSame(limiter, other);
+        Assert.assertEquals(shared + 2, RateLimiter.sharedCount());
+
+        // The limiter is forgotten once every holder has released it
+        limiter.release();
+        Assert.assertSame(limiter, RateLimiter.forServerToken("TestRateLimiter", 10, 3));
+        limiter.release();
+        limiter.release();
+        other.release();
+        Assert.assertEquals(shared, RateLimiter.sharedCount());
+        Assert.assertNotSame(limiter, RateLimiter.forServerToken("TestRateLimiter", 10, 3));
+    }
+
+    @Test
+    public void testClientReleasesLimiter() throws Exception
+    {
+        int shared = RateLimiter.sharedCount();
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setRateLimitPerSecond(10);
+        PostmarkClient first = new PostmarkClient("TestRateLimiter-clients", "http://127.0.0.1:1", config);
+        PostmarkClient second = new PostmarkClient("TestRateLimiter-clients", "http://127.0.0.1:1", config);
+        Assert.assertEquals(shared + 1, RateLimiter.sharedCount());
+
+        first.close();
+        first.close();
+        Assert.assertEquals(shared + 1, RateLimiter.sharedCount());
+        second.close();
+        Assert.assertEquals(shared, RateLimiter.sharedCount());
+    }
+
+    @Test
+    public void testThrottledSends() throws Exception
+    {
+        PostmarkStubServer server = new PostmarkStubServer();
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setRateLimitPerSecond(1);
+        config.setRateLimitBurst(2);
+        config.setRateLimitMaxWaitMillis(0);
+        PostmarkClient client = new PostmarkClient("TestRateLimiter-sends", server.getServerPath(), config);
+        try {
+            client.sendMessage(TestOutbox.message("user@email.com"));
+            client.sendMessage(TestOutbox.message("user@email.com"));
+            try {
+                client.sendMessage(TestOutbox.message("user@email.com"));
+                Assert.fail("Expected to be throttled");
+            } catch (PostmarkException e) {
+                Assert.assertEquals(PostmarkStatus.THROTTLED, e.getResponse().getStatus());
+            }
+            Assert.assertEquals(2, server.getRequestCount());
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+}
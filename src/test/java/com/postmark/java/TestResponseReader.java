@@ -0,0 +1,238 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+
+package com.postmark.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.google.gson.stream.JsonReader;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Decodes bodies with {@link ResponseReader}, and reads empty, error,
+ * non-JSON and truncated responses of {@link PostmarkStubServer}.
+ */
+public class TestResponseReader {
+
+    private PostmarkStubServer server;
+    private PostmarkClient client;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        server = new PostmarkStubServer();
+        client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void testCharactersSplitAcrossReads() throws Exception
+    {
+        // Every read of the stream returns a single byte, so each multi-byte
+        // character arrives in pieces
+        String text = "J\u00fcrgen paid 5\u20ac \ud83d\udce7";
+        ResponseReader reader = ResponseReader.open(new TrickleStream(text.getBytes(StandardCharsets.UTF_8), 1, -1));
+        Assert.assertEquals(text, reader.readUpTo(1000));
+        Assert.assertEquals(-1, reader.read(new char[8], 0, 8));
+        reader.close();
+    }
+
+    @Test
+    public void testBodyLargerThanBuffer() throws Exception
+    {
+        char[] content = new char[50000];
+        Arrays.fill(content, '\u00e9');
+        String json = "{\"Message\":\"" + new String(content) + "\",\"ErrorCode\":406}";
+
+        ResponseReader reader = ResponseReader.open(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+        PostmarkResponse response = PostmarkGson.INSTANCE.fromJson(new JsonReader(reader), PostmarkResponse.class);
+        reader.close();
+        Assert.assertEquals(50000, response.getMessage().length());
+        Assert.assertEquals(406, response.getErrorCode());
+    }
+
+    @Test
+    public void testEmptyBody() throws Exception
+    {
+        ResponseReader reader = ResponseReader.open(new ByteArrayInputStream(new byte[0]));
+        Assert.assertEquals(-1, reader.read(new char[8], 0, 8));
+        reader.close();
+
+        reader = ResponseReader.open(new ByteArrayInputStream(new byte[0]));
+        Assert.assertEquals("", reader.readUpTo(100));
+        reader.close();
+    }
+
+    @Test
+    public void testTruncatedCharacter() throws Exception
+    {
+        // The body ends in the middle of the three bytes of a euro sign
+        byte[] bytes = Arrays.copyOf("5\u20ac".getBytes(StandardCharsets.UTF_8), 3);
+        ResponseReader reader = ResponseReader.open(new ByteArrayInputStream(bytes));
+        Assert.assertEquals("5\ufffd", reader.readUpTo(100));
+        reader.close();
+    }
+
+    @Test
+    public void testStreamFailure() throws Exception
+    {
+        byte[] bytes = "{\"Message\":\"OK\",\"ErrorCode\":0}".getBytes(StandardCharsets.UTF_8);
+        ResponseReader reader = ResponseReader.open(new TrickleStream(bytes, 4, 12));
+        try {
+            reader.readUpTo(100);
+            Assert.fail("Expected the stream failure");
+        } catch (IOException e) {
+            Assert.assertEquals("Connection reset", e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testReuse() throws Exception
+    {
+        ResponseReader reader = ResponseReader.open(new ByteArrayInputStream("first body".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertEquals("first", reader.readUpTo(5));
+        reader.close();
+        try {
+            reader.read(new char[8], 0, 8);
+            Assert.fail("Expected the reader to be closed");
+        } catch (IOException e) {
+            // Closed
+        }
+
+        // The same thread gets the same reader, without the bytes left over
+        ResponseReader again = ResponseReader.open(new ByteArrayInputStream("second".getBytes(StandardCharsets.UTF_8)));
+        Assert.assertSame(reader, again);
+        Assert.assertEquals("second", again.readUpTo(100));
+        again.close();
+    }
+
+    @Test
+    public void testErrorBody() throws Exception
+    {
+        server.setErrorRate(422, 1);
+        try {
+            client.sendMessage(TestOutbox.message("user@email.com"));
+            Assert.fail("Expected an error");
+        } catch (PostmarkException e) {
+            Assert.assertEquals(PostmarkStatus.USERERROR, e.getResponse().getStatus());
+            Assert.assertEquals(300, e.getResponse().getErrorCode());
+            Assert.assertEquals("Invalid email request", e.getResponse().getMessage());
+        }
+    }
+
+    @Test
+    public void testNonJsonErrorBody() throws Exception
+    {
+        server.setErrorRate(401, 1);
+        server.setErrorBody(401, "<html><body>Bad gateway</body></html>");
+        try {
+            client.sendMessage(TestOutbox.message("user@email.com"));
+            Assert.fail("Expected an error");
+        } catch (PostmarkException e) {
+            Assert.assertEquals(PostmarkStatus.USERERROR, e.getResponse().getStatus());
+            Assert.assertEquals("Unexpected response status: 401", e.getResponse().getMessage());
+        }
+
+        // The connection is still usable for the next send
+        server.setErrorRate(401, 0);
+        Assert.assertEquals(PostmarkStatus.SUCCESS, client.sendMessage(TestOutbox.message("user@email.com")).getStatus());
+    }
+
+    @Test
+    public void testTruncatedResponse() throws Exception
+    {
+        // A body cut short fails the send as an I/O error, whether it is a
+        // result or an error
+        server.setTruncateRate(1);
+        try {
+            client.sendMessage(TestOutbox.message("user@email.com"));
+            Assert.fail("Expected an error");
+        } catch (PostmarkException e) {
+            Assert.assertNull(e.getResponse());
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+
+        server.setErrorRate(422, 1);
+        try {
+            client.sendMessage(TestOutbox.message("user@email.com"));
+            Assert.fail("Expected an error");
+        } catch (PostmarkException e) {
+            Assert.assertNull(e.getResponse());
+            Assert.assertTrue(e.getCause() instanceof IOException);
+        }
+
+        server.setTruncateRate(0);
+        server.setErrorRate(422, 0);
+        Assert.assertEquals(PostmarkStatus.SUCCESS, client.sendMessage(TestOutbox.message("user@email.com")).getStatus());
+    }
+
+    // Returns at most chunk bytes per read, and fails once failAt bytes are read
+    private static class TrickleStream extends InputStream {
+
+        private final byte[] bytes;
+        private final int chunk;
+        private final int failAt;
+        private int pos;
+
+        TrickleStream(byte[] bytes, int chunk, int failAt) {
+            this.bytes = bytes;
+            this.chunk = chunk;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return (read(one, 0, 1) < 0) ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (failAt >= 0 && pos >= failAt) {
+                throw new IOException("Connection reset");
+            }
+            if (pos == bytes.length) {
+                return -1;
+            }
+            int n = Math.min(Math.min(len, chunk), bytes.length - pos);
+            System.arraycopy(bytes, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+
+import org.apache.http.client.ClientProtocolException;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the backoff of {@link RetryPolicy} and the limit {@link RetryBudget}
+ * puts on retries.
+ */
+public class TestRetryPolicy {
+
+    @Test
+    public void testJitterBounds()
+    {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setBaseDelayMillis(100);
+        policy.setMaxDelayMillis(1000);
+
+        // Full jitter: anywhere between 0 and the doubled base, up to the maximum
+        long[] caps = {100, 200, 400, 800, 1000, 1000};
+        for (int retry = 1; retry <= caps.length; retry++) {
+            long max = 0;
+            for (int i = 0; i < 2000; i++) {
+                long delay = policy.delayMillis(retry, -1);
+                Assert.assertTrue(delay >= 0 && delay <= caps[retry - 1]);
+                max = Math.max(max, delay);
+            }
+            Assert.assertTrue(max > caps[retry - 1] / 2);
+        }
+        Assert.assertTrue(policy.delayMillis(100, -1) <= 1000);
+    }
+
+    @Test
+    public void testRetryAfter()
+    {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setBaseDelayMillis(10);
+        policy.setMaxDelayMillis(5000);
+
+        for (int i = 0; i < 100; i++) {
+            Assert.assertTrue(policy.delayMillis(1, 2000) >= 2000);
+        }
+        // A longer wait than the maximum is not retried at all
+        Assert.assertEquals(-1, policy.delayMillis(1, 6000));
+    }
+
+    @Test
+    public void testRetryable()
+    {
+        RetryPolicy policy = new RetryPolicy();
+        for (int status : new int[] {429, 500, 502, 503, 504}) {
+            Assert.assertTrue(policy.isRetryable(status));
+        }
+        for (int status : new int[] {400, 401, 404, 422}) {
+            Assert.assertFalse(policy.isRetryable(status));
+        }
+        Assert.assertTrue(policy.isRetryable(new IOException()));
+        Assert.assertFalse(policy.isRetryable(new ClientProtocolException()));
+        Assert.assertFalse(policy.isRetryable(new UnknownHostException()));
+
+        policy.setRetryOnIOException(false);
+        Assert.assertFalse(policy.isRetryable(new IOException()));
+    }
+
+    @Test
+    public void testBudget()
+    {
+        RetryBudget budget = new RetryBudget(0.1, 2);
+        Assert.assertTrue(budget.tryRetry());
+        Assert.assertTrue(budget.tryRetry());
+        Assert.assertFalse(budget.tryRetry());
+
+        // Every ten requests earn one retry
+        for (int i = 0; i < 9; i++) {
+            budget.onRequest();
+        }
+        Assert.assertFalse(budget.tryRetry());
+        budget.onRequest();
+        Assert.assertTrue(budget.tryRetry());
+
+        // The balance never grows past the capacity
+        for (int i = 0; i < 1000; i++) {
+            budget.onRequest();
+        }
+        Assert.assertTrue(budget.tryRetry());
+        Assert.assertTrue(budget.tryRetry());
+        Assert.assertFalse(budget.tryRetry());
+    }
+
+    @Test
+    public void testRetriesAgainstStub() throws Exception
+    {
+        PostmarkStubServer server = new PostmarkStubServer();
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(3);
+        policy.setBaseDelayMillis(1);
+        policy.setMaxDelayMillis(1500);
+        policy.setRetryBudgetRatio(1);
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setRetryPolicy(policy);
+        PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), config);
+        try {
+            // Retry-After is honoured
+            server.setErrorRate(429, 1);
+            server.setRetryAfterSeconds(1);
+            long start = System.nanoTime();
+            try {
+                client.sendMessage(TestOutbox.message("user@email.com"));
+                Assert.fail("Expected to be throttled");
+            } catch (PostmarkException e) {
+                Assert.assertEquals(PostmarkStatus.THROTTLED, e.getResponse().getStatus());
+            }
+            Assert.assertEquals(3, server.getRequestCount());
+            Assert.assertTrue(System.nanoTime() - start >= 2000000000L);
+
+            // ...unless it asks for more than the maximum delay
+            server.setRetryAfterSeconds(2);
+            try {
+                client.sendMessage(TestOutbox.message("user@email.com"));
+                Assert.fail("Expected to be throttled");
+            } catch (PostmarkException e) {
+                Assert.assertEquals(4, server.getRequestCount());
+            }
+
+            // Rejections are never retried
+            server.setErrorRate(429, 0);
+            server.setErrorRate(422, 1);
+            try {
+                client.sendMessage(TestOutbox.message("user@email.com"));
+                Assert.fail("Expected a rejection");
+            } catch (PostmarkException e) {
+                Assert.assertEquals(5, server.getRequestCount());
+            }
+        } finally {
+            client.close();
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that single sends are grouped into batch requests when a linger
+ * time is configured.
+ */
+public class TestSendCoalescer {
+
+    private PostmarkStubServer server;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        server = new PostmarkStubServer();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        server.close();
+    }
+
+    @Test
+    public void testLingerFlush() throws Exception
+    {
+        PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), config(100, 500));
+        try {
+            long start = System.nanoTime();
+            List<CompletableFuture<PostmarkResponse>> futures = sendAsync(client, 3);
+            for (CompletableFuture<PostmarkResponse> future : futures) {
+                Assert.assertEquals(PostmarkStatus.SUCCESS, future.get(5, TimeUnit.SECONDS).getStatus());
+            }
+            // The first message waited out the linger time for the others
+            Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+            Assert.assertEquals(1, server.getRequestCount());
+            Assert.assertEquals(3, server.getMessageCount());
+            Assert.assertEquals("user2@email.com", futures.get(2).get().getTo());
+
+            // A blocking send lingers too
+            Assert.assertEquals(PostmarkStatus.SUCCESS, client.sendMessage(TestOutbox.message("user@email.com")).getStatus());
+            Assert.assertEquals(2, server.getRequestCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testMaxSizeFlush() throws Exception
+    {
+        PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), config(60000, 3));
+        List<CompletableFuture<PostmarkResponse>> futures;
+        try {
+            // A full batch goes out without waiting for the linger time
+            futures = sendAsync(client, 4);
+            for (int i = 0; i < 3; i++) {
+                Assert.assertEquals(PostmarkStatus.SUCCESS, futures.get(i).get(5, TimeUnit.SECONDS).getStatus());
+            }
+            Assert.assertEquals(1, server.getRequestCount());
+            Assert.assertFalse(futures.get(3).isDone());
+        } finally {
+            client.close();
+        }
+
+        // Closing sends what is still waiting
+        Assert.assertEquals(PostmarkStatus.SUCCESS, futures.get(3).get(5, TimeUnit.SECONDS).getStatus());
+        Assert.assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testKindsBatchedApart() throws Exception
+    {
+        PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), config(50, 500));
+        try {
+            CompletableFuture<PostmarkResponse> message = client.sendMessageAsync(TestOutbox.message("user@email.com"));
+            CompletableFuture<PostmarkResponse> template = client.sendMessageAsync(new PostmarkTemplate("team@company.com",
+                    "user@email.com", null, null, null, 1, new TestClient.TestModel(), true));
+            Assert.assertEquals(PostmarkStatus.SUCCESS, message.get(5, TimeUnit.SECONDS).getStatus());
+            Assert.assertEquals(PostmarkStatus.SUCCESS, template.get(5, TimeUnit.SECONDS).getStatus());
+            Assert.assertEquals(2, server.getRequestCount());
+        } finally {
+            client.close();
+        }
+    }
+
+    private static PostmarkClientConfig config(long lingerMillis, int maxLingerMessages)
+    {
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setLingerMillis(lingerMillis);
+        config.setMaxLingerMessages(maxLingerMessages);
+        return config;
+    }
+
+    private static List<CompletableFuture<PostmarkResponse>> sendAsync(PostmarkClient client, int count)
+    {
+        List<CompletableFuture<PostmarkResponse>> futures = new ArrayList<CompletableFuture<PostmarkResponse>>();
+        for (int i = 0; i < count; i++) {
+            futures.add(client.sendMessageAsync(TestOutbox.message("user" + i + "@email.com")));
+        }
+        return futures;
+    }
+}
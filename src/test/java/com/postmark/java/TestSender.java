@@ -0,0 +1,325 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends from a {@link PostmarkSender} through {@link PostmarkStubServer},
+ * and checks the ring buffers its workers read from.
+ */
+public class TestSender {
+
+    private PostmarkStubServer server;
+    private PostmarkClient client;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        server = new PostmarkStubServer();
+        client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void testRingBuffer() throws Exception
+    {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<Integer>(3);
+        Assert.assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(buffer.offer(i));
+        }
+        Assert.assertFalse(buffer.offer(4));
+
+        List<Integer> drained = new ArrayList<Integer>();
+        Assert.assertEquals(2, buffer.drain(drained, 2));
+        Assert.assertEquals(2, buffer.drain(drained, 10));
+        Assert.assertEquals(Arrays.asList(0, 1, 2, 3), drained);
+        Assert.assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testRingBufferProducers() throws Exception
+    {
+        final int producers = 4;
+        final int perProducer = 20000;
+        final MpscRingBuffer<Integer> buffer = new MpscRingBuffer<Integer>(1024);
+
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!buffer.offer(producer * perProducer + i)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        // Every element arrives once, in the order its producer added it
+        int[] next = new int[producers];
+        int received = 0;
+        List<Integer> drained = new ArrayList<Integer>();
+        long deadline = System.currentTimeMillis() + 30000;
+        while (received < producers * perProducer && System.currentTimeMillis() < deadline) {
+            drained.clear();
+            buffer.drain(drained, 32);
+            for (Integer element : drained) {
+                int producer = element / perProducer;
+                Assert.assertEquals(next[producer]++, element % perProducer);
+                received++;
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(producers * perProducer, received);
+        Assert.assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentSubmitters() throws Exception
+    {
+        final PostmarkSender sender = new PostmarkSender(client);
+        final Queue<CompletableFuture<PostmarkResponse>> futures = new ConcurrentLinkedQueue<CompletableFuture<PostmarkResponse>>();
+        try {
+            Thread[] threads = new Thread[8];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < 250; i++) {
+                            futures.add(sender.submit(TestOutbox.message("user" + i + "@email.com")));
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            for (CompletableFuture<PostmarkResponse> future : futures) {
+                Assert.assertEquals(PostmarkStatus.SUCCESS, future.get(10, TimeUnit.SECONDS).getStatus());
+            }
+        } finally {
+            sender.close();
+        }
+        Assert.assertEquals(2000, server.getMessageCount());
+        // Messages that piled up went out together
+        Assert.assertTrue(server.getRequestCount() < 2000);
+    }
+
+    @Test
+    public void testDrop() throws Exception
+    {
+        server.setLatency(PostmarkStubServer.Latency.fixed(100));
+        PostmarkSender sender = new PostmarkSender(client, slowConfig(BackpressurePolicy.DROP));
+        int sent = 0;
+        int dropped = 0;
+        try {
+            List<CompletableFuture<PostmarkResponse>> futures = submit(sender, 10);
+            for (CompletableFuture<PostmarkResponse> future : futures) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                    sent++;
+                } catch (ExecutionException e) {
+                    PostmarkException cause = (PostmarkException) e.getCause();
+                    Assert.assertEquals(PostmarkStatus.THROTTLED, cause.getResponse().getStatus());
+                    dropped++;
+                }
+            }
+        } finally {
+            sender.close();
+        }
+        Assert.assertTrue(dropped > 0);
+        Assert.assertEquals(10, sent + dropped);
+        Assert.assertEquals(sent, server.getMessageCount());
+    }
+
+    @Test
+    public void testCallerRuns() throws Exception
+    {
+        server.setLatency(PostmarkStubServer.Latency.fixed(100));
+        PostmarkSender sender = new PostmarkSender(client, slowConfig(BackpressurePolicy.CALLER_RUNS));
+        try {
+            int ranByCaller = 0;
+            List<CompletableFuture<PostmarkResponse>> futures = new ArrayList<CompletableFuture<PostmarkResponse>>();
+            for (int i = 0; i < 6; i++) {
+                CompletableFuture<PostmarkResponse> future = sender.submit(TestOutbox.message("user" + i + "@email.com"));
+                // A message the buffers had no room for was sent by this thread
+                if (future.isDone()) {
+                    ranByCaller++;
+                }
+                futures.add(future);
+            }
+            Assert.assertTrue(ranByCaller > 0);
+            for (CompletableFuture<PostmarkResponse> future : futures) {
+                Assert.assertEquals(PostmarkStatus.SUCCESS, future.get(10, TimeUnit.SECONDS).getStatus());
+            }
+        } finally {
+            sender.close();
+        }
+        Assert.assertEquals(6, server.getMessageCount());
+    }
+
+    @Test
+    public void testBlock() throws Exception
+    {
+        server.setLatency(PostmarkStubServer.Latency.fixed(20));
+        PostmarkSender sender = new PostmarkSender(client, slowConfig(BackpressurePolicy.BLOCK));
+        try {
+            for (CompletableFuture<PostmarkResponse> future : submit(sender, 10)) {
+                Assert.assertEquals(PostmarkStatus.SUCCESS, future.get(10, TimeUnit.SECONDS).getStatus());
+            }
+        } finally {
+            sender.close();
+        }
+        Assert.assertEquals(10, server.getMessageCount());
+    }
+
+    @Test
+    public void testCloseSendsQueued() throws Exception
+    {
+        server.setLatency(PostmarkStubServer.Latency.fixed(20));
+        PostmarkSenderConfig config = new PostmarkSenderConfig();
+        config.setWorkerThreads(1);
+        config.setMinBatchSize(100);
+        PostmarkSender sender = new PostmarkSender(client, config);
+
+        List<CompletableFuture<PostmarkResponse>> futures = submit(sender, 20);
+        sender.close();
+        for (CompletableFuture<PostmarkResponse> future : futures) {
+            Assert.assertTrue(future.isDone());
+            Assert.assertEquals(PostmarkStatus.SUCCESS, future.get().getStatus());
+        }
+        Assert.assertEquals(20, server.getMessageCount());
+
+        try {
+            sender.submit(TestOutbox.message("late@email.com")).get();
+            Assert.fail("Expected the sender to be closed");
+        } catch (ExecutionException e) {
+            Assert.assertEquals("The sender is closed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testCloseWhileSubmitting() throws Exception
+    {
+        for (int round = 0; round < 20; round++) {
+            final PostmarkSender sender = new PostmarkSender(client);
+            final Queue<CompletableFuture<PostmarkResponse>> futures = new ConcurrentLinkedQueue<CompletableFuture<PostmarkResponse>>();
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < 200; i++) {
+                            futures.add(sender.submit(TestOutbox.message("user" + i + "@email.com")));
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            Thread.sleep(2);
+            sender.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            // Every submission is either sent or fails as closed, none is lost
+            for (CompletableFuture<PostmarkResponse> future : futures) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    Assert.assertEquals("The sender is closed", e.getCause().getMessage());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCloseFromCallback() throws Exception
+    {
+        server.setLatency(PostmarkStubServer.Latency.fixed(100));
+        PostmarkSenderConfig config = new PostmarkSenderConfig();
+        config.setWorkerThreads(1);
+        final PostmarkSender sender = new PostmarkSender(client, config);
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        // The callback runs on the worker, which must not wait for itself
+        sender.submit(TestOutbox.message("user@email.com")).whenComplete(new BiConsumer<PostmarkResponse, Throwable>() {
+            @Override
+            public void accept(PostmarkResponse response, Throwable failure) {
+                sender.close();
+                closed.countDown();
+            }
+        });
+        Assert.assertTrue(closed.await(10, TimeUnit.SECONDS));
+        sender.close();
+    }
+
+    // One worker with room for two messages, sending them one by one
+    private static PostmarkSenderConfig slowConfig(BackpressurePolicy policy)
+    {
+        PostmarkSenderConfig config = new PostmarkSenderConfig();
+        config.setWorkerThreads(1);
+        config.setQueueCapacity(2);
+        config.setMinBatchSize(100);
+        config.setBackpressurePolicy(policy);
+        return config;
+    }
+
+    private static List<CompletableFuture<PostmarkResponse>> submit(PostmarkSender sender, int count)
+    {
+        List<CompletableFuture<PostmarkResponse>> futures = new ArrayList<CompletableFuture<PostmarkResponse>>();
+        for (int i = 0; i < count; i++) {
+            futures.add(sender.submit(TestOutbox.message("user" + i + "@email.com")));
+        }
+        return futures;
+    }
+}
@@ -0,0 +1,213 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends through {@link PostmarkStubServer} to check the client against
+ * Postmark-shaped responses, injected errors and reset connections.
+ */
+public class TestStubServer {
+
+    private PostmarkStubServer server;
+    private PostmarkClient client;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        server = new PostmarkStubServer();
+        client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void testSend() throws Exception
+    {
+        PostmarkResponse response = client.sendMessage(message("user@email.com"));
+        Assert.assertEquals(PostmarkStatus.SUCCESS, response.getStatus());
+        Assert.assertEquals("user@email.com", response.getTo());
+        Assert.assertNotNull(response.messageId);
+
+        PostmarkTemplate template = new PostmarkTemplate("team@company.com", "user@email.com", null, null, null, 1,
+                new TestClient.TestModel(), true);
+        Assert.assertEquals(PostmarkStatus.SUCCESS, client.sendMessage(template).getStatus());
+
+        List<PostmarkResponse> responses = client.sendMessages(Arrays.asList(message("a@email.com"), message("b@email.com")));
+        Assert.assertEquals(PostmarkStatus.SUCCESS, responses.get(0).getStatus());
+        Assert.assertEquals("b@email.com", responses.get(1).getTo());
+
+        Assert.assertEquals(PostmarkStatus.SUCCESS, client.sendMessageAsync(message("c@email.com")).get().getStatus());
+        Assert.assertEquals(5, server.getMessageCount());
+    }
+
+    @Test
+    public void testInjectedErrors() throws Exception
+    {
+        server.setErrorRate(422, 1);
+        try {
+            client.sendMessage(message("user@email.com"));
+            Assert.fail("Expected a rejection");
+        } catch (PostmarkException e) {
+            Assert.assertEquals(PostmarkStatus.USERERROR, e.getResponse().getStatus());
+        }
+
+        // On the batch endpoint each message is rejected in a successful response
+        List<PostmarkResponse> responses = client.sendMessages(Arrays.asList(message("a@email.com"), message("b@email.com")));
+        Assert.assertEquals(PostmarkStatus.USERERROR, responses.get(1).getStatus());
+        Assert.assertEquals(406, responses.get(1).getErrorCode());
+
+        server.setErrorRate(422, 0);
+        server.setErrorRate(500, 1);
+        PostmarkClient retrying = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), retryingConfig());
+        try {
+            retrying.sendMessage(message("user@email.com"));
+            Assert.fail("Expected a server error");
+        } catch (PostmarkException e) {
+            Assert.assertEquals(PostmarkStatus.SERVERERROR, e.getResponse().getStatus());
+        } finally {
+            retrying.close();
+        }
+        Assert.assertEquals(3, server.getResponseCount(500));
+    }
+
+    @Test
+    public void testErrorDetails() throws Exception
+    {
+        server.setErrorRate(401, 1);
+        try {
+            client.sendMessage(message("user@email.com"));
+            Assert.fail("Expected a rejection");
+        } catch (PostmarkException e) {
+            Assert.assertEquals(10, e.getResponse().getErrorCode());
+            Assert.assertEquals("Bad or missing API token", e.getMessage());
+            Assert.assertEquals(0, e.getStackTrace().length);
+        }
+
+        // Batch and async sends report the same error without throwing
+        List<PostmarkResponse> responses = client.sendMessages(Arrays.asList(message("a@email.com"), message("b@email.com")));
+        for (PostmarkResponse response : responses) {
+            Assert.assertEquals(PostmarkStatus.USERERROR, response.getStatus());
+            Assert.assertEquals(10, response.getErrorCode());
+        }
+
+        try {
+            client.sendMessageAsync(message("user@email.com")).get();
+            Assert.fail("Expected a rejection");
+        } catch (ExecutionException e) {
+            PostmarkException cause = (PostmarkException) e.getCause();
+            Assert.assertEquals(PostmarkStatus.USERERROR, cause.getResponse().getStatus());
+            Assert.assertEquals(10, cause.getResponse().getErrorCode());
+        }
+    }
+
+    @Test
+    public void testEmptyResponse() throws Exception
+    {
+        server.setEmptyResponseRate(1);
+        try {
+            client.sendMessage(message("user@email.com"));
+            Assert.fail("Expected an error");
+        } catch (PostmarkException e) {
+            Assert.assertEquals(PostmarkStatus.UNKNOWN, e.getResponse().getStatus());
+        }
+
+        try {
+            client.sendMessageAsync(message("user@email.com")).get(5, TimeUnit.SECONDS);
+            Assert.fail("Expected an error");
+        } catch (ExecutionException e) {
+            Assert.assertEquals(PostmarkStatus.UNKNOWN, ((PostmarkException) e.getCause()).getResponse().getStatus());
+        }
+    }
+
+    @Test
+    public void testResetConnections() throws Exception
+    {
+        server.setResetRate(1);
+        PostmarkClient retrying = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), retryingConfig());
+        try {
+            retrying.sendMessage(message("user@email.com"));
+            Assert.fail("Expected the connection to be reset");
+        } catch (PostmarkException e) {
+            Assert.assertEquals(3, server.getResetCount());
+        } finally {
+            retrying.close();
+        }
+
+        // With half the connections reset, retries still get every message through
+        server.setResetRate(0.5);
+        retrying = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), retryingConfig(20));
+        try {
+            for (int i = 0; i < 20; i++) {
+                Assert.assertEquals(PostmarkStatus.SUCCESS, retrying.sendMessage(message("user@email.com")).getStatus());
+            }
+        } finally {
+            retrying.close();
+        }
+    }
+
+    @Test
+    public void testLatency() throws Exception
+    {
+        server.setLatency(PostmarkStubServer.Latency.fixed(50));
+        long start = System.nanoTime();
+        client.sendMessage(message("user@email.com"));
+        Assert.assertTrue(System.nanoTime() - start >= 50000000L);
+    }
+
+    private static PostmarkMessage message(String to)
+    {
+        return new PostmarkMessage("team@company.com", to, null, null, "Test Subject", "<h1>Test heading</h1>", true, null);
+    }
+
+    private static PostmarkClientConfig retryingConfig()
+    {
+        return retryingConfig(3);
+    }
+
+    private static PostmarkClientConfig retryingConfig(int maxAttempts)
+    {
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(maxAttempts);
+        policy.setBaseDelayMillis(1);
+        policy.setMaxDelayMillis(1);
+        policy.setRetryBudgetRatio(1);
+
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setRetryPolicy(policy);
+        return config;
+    }
+}
@@ -0,0 +1,199 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the connection timeouts and the per-send deadline against a slow
+ * {@link PostmarkStubServer}.
+ */
+public class TestTimeouts {
+
+    private PostmarkStubServer server;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        server = new PostmarkStubServer();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        server.close();
+    }
+
+    @Test
+    public void testReadTimeout() throws Exception
+    {
+        server.setLatency(PostmarkStubServer.Latency.fixed(1000));
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setReadTimeoutMillis(100);
+        PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), config);
+        long start = System.nanoTime();
+        try {
+            client.sendMessage(TestOutbox.message("user@email.com"));
+            Assert.fail("Expected the read to time out");
+        } catch (PostmarkException e) {
+            assertWithin(start, 100, 800);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testSendDeadline() throws Exception
+    {
+        server.setLatency(PostmarkStubServer.Latency.fixed(1000));
+        PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), deadlineConfig(150));
+        try {
+            long start = System.nanoTime();
+            try {
+                client.sendMessage(TestOutbox.message("user@email.com"));
+                Assert.fail("Expected the send to time out");
+            } catch (PostmarkException e) {
+                Assert.assertEquals(PostmarkStatus.TIMEOUT, e.getResponse().getStatus());
+                assertWithin(start, 150, 800);
+            }
+
+            start = System.nanoTime();
+            try {
+                client.sendMessageAsync(TestOutbox.message("user@email.com")).get();
+                Assert.fail("Expected the send to time out");
+            } catch (ExecutionException e) {
+                Assert.assertEquals(PostmarkStatus.TIMEOUT, ((PostmarkException) e.getCause()).getResponse().getStatus());
+                assertWithin(start, 150, 800);
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testDeadlineCoversRetries() throws Exception
+    {
+        server.setErrorRate(500, 1);
+        server.setLatency(PostmarkStubServer.Latency.fixed(50));
+        PostmarkClientConfig config = deadlineConfig(300);
+        RetryPolicy policy = new RetryPolicy();
+        policy.setMaxAttempts(100);
+        policy.setBaseDelayMillis(20);
+        policy.setMaxDelayMillis(20);
+        policy.setRetryBudgetRatio(1);
+        policy.setRetryBudgetCapacity(1000);
+        config.setRetryPolicy(policy);
+        PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), config);
+        long start = System.nanoTime();
+        try {
+            client.sendMessage(TestOutbox.message("user@email.com"));
+            Assert.fail("Expected the send to fail");
+        } catch (PostmarkException e) {
+            // Retries stop at the deadline instead of using up the attempts
+            assertWithin(start, 0, 800);
+            Assert.assertTrue(server.getRequestCount() > 1 && server.getRequestCount() < 10);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testDeadlineCoversRateLimiting() throws Exception
+    {
+        PostmarkClientConfig config = deadlineConfig(200);
+        config.setRateLimitPerSecond(1);
+        config.setRateLimitBurst(1);
+        config.setRateLimitMaxWaitMillis(10000);
+        PostmarkClient client = new PostmarkClient("TestTimeouts-rate", server.getServerPath(), config);
+        try {
+            client.sendMessage(TestOutbox.message("user@email.com"));
+            long start = System.nanoTime();
+            try {
+                client.sendMessage(TestOutbox.message("user@email.com"));
+                Assert.fail("Expected to be throttled");
+            } catch (PostmarkException e) {
+                // The wait for a permit would pass the deadline, so it fails at once
+                Assert.assertEquals(PostmarkStatus.THROTTLED, e.getResponse().getStatus());
+                assertWithin(start, 0, 150);
+            }
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testConnectionRequestTimeout() throws Exception
+    {
+        server.setLatency(PostmarkStubServer.Latency.fixed(1000));
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setMaxTotalConnections(1);
+        config.setMaxConnectionsPerRoute(1);
+        config.setConnectionRequestTimeoutMillis(100);
+        final PostmarkClient client = new PostmarkClient("POSTMARK_API_TEST", server.getServerPath(), config);
+        try {
+            // Hold the only connection
+            Thread holder = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        client.sendMessage(TestOutbox.message("user@email.com"));
+                    } catch (PostmarkException e) {
+                        // Not what is tested
+                    }
+                }
+            });
+            holder.start();
+            Thread.sleep(200);
+
+            long start = System.nanoTime();
+            try {
+                client.sendMessage(TestOutbox.message("user@email.com"));
+                Assert.fail("Expected the pool lease to time out");
+            } catch (PostmarkException e) {
+                assertWithin(start, 100, 700);
+            }
+            holder.join();
+        } finally {
+            client.close();
+        }
+    }
+
+    private static PostmarkClientConfig deadlineConfig(long sendTimeoutMillis)
+    {
+        PostmarkClientConfig config = new PostmarkClientConfig();
+        config.setSendTimeoutMillis(sendTimeoutMillis);
+        return config;
+    }
+
+    private static void assertWithin(long start, long minMillis, long maxMillis)
+    {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertTrue("Took " + elapsed + " ms", elapsed >= minMillis - 10 && elapsed <= maxMillis);
+    }
+}
@@ -0,0 +1,158 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.annotations.SerializedName;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that the hand-written message writers produce the same JSON as
+ * Gson's reflective serialization.
+ */
+public class TestTypeAdapters {
+
+    private final Gson reflective = new GsonBuilder()
+            .registerTypeAdapter(DateTime.class, new DateTimeTypeAdapter())
+            .setExclusionStrategies(new SkipMeExclusionStrategy())
+            .disableHtmlEscaping()
+            .create();
+
+    @Test
+    public void testMessage() throws Exception
+    {
+        List<NameValuePair> headers = new ArrayList<NameValuePair>();
+        headers.add(new NameValuePair("HEADER", "test"));
+        headers.add(new NameValuePair("EMPTY", null));
+
+        PostmarkMessage message = new PostmarkMessage(
+                "team@company.com",
+                "user@email.com",
+                "reply@company.com",
+                null,
+                "bcc@company.com",
+                "Test \"Subject\" <&>",
+                "<h1>Test heading</h1>",
+                true,
+                "tag",
+                headers);
+
+        Attachment attachment = new Attachment();
+        attachment.setName("SomethingAwesome.pdf");
+        attachment.setContentType("application/pdf");
+        attachment.setContent("JVBERi0xLjQK");
+        message.setAttachments(Collections.singletonList(attachment));
+
+        assertSameJson(message);
+        assertSameJson(Arrays.asList(message, new PostmarkMessage("a@b.com", "c@d.com", null, null, null, "text", false, null)));
+    }
+
+    @Test
+    public void testTemplate() throws Exception
+    {
+        PostmarkTemplate template = new PostmarkTemplate(
+            "team@company.com",
+            "user@email.com",
+            null,
+            "cc@company.com",
+            null,
+            null,
+            null,
+            1,
+            new TestModel(),
+            true
+        );
+
+        assertSameJson(template);
+
+        template.setTemplateModel(null);
+        assertSameJson(template);
+    }
+
+    @Test
+    public void testStreamedAttachments() throws Exception
+    {
+        AttachmentCache cache = new AttachmentCache(1 << 20, true);
+
+        for (int size : new int[] { 0, 1, 2, 3, AttachmentSource.CHUNK_SIZE, AttachmentSource.CHUNK_SIZE * 2 + 1 }) {
+            byte[] bytes = new byte[size];
+            new Random(size).nextBytes(bytes);
+
+            Attachment encoded = new Attachment();
+            encoded.setName("file.bin");
+            encoded.setContentType("application/octet-stream");
+            encoded.setContent(Base64.getEncoder().encodeToString(bytes));
+
+            Path file = Files.createTempFile("attachment", ".bin");
+            try {
+                Files.write(file, bytes);
+
+                assertSameStreamedJson(encoded, Attachment.fromByteBuffer(ByteBuffer.wrap(bytes), "file.bin", "application/octet-stream"));
+                assertSameStreamedJson(encoded, Attachment.fromPath(file, "file.bin", "application/octet-stream"));
+                assertSameStreamedJson(encoded, Attachment.fromInputStream(new ByteArrayInputStream(bytes), "file.bin", "application/octet-stream"));
+
+                Attachment cached = Attachment.fromHandle(cache.register(bytes), "file.bin", "application/octet-stream");
+                assertSameStreamedJson(encoded, cached);
+                Assert.assertEquals(encoded, cached);
+                Assert.assertEquals(encoded.hashCode(), cached.hashCode());
+                Assert.assertSame(cache.register(bytes.clone()), cache.register(bytes));
+            } finally {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private void assertSameStreamedJson(Attachment encoded, Attachment streamed) throws Exception {
+        PostmarkMessage expected = new PostmarkMessage("a@b.com", "c@d.com", null, null, null, "text", false, null);
+        expected.setAttachments(Arrays.asList(encoded, encoded));
+        PostmarkMessage actual = new PostmarkMessage(expected);
+        actual.setAttachments(Arrays.asList(streamed, encoded));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        new JsonEntity(PostmarkGson.INSTANCE, actual).writeTo(body);
+        Assert.assertEquals(reflective.toJson(expected), body.toString("UTF-8"));
+    }
+
+    private void assertSameJson(Object value) {
+        Assert.assertEquals(reflective.toJson(value), PostmarkGson.INSTANCE.toJson(value));
+    }
+
+    public static class TestModel implements TemplateModel
+    {
+        @SerializedName("name")
+        public String name = "Mary";
+
+        @SerializedName("help_url")
+        public String helpUrl = "https://postmarkapp.com";
+    }
+}
@@ -0,0 +1,167 @@
+// The MIT License
+//
+// Copyright (c) 2010 Jared Holdcroft
+//
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+//
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+//
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+
+package com.postmark.java;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the validation that runs before a message is sent.
+ */
+public class TestValidation {
+
+    @Test
+    public void testAddressLists()
+    {
+        Assert.assertEquals(0, AddressParser.countMailboxes(""));
+        Assert.assertEquals(1, AddressParser.countMailboxes("user@email.com"));
+        Assert.assertEquals(1, AddressParser.countMailboxes(" John Smith <john.smith@email.com> "));
+        Assert.assertEquals(1, AddressParser.countMailboxes("\"Smith, John\" <john@email.com>"));
+        Assert.assertEquals(1, AddressParser.countMailboxes("\"john smith\"@email.com (work)"));
+        Assert.assertEquals(1, AddressParser.countMailboxes("\"john \\\"js\\\" smith\"@email.com (a \\) b)"));
+        Assert.assertEquals(1, AddressParser.countMailboxes("J. R. Smith <j+tag@mail.email.co.uk>"));
+        Assert.assertEquals(1, AddressParser.countMailboxes("user@[192.0.2.1]"));
+        Assert.assertEquals(1, AddressParser.countMailboxes("J\u00fcrgen <j\u00fcrgen@b\u00fccher.de>"));
+        Assert.assertEquals(3, AddressParser.countMailboxes("a@b.com, \"C, D\" <c@d.com>,e@f.org"));
+
+        Assert.assertEquals(-1, AddressParser.countMailboxes("user"));
+        Assert.assertEquals(-1, AddressParser.countMailboxes("user@localhost"));
+        Assert.assertEquals(-1, AddressParser.countMailboxes("user@email..com"));
+        Assert.assertEquals(-1, AddressParser.countMailboxes("user@-email.com"));
+        Assert.assertEquals(-1, AddressParser.countMailboxes(".user@email.com"));
+        Assert.assertEquals(-1, AddressParser.countMailboxes("user@email.com,"));
+        Assert.assertEquals(-1, AddressParser.countMailboxes("a@b.com,,c@d.com"));
+        Assert.assertEquals(-1, AddressParser.countMailboxes("John <john@email.com"));
+        Assert.assertEquals(-1, AddressParser.countMailboxes("Smith, John <john@email.com>"));
+        Assert.assertEquals(-1, AddressParser.countMailboxes("a@b.com (unclosed"));
+        Assert.assertEquals(-1, AddressParser.countMailboxes("a@b.com (foo\\"));
+        Assert.assertEquals(-1, AddressParser.countMailboxes("\"john\\"));
+        Assert.assertEquals(-1, AddressParser.countMailboxes("\"john\\\"@email.com"));
+        Assert.assertEquals(-1, AddressParser.countMailboxes("a@b.com\r\nBcc: c@d.com"));
+    }
+
+    @Test
+    public void testRecipientLimit() throws Exception
+    {
+        StringBuilder to = new StringBuilder();
+        for (int i = 0; i < MessageValidator.MAX_RECIPIENTS; i++) {
+            to.append(i == 0 ? "" : ", ").append("user").append(i).append("@email.com");
+        }
+        PostmarkMessage message = message(to.toString());
+        message.validate();
+
+        message.setBccAddress("one-more@email.com");
+        assertInvalid(message, "at most 50 recipients");
+    }
+
+    @Test
+    public void testAddresses() throws Exception
+    {
+        PostmarkMessage message = message("user@email.com");
+        message.setFromAddress("Company <team@company.com>");
+        message.setCcAddress("");
+        message.validate();
+
+        message.setFromAddress("team@company.com, other@company.com");
+        assertInvalid(message, "'From'");
+
+        message.setFromAddress("team@company.com");
+        message.setToAddress("   ");
+        assertInvalid(message, "'To'");
+
+        message.setToAddress("user@email.com");
+        message.setReplyToAddress("reply@");
+        assertInvalid(message, "'ReplyTo'");
+    }
+
+    @Test
+    public void testHeaders() throws Exception
+    {
+        List<NameValuePair> headers = new ArrayList<NameValuePair>();
+        headers.add(new NameValuePair("X-Custom", "value"));
+        PostmarkMessage message = message("user@email.com");
+        message.setHeaders(headers);
+        message.validate();
+
+        headers.add(new NameValuePair("Bad Name", "value"));
+        assertInvalid(message, "header name");
+
+        headers.set(1, new NameValuePair("X-Other", "value\r\nBcc: victim@email.com"));
+        assertInvalid(message, "line breaks");
+    }
+
+    @Test
+    public void testBodySize() throws Exception
+    {
+        // The limit is in bytes, so four million characters fit in ASCII but not as three-byte euro signs
+        PostmarkMessage message = message("user@email.com");
+        message.setTextBody(new String(new char[4 * 1024 * 1024]).replace('\0', 'a'));
+        message.validate();
+
+        message.setTextBody(new String(new char[4 * 1024 * 1024]).replace('\0', '\u20ac'));
+        assertInvalid(message, "limit of");
+    }
+
+    @Test
+    public void testAttachments() throws Exception
+    {
+        Attachment attachment = new Attachment();
+        attachment.setName("invoice.pdf");
+        attachment.setContentType("application/pdf; name=\"invoice.pdf\"");
+        attachment.setContent("JVBERi0xLjQK");
+        PostmarkMessage message = message("user@email.com");
+        message.setAttachments(Collections.singletonList(attachment));
+        message.validate();
+
+        attachment.setContentType("pdf");
+        assertInvalid(message, "content type");
+
+        attachment.setContentType("application/octet-stream");
+        attachment.setName("setup.EXE");
+        assertInvalid(message, "not allowed");
+
+        Attachment large = Attachment.fromByteBuffer(ByteBuffer.allocate(8 * 1024 * 1024), "data.bin.gz", "application/gzip");
+        message.setAttachments(Collections.singletonList(large));
+        assertInvalid(message, "limit of");
+    }
+
+    private static PostmarkMessage message(String to) {
+        return new PostmarkMessage("team@company.com", to, null, null, "Subject", "Body", false, null);
+    }
+
+    private static void assertInvalid(PostmarkMessageBase message, String expected) {
+        try {
+            message.validate();
+            Assert.fail("Expected the message to be rejected: " + expected);
+        } catch (PostmarkException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(expected));
+            Assert.assertEquals(PostmarkStatus.USERERROR, e.getResponse().getStatus());
+            Assert.assertEquals(0, e.getStackTrace().length);
+        }
+    }
+}